@@ -0,0 +1,582 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import javalib.worldimages.Posn;
+import tester.Tester;
+
+// represents a board being benchmarked along with the level it was built from
+class BenchFixture {
+  // represents the level the board was built from
+  SokobanLevel level;
+  // represents the board the operations run against
+  SokobanBoard board;
+  // represents the direction of the next benchmarked player move
+  // (alternates so the player keeps walking between the same two cells)
+  String nextDirection;
+
+  BenchFixture(SokobanLevel level) {
+    this.level = level;
+    this.board = level.toBoard();
+    this.nextDirection = "right";
+  }
+}
+
+// represents one operation of the core engine that can be benchmarked
+interface IBenchOp {
+
+  // produces the name this operation is reported under
+  String name();
+
+  // runs this operation once against the given fixture and produces a number
+  // that depends on the result, so the work cannot be optimized away
+  int run(BenchFixture fixture);
+}
+
+// benchmarks SokobanBoard.playerMove, walking the player back and forth
+class PlayerMoveOp implements IBenchOp {
+  public String name() {
+    return "playerMove";
+  }
+
+  public int run(BenchFixture fixture) {
+    fixture.board = fixture.board.playerMove(fixture.nextDirection);
+    if (fixture.nextDirection.equals("right")) {
+      fixture.nextDirection = "left";
+    }
+    else {
+      fixture.nextDirection = "right";
+    }
+    return fixture.board.levelContentsCells.size();
+  }
+}
+
+// benchmarks SokobanBoard.levelWon
+class LevelWonOp implements IBenchOp {
+  public String name() {
+    return "levelWon";
+  }
+
+  public int run(BenchFixture fixture) {
+    if (fixture.board.levelWon()) {
+      return 1;
+    }
+    return 0;
+  }
+}
+
+// benchmarks SokobanBoard.shouldEnd
+class ShouldEndOp implements IBenchOp {
+  public String name() {
+    return "shouldEnd";
+  }
+
+  public int run(BenchFixture fixture) {
+    if (fixture.board.shouldEnd()) {
+      return 1;
+    }
+    return 0;
+  }
+}
+
+// benchmarks SokobanBoard.render
+class RenderOp implements IBenchOp {
+  public String name() {
+    return "render";
+  }
+
+  public int run(BenchFixture fixture) {
+    return fixture.board.render().width;
+  }
+}
+
+// benchmarks building a SokobanBoard from the two level strings
+class ConstructOp implements IBenchOp {
+  public String name() {
+    return "construct";
+  }
+
+  public int run(BenchFixture fixture) {
+    return new SokobanBoard(fixture.level.ground, fixture.level.contents).levelContentsCells
+        .size();
+  }
+}
+
+// benchmarks Utils.findCell on the last cell of the contents (the longest search)
+class FindCellOp implements IBenchOp {
+  public String name() {
+    return "findCell";
+  }
+
+  public int run(BenchFixture fixture) {
+    Posn size = fixture.board.size;
+    return new Utils().findCell(fixture.board.levelContentsCells, size.x, size.y)
+        .findCoords().x;
+  }
+}
+
+// benchmarks Utils.findNext from the middle of the board
+class FindNextOp implements IBenchOp {
+  public String name() {
+    return "findNext";
+  }
+
+  public int run(BenchFixture fixture) {
+    Posn size = fixture.board.size;
+    return new Utils().findNext(fixture.board.levelContentsCells, "down",
+        new Posn(size.x / 2, size.y / 2), size).findCoords().y;
+  }
+}
+
+// benchmarks SokobanSnapshot.save and SokobanSnapshot.load through a file of its own
+class SaveLoadOp implements IBenchOp {
+  // represents the file the snapshots are saved to, made on the first run
+  Path file;
+
+  public String name() {
+    return "saveLoad";
+  }
+
+  public int run(BenchFixture fixture) {
+    try {
+      if (this.file == null) {
+        this.file = Files.createTempFile("sokoban-bench", ".skb");
+        this.file.toFile().deleteOnExit();
+      }
+      new SokobanSnapshot(fixture.level, fixture.board).save(this.file);
+      return SokobanSnapshot.load(this.file, new ArrayList<SokobanLevel>()).grid.player;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
+
+// represents the measurements of one operation on one level
+class BenchResult {
+  // represents the name of the operation measured
+  String benchmark;
+  // represents the name of the level measured
+  String level;
+  // represents the number of cells in the level
+  int cells;
+  // represents how the operation was measured: "avgt" for the average time of
+  // repeated calls, "ss" for a single call when one call outlasts an iteration
+  String mode;
+  // represents the average nanoseconds per call of every measurement iteration
+  ArrayList<Double> iterationScores;
+  // represents the total number of measured calls
+  long ops;
+  // represents the bytes allocated per call, or -1 when not profiled
+  double bytesPerOp;
+  // represents the allocation rate in megabytes per second, or -1 when not
+  // profiled
+  double allocMegabytesPerSecond;
+  // represents the garbage collections during measurement, or -1 when not
+  // profiled
+  long gcCount;
+  // represents the milliseconds spent in garbage collection during
+  // measurement, or -1 when not profiled
+  long gcMillis;
+
+  BenchResult(String benchmark, String level, int cells, String mode,
+      ArrayList<Double> iterationScores, long ops, double bytesPerOp,
+      double allocMegabytesPerSecond, long gcCount, long gcMillis) {
+    this.benchmark = benchmark;
+    this.level = level;
+    this.cells = cells;
+    this.mode = mode;
+    this.iterationScores = iterationScores;
+    this.ops = ops;
+    this.bytesPerOp = bytesPerOp;
+    this.allocMegabytesPerSecond = allocMegabytesPerSecond;
+    this.gcCount = gcCount;
+    this.gcMillis = gcMillis;
+  }
+
+  // produces the average nanoseconds per call over every iteration
+  double score() {
+    double total = 0;
+    for (Double s : this.iterationScores) {
+      total += s;
+    }
+    return total / Math.max(1, this.iterationScores.size());
+  }
+
+  // produces this result as a line of the text report
+  String toText() {
+    String line = String.format(Locale.ROOT, "%-12s %-10s %9d %5s %16.1f ns/op", this.benchmark,
+        this.level, this.cells, this.mode, this.score());
+    if (this.bytesPerOp >= 0) {
+      line = line + String.format(Locale.ROOT, " %14.1f B/op %9.1f MB/s %4d gc %5d ms",
+          this.bytesPerOp, this.allocMegabytesPerSecond, this.gcCount, this.gcMillis);
+    }
+    return line;
+  }
+
+  // produces this result as a JSON object laid out like a JMH result,
+  // so results of two builds can be compared with the usual tools
+  String toJson() {
+    StringBuilder raw = new StringBuilder();
+    for (int i = 0; i < this.iterationScores.size(); i += 1) {
+      if (i > 0) {
+        raw.append(", ");
+      }
+      raw.append(String.format(Locale.ROOT, "%.3f", this.iterationScores.get(i)));
+    }
+    String json = "  {\n" + "    \"benchmark\" : \"SokobanBench." + this.benchmark + "\",\n"
+        + "    \"mode\" : \"" + this.mode + "\",\n" + "    \"params\" : { \"level\" : \""
+        + this.level + "\", \"cells\" : \"" + this.cells + "\" },\n"
+        + "    \"primaryMetric\" : {\n"
+        + String.format(Locale.ROOT, "      \"score\" : %.3f,\n", this.score())
+        + "      \"scoreUnit\" : \"ns/op\",\n" + "      \"rawData\" : [ [ " + raw + " ] ]\n"
+        + "    },\n" + "    \"secondaryMetrics\" : {";
+    if (this.bytesPerOp >= 0) {
+      json = json + "\n"
+          + String.format(Locale.ROOT,
+              "      \"gc.alloc.rate\" : { \"score\" : %.3f, \"scoreUnit\" : \"MB/sec\" },\n",
+              this.allocMegabytesPerSecond)
+          + String.format(Locale.ROOT,
+              "      \"gc.alloc.rate.norm\" : { \"score\" : %.3f, \"scoreUnit\" : \"B/op\" },\n",
+              this.bytesPerOp)
+          + "      \"gc.count\" : { \"score\" : " + this.gcCount
+          + ", \"scoreUnit\" : \"counts\" },\n" + "      \"gc.time\" : { \"score\" : "
+          + this.gcMillis + ", \"scoreUnit\" : \"ms\" }\n" + "    ";
+    }
+    return json + "}\n" + "  }";
+  }
+}
+
+// runs benchmarks of the hot paths of the core engine (moving, checking for a
+// win, rendering, building boards, finding cells and saving and loading a game)
+// over the example levels and generated rooms of increasing size, printing a
+// report and optionally writing JSON results that can be compared between builds
+//
+// usage: java SokobanBench [-wi warmups] [-i iterations] [-r millis]
+// [-sizes 10,50,100,500] [-bench playerMove,levelWon] [-prof gc] [-rff out.json]
+class SokobanBench {
+  // represents the number of warmup iterations before measuring
+  int warmupIterations;
+  // represents the number of measured iterations
+  int measurementIterations;
+  // represents how long each iteration repeats the operation, in nanoseconds
+  long iterationNanos;
+  // represents the sides of the generated rooms to benchmark
+  ArrayList<Integer> sizes;
+  // represents the names of the operations to run (empty runs every operation)
+  ArrayList<String> only;
+  // represents whether allocation and garbage collection are profiled
+  boolean gcProfiler;
+  // represents the file the JSON results are written to (empty for none)
+  String jsonPath;
+  // represents a running total of every operation's result, read after the
+  // run so the measured calls cannot be removed as dead code
+  long sink;
+
+  SokobanBench(String[] args) {
+    this.warmupIterations = 3;
+    this.measurementIterations = 5;
+    this.iterationNanos = 200_000_000L;
+    this.sizes = new ArrayList<Integer>();
+    this.only = new ArrayList<String>();
+    this.gcProfiler = false;
+    this.jsonPath = "";
+    ArrayList<String> sizeNames = new ArrayList<String>();
+    // reads every flag along with the value that follows it
+    for (int i = 0; i < args.length; i += 1) {
+      String flag = args[i];
+      if (flag.equals("-prof")) {
+        this.gcProfiler = this.value(args, i).equals("gc");
+      }
+      else if (flag.equals("-wi")) {
+        this.warmupIterations = Integer.parseInt(this.value(args, i));
+      }
+      else if (flag.equals("-i")) {
+        this.measurementIterations = Math.max(1, Integer.parseInt(this.value(args, i)));
+      }
+      else if (flag.equals("-r")) {
+        this.iterationNanos = Long.parseLong(this.value(args, i)) * 1_000_000L;
+      }
+      else if (flag.equals("-sizes")) {
+        sizeNames = this.split(this.value(args, i));
+      }
+      else if (flag.equals("-bench")) {
+        this.only = this.split(this.value(args, i));
+      }
+      else if (flag.equals("-rff")) {
+        this.jsonPath = this.value(args, i);
+      }
+      else {
+        throw new IllegalArgumentException("Unknown benchmark option " + flag);
+      }
+      i += 1;
+    }
+    if (sizeNames.isEmpty()) {
+      sizeNames = this.split("10,50,100,500");
+    }
+    for (String s : sizeNames) {
+      this.sizes.add(Integer.parseInt(s));
+    }
+  }
+
+  // produces the value following the flag at the given index in the arguments
+  String value(String[] args, int i) {
+    if (i + 1 >= args.length) {
+      throw new IllegalArgumentException("Missing value for benchmark option " + args[i]);
+    }
+    return args[i + 1];
+  }
+
+  // produces the comma separated items of the given string
+  ArrayList<String> split(String given) {
+    ArrayList<String> result = new ArrayList<String>();
+    for (String s : given.split(",")) {
+      if (!s.isEmpty()) {
+        result.add(s);
+      }
+    }
+    return result;
+  }
+
+  // produces every operation this benchmark runs
+  ArrayList<IBenchOp> ops() {
+    ArrayList<IBenchOp> all = new ArrayList<IBenchOp>();
+    all.add(new PlayerMoveOp());
+    all.add(new LevelWonOp());
+    all.add(new ShouldEndOp());
+    all.add(new RenderOp());
+    all.add(new ConstructOp());
+    all.add(new FindCellOp());
+    all.add(new FindNextOp());
+    all.add(new SaveLoadOp());
+    ArrayList<IBenchOp> result = new ArrayList<IBenchOp>();
+    for (IBenchOp op : all) {
+      if (this.only.isEmpty() || this.only.contains(op.name())) {
+        result.add(op);
+      }
+    }
+    return result;
+  }
+
+  // produces every level this benchmark runs against, smallest first
+  ArrayList<SokobanLevel> levels() {
+    ArrayList<SokobanLevel> result = new SokobanLevels().examples();
+    for (Integer side : this.sizes) {
+      result.add(new SokobanLevels().room(side));
+    }
+    return result;
+  }
+
+  // produces the bytes allocated so far by the current thread,
+  // or -1 if the virtual machine cannot tell
+  long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+      if (sunThreads.isThreadAllocatedMemorySupported()
+          && sunThreads.isThreadAllocatedMemoryEnabled()) {
+        return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  // produces the total number of collections and milliseconds spent collecting
+  long[] gcTotals() {
+    long[] totals = new long[2];
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      totals[0] += Math.max(0, gc.getCollectionCount());
+      totals[1] += Math.max(0, gc.getCollectionTime());
+    }
+    return totals;
+  }
+
+  // measures the given operation against a fresh board of the given level
+  // if a single call takes longer than an iteration, that call alone is reported
+  BenchResult measure(IBenchOp op, SokobanLevel level) {
+    BenchFixture fixture = new BenchFixture(level);
+    Posn size = fixture.board.size;
+    ArrayList<Double> scores = new ArrayList<Double>();
+    long firstStart = System.nanoTime();
+    this.sink += op.run(fixture);
+    long firstCall = System.nanoTime() - firstStart;
+    if (firstCall > this.iterationNanos) {
+      scores.add((double) firstCall);
+      return new BenchResult(op.name(), level.name, size.x * size.y, "ss", scores, 1, -1, -1, -1,
+          -1);
+    }
+    // warms up the operation so the measured iterations run compiled code
+    for (int i = 0; i < this.warmupIterations; i += 1) {
+      this.iteration(op, fixture);
+    }
+    long allocBefore = this.allocatedBytes();
+    long[] gcBefore = this.gcTotals();
+    long totalOps = 0;
+    long totalNanos = 0;
+    // measures every iteration, recording its average time per call
+    for (int i = 0; i < this.measurementIterations; i += 1) {
+      long start = System.nanoTime();
+      long ops = this.iteration(op, fixture);
+      long elapsed = System.nanoTime() - start;
+      scores.add((double) elapsed / ops);
+      totalOps += ops;
+      totalNanos += elapsed;
+    }
+    long allocAfter = this.allocatedBytes();
+    long[] gcAfter = this.gcTotals();
+    if (!this.gcProfiler || allocBefore < 0) {
+      return new BenchResult(op.name(), level.name, size.x * size.y, "avgt", scores, totalOps, -1,
+          -1, -1, -1);
+    }
+    double bytes = allocAfter - allocBefore;
+    return new BenchResult(op.name(), level.name, size.x * size.y, "avgt", scores, totalOps,
+        bytes / totalOps, (bytes / (1024.0 * 1024.0)) / (totalNanos / 1e9),
+        gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+  }
+
+  // repeats the given operation for one iteration and produces the number of
+  // calls made
+  long iteration(IBenchOp op, BenchFixture fixture) {
+    long ops = 0;
+    long start = System.nanoTime();
+    // calls the operation until the iteration time has passed
+    while (ops == 0 || System.nanoTime() - start < this.iterationNanos) {
+      this.sink += op.run(fixture);
+      ops += 1;
+    }
+    return ops;
+  }
+
+  // runs every operation against every level, reporting each result as it
+  // finishes
+  ArrayList<BenchResult> runAll() {
+    ArrayList<BenchResult> results = new ArrayList<BenchResult>();
+    for (SokobanLevel level : this.levels()) {
+      for (IBenchOp op : this.ops()) {
+        BenchResult result = this.measure(op, level);
+        System.out.println(result.toText());
+        results.add(result);
+      }
+    }
+    return results;
+  }
+
+  // produces the given results as a JSON array
+  String toJson(ArrayList<BenchResult> results) {
+    StringBuilder json = new StringBuilder("[\n");
+    for (int i = 0; i < results.size(); i += 1) {
+      json.append(results.get(i).toJson());
+      if (i < results.size() - 1) {
+        json.append(",");
+      }
+      json.append("\n");
+    }
+    return json.append("]\n").toString();
+  }
+
+  // runs the benchmarks with the given options
+  public static void main(String[] args) throws IOException {
+    SokobanBench bench = new SokobanBench(args);
+    ArrayList<BenchResult> results = bench.runAll();
+    if (!bench.jsonPath.isEmpty()) {
+      Files.write(Paths.get(bench.jsonPath),
+          bench.toJson(results).getBytes(StandardCharsets.UTF_8));
+    }
+    System.out.println("(sink " + bench.sink + ")");
+  }
+}
+
+// tests and examples for SokobanBench
+class ExamplesSokobanBench {
+
+  // tests and examples for the SokobanBench constructor reading options
+  boolean testSokobanBenchConstructor_SokobanBench(Tester t) {
+    SokobanBench defaults = new SokobanBench(new String[] {});
+    SokobanBench given = new SokobanBench(new String[] { "-wi", "0", "-i", "2", "-r", "1",
+        "-sizes", "5,9", "-bench", "levelWon,render", "-prof", "gc", "-rff", "out.json" });
+    ArrayList<Integer> givenSizes = new ArrayList<Integer>();
+    givenSizes.add(5);
+    givenSizes.add(9);
+    return t.checkExpect(defaults.sizes.size(), 4) && t.checkExpect(defaults.ops().size(), 8)
+        && t.checkExpect(defaults.gcProfiler, false) && t.checkExpect(given.sizes, givenSizes)
+        && t.checkExpect(given.iterationNanos, 1_000_000L)
+        && t.checkExpect(given.ops().size(), 2) && t.checkExpect(given.ops().get(1).name(),
+            "render")
+        && t.checkExpect(given.gcProfiler, true) && t.checkExpect(given.jsonPath, "out.json")
+        && t.checkExpect(given.levels().size(), 5)
+        && t.checkConstructorException(
+            new IllegalArgumentException("Unknown benchmark option -x"), "SokobanBench",
+            (Object) new String[] { "-x", "1" })
+        && t.checkConstructorException(
+            new IllegalArgumentException("Missing value for benchmark option -i"),
+            "SokobanBench", (Object) new String[] { "-i" });
+  }
+
+  // tests and examples for the operations run by SokobanBench
+  boolean testOps_SokobanBench(Tester t) {
+    BenchFixture fixture = new BenchFixture(new SokobanLevels().room(7));
+    int moved = new PlayerMoveOp().run(fixture);
+    String afterOne = fixture.nextDirection;
+    new PlayerMoveOp().run(fixture);
+    return t.checkExpect(moved, 50) && t.checkExpect(afterOne, "left")
+        && t.checkExpect(fixture.nextDirection, "right")
+        && t.checkExpect(fixture.board.levelContentsCells.get(48).findCoords(), new Posn(2, 2))
+        && t.checkExpect(new LevelWonOp().run(fixture), 0)
+        && t.checkExpect(new ShouldEndOp().run(fixture), 0)
+        && t.checkExpect(new RenderOp().run(fixture), 7 * 120)
+        && t.checkExpect(new ConstructOp().run(fixture), 49)
+        && t.checkExpect(new FindCellOp().run(fixture), 7)
+        && t.checkExpect(new FindNextOp().run(fixture), 4)
+        && t.checkExpect(new SaveLoadOp().run(fixture), 7 + 1);
+  }
+
+  // tests and examples for measure and toJson in SokobanBench
+  boolean testMeasure_SokobanBench(Tester t) {
+    SokobanBench bench = new SokobanBench(
+        new String[] { "-wi", "1", "-i", "2", "-r", "20", "-prof", "gc", "-sizes", "6" });
+    BenchResult result = bench.measure(new ShouldEndOp(), new SokobanLevels().room(6));
+    ArrayList<BenchResult> results = new ArrayList<BenchResult>();
+    results.add(result);
+    String json = bench.toJson(results);
+    return t.checkExpect(result.benchmark, "shouldEnd") && t.checkExpect(result.cells, 36)
+        && t.checkExpect(result.mode, "avgt") && t.checkExpect(result.iterationScores.size(), 2)
+        && t.checkExpect(result.ops >= 2, true) && t.checkExpect(result.score() > 0, true)
+        && t.checkExpect(json.startsWith("[\n  {\n    \"benchmark\" : \"SokobanBench.shouldEnd\""),
+            true)
+        && t.checkExpect(
+            json.contains("\"params\" : { \"level\" : \"room6\", \"cells\" : \"36\" }"), true)
+        && t.checkExpect(json.contains("\"gc.alloc.rate.norm\""), result.bytesPerOp >= 0)
+        && t.checkExpect(json.endsWith("  }\n]\n"), true);
+  }
+
+  // tests and examples for toJson and toText in BenchResult
+  boolean testToJson_BenchResult(Tester t) {
+    ArrayList<Double> scores = new ArrayList<Double>();
+    scores.add(10.0);
+    scores.add(20.0);
+    BenchResult plain = new BenchResult("render", "basic", 56, "avgt", scores, 4, -1, -1, -1, -1);
+    BenchResult profiled = new BenchResult("render", "basic", 56, "avgt", scores, 4, 64.0, 2.5, 1,
+        3);
+    return t.checkExpect(plain.score(), 15.0)
+        && t.checkExpect(plain.toJson(),
+            "  {\n" + "    \"benchmark\" : \"SokobanBench.render\",\n"
+                + "    \"mode\" : \"avgt\",\n"
+                + "    \"params\" : { \"level\" : \"basic\", \"cells\" : \"56\" },\n"
+                + "    \"primaryMetric\" : {\n" + "      \"score\" : 15.000,\n"
+                + "      \"scoreUnit\" : \"ns/op\",\n"
+                + "      \"rawData\" : [ [ 10.000, 20.000 ] ]\n" + "    },\n"
+                + "    \"secondaryMetrics\" : {}\n" + "  }")
+        && t.checkExpect(profiled.toJson().contains(
+            "      \"gc.alloc.rate.norm\" : { \"score\" : 64.000, \"scoreUnit\" : \"B/op\" },\n"),
+            true)
+        && t.checkExpect(plain.toText().contains("15.0 ns/op"), true)
+        && t.checkExpect(profiled.toText().contains("64.0 B/op"), true);
+  }
+}
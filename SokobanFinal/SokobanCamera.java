@@ -0,0 +1,226 @@
+import java.awt.Color;
+
+import javalib.funworld.WorldScene;
+import javalib.worldimages.ComputedPixelImage;
+import javalib.worldimages.FontStyle;
+import javalib.worldimages.FromFileImage;
+import javalib.worldimages.Posn;
+import javalib.worldimages.TextImage;
+import tester.Tester;
+
+// represents a spatial index of a board: the cells of the board by location, so
+// the cells of any window of the board are found without looking at the others
+// (a location holds its ground cell and the contents cell drawn on top: the
+// first one that is not a blank, or a blank if there is none)
+class BoardIndex {
+  // represents the width of the board
+  int width;
+  // represents the height of the board
+  int height;
+  // represents the ground cell of every location, row by row
+  ICell[] ground;
+  // represents the contents cell of every location, row by row
+  ICell[] contents;
+  // represents the location of the player, row by row, or -1 if there is none
+  int player = -1;
+
+  BoardIndex(SokobanBoard board) {
+    this.width = board.size.x;
+    this.height = board.size.y;
+    this.ground = new ICell[this.width * this.height];
+    this.contents = new ICell[this.width * this.height];
+    // files every ground cell under its location
+    for (ICell cell : board.levelGroundCells) {
+      this.ground[this.index(cell.accept(new CellPosnVisitor()))] = cell;
+    }
+    // files every contents cell under its location, unless a cell that is not a
+    // blank is already there
+    for (ICell cell : board.levelContentsCells) {
+      int index = this.index(cell.accept(new CellPosnVisitor()));
+      String name = cell.accept(new CellCharVisitor());
+      if (this.contents[index] == null || !name.equals("_")) {
+        this.contents[index] = cell;
+      }
+      if (name.equals(">")) {
+        this.player = index;
+      }
+    }
+  }
+
+  // produces the index of the given location, row by row
+  int index(Posn coord) {
+    return (coord.y - 1) * this.width + (coord.x - 1);
+  }
+}
+
+// represents a camera that shows a window of a board that follows the player,
+// drawing only the cells in the window and a margin of cells around it
+class Camera {
+  // represents the number of columns of cells in the window
+  int columns;
+  // represents the number of rows of cells in the window
+  int rows;
+  // represents the number of cells drawn beyond every side of the window
+  int margin;
+
+  Camera(int columns, int rows, int margin) {
+    if (columns <= 0 || rows <= 0 || margin < 0) {
+      throw new IllegalArgumentException(
+          "A camera needs a positive size and a margin of at least 0");
+    }
+    this.columns = columns;
+    this.rows = rows;
+    this.margin = margin;
+  }
+
+  // produces the location of the top left cell of the window on the given board,
+  // counting from 0: the window is centered on the player (on the middle of the
+  // board if there is none) and kept within the board
+  Posn origin(BoardIndex index) {
+    int x = index.width / 2;
+    int y = index.height / 2;
+    if (index.player >= 0) {
+      x = index.player % index.width;
+      y = index.player / index.width;
+    }
+    return new Posn(this.clamp(x - this.columns / 2, index.width - this.columns),
+        this.clamp(y - this.rows / 2, index.height - this.rows));
+  }
+
+  // produces the given start of the window kept between 0 and the given last start
+  int clamp(int start, int last) {
+    return Math.max(0, Math.min(start, last));
+  }
+
+  // renders the window of the given board into a scene the size of the window,
+  // with tiles of the given size: the ground cells of the window and its margin,
+  // and then their contents on top
+  WorldScene render(BoardIndex index, int tile) {
+    long start = SokobanMetrics.REGISTRY.start();
+    WorldScene result = new WorldScene(this.columns * tile, this.rows * tile);
+    CellImageVisitor images = new CellImageVisitor(SpriteAtlas.directoryFor(tile), tile);
+    Posn origin = this.origin(index);
+    int left = Math.max(0, origin.x - this.margin);
+    int right = Math.min(index.width, origin.x + this.columns + this.margin);
+    int top = Math.max(0, origin.y - this.margin);
+    int bottom = Math.min(index.height, origin.y + this.rows + this.margin);
+    // places the ground, and then the contents, of every cell in the window
+    for (int layer = 0; layer < 2; layer += 1) {
+      ICell[] cells = index.ground;
+      if (layer == 1) {
+        cells = index.contents;
+      }
+      for (int y = top; y < bottom; y += 1) {
+        for (int x = left; x < right; x += 1) {
+          ICell cell = cells[y * index.width + x];
+          if (cell != null) {
+            result = result.placeImageXY(cell.accept(images),
+                (x - origin.x) * tile + tile / 2, (y - origin.y) * tile + tile / 2);
+          }
+        }
+      }
+    }
+    SokobanMetrics.REGISTRY.stop(SokobanMetrics.REGISTRY.render, start);
+    return result;
+  }
+
+  // displays the appropriate ending screen based on the given string, the size
+  // of the window with tiles of the given size
+  WorldScene lastScene(String msg, int tile) {
+    return new WorldScene(this.columns * tile, this.rows * tile).placeImageXY(
+        new TextImage(msg, 24, FontStyle.BOLD, Color.BLACK), (this.columns * tile) / 2,
+        (this.rows * tile) / 2);
+  }
+}
+
+// tests and examples for BoardIndex and Camera
+class ExamplesCamera {
+  // a level of 12 by 4 with the player near the right edge
+  SokobanLevel wide = new SokobanLevel("wide",
+      "____________\n" + "____________\n" + "__R_________\n" + "____________",
+      "WWWWWWWWWWWW\n" + "W_________>W\n" + "Wr_________W\n" + "WWWWWWWWWWWW");
+
+  // tests that a board index files every cell under its location
+  boolean testIndex_BoardIndex(Tester t) {
+    SokobanBoard board = new SokobanBoard("___\n" + "__R", "W>_\n" + "H_r");
+    BoardIndex index = new BoardIndex(board.playerMove("down"));
+    BoardIndex start = new BoardIndex(new SokobanBoard("___\n" + "__R", "W>_\n" + "H_r"));
+    return t.checkExpect(index.width, 3) && t.checkExpect(index.player, 4)
+        && t.checkExpect(index.contents[4], new Player(new Posn(2, 2)))
+        && t.checkExpect(index.contents[1], new Blank(new Posn(2, 1)))
+        && t.checkExpect(index.contents[3], new Hole(new Posn(1, 2)))
+        && t.checkExpect(index.ground[5], new Target(new Posn(3, 2), Color.red))
+        && t.checkExpect(start.player, 1) && t.checkExpect(start.index(new Posn(3, 2)), 5);
+  }
+
+  // tests and examples for origin in Camera
+  boolean testOrigin_Camera(Tester t) {
+    BoardIndex index = new BoardIndex(new SokobanBoard("______\n" + "______\n" + "______",
+        "WWWWWW\n" + "W___>W\n" + "WWWWWW"));
+    BoardIndex fallen = new BoardIndex(new SokobanBoard("______\n" + "______\n" + "______",
+        "WWWWWW\n" + "W___HW\n" + "WWWWWW"));
+    return t.checkExpect(new Camera(3, 2, 0).origin(index), new Posn(3, 0))
+        && t.checkExpect(new Camera(2, 2, 0).origin(index), new Posn(3, 0))
+        && t.checkExpect(new Camera(10, 10, 0).origin(index), new Posn(0, 0))
+        && t.checkExpect(new Camera(2, 1, 0).origin(fallen), new Posn(2, 1))
+        && t.checkConstructorException(new IllegalArgumentException(
+            "A camera needs a positive size and a margin of at least 0"), "Camera", 0, 2, 1)
+        && t.checkConstructorException(new IllegalArgumentException(
+            "A camera needs a positive size and a margin of at least 0"), "Camera", 2, 2, -1);
+  }
+
+  // produces the given scene with the ground, and then the contents, of every
+  // location from the given top left to before the given bottom right drawn with
+  // the given tile size, shifted so the given origin is at the top left
+  WorldScene drawn(WorldScene scene, BoardIndex index, int tile, Posn origin, Posn from,
+      Posn to) {
+    CellImageVisitor images = new CellImageVisitor(SpriteAtlas.directoryFor(tile), tile);
+    for (int layer = 0; layer < 2; layer += 1) {
+      ICell[] cells = index.ground;
+      if (layer == 1) {
+        cells = index.contents;
+      }
+      for (int y = from.y; y < to.y; y += 1) {
+        for (int x = from.x; x < to.x; x += 1) {
+          scene = scene.placeImageXY(cells[y * index.width + x].accept(images),
+              (x - origin.x) * tile + tile / 2, (y - origin.y) * tile + tile / 2);
+        }
+      }
+    }
+    return scene;
+  }
+
+  // tests that render draws only the window and its margin, in window coordinates
+  boolean testRender_Camera(Tester t) {
+    SokobanBoard board = new SokobanBoard("___\n" + "__R", "W>_\n" + "H_r");
+    WorldScene window = new Camera(1, 1, 0).render(new BoardIndex(board), 40);
+    WorldScene expected = new WorldScene(40, 40)
+        .placeImageXY(new ComputedPixelImage(40, 40), 20, 20)
+        .placeImageXY(new FromFileImage(SpriteAtlas.directoryFor(40) + "/Player.png"), 20, 20);
+    BoardIndex small = new BoardIndex(board);
+    BoardIndex wide = new BoardIndex(this.wide.toBoard());
+    // the whole of the small board, one cell beyond the window on every side it can be
+    WorldScene margin = this.drawn(new WorldScene(40, 40), small, 40, new Posn(1, 0),
+        new Posn(0, 0), new Posn(3, 2));
+    // the 5 by 4 window at column 7 with the one column left of it, but not the rest
+    WorldScene large = this.drawn(new WorldScene(600, 480), wide, 120, new Posn(7, 0),
+        new Posn(6, 0), new Posn(12, 4));
+    return t.checkExpect(window, expected)
+        && t.checkExpect(new Camera(1, 1, 1).render(small, 40), margin)
+        && t.checkExpect(new Camera(5, 4, 1).render(wide, 120), large);
+  }
+
+  // tests that a world with a camera draws its window and reads clicks in it
+  boolean testWorld_Camera(Tester t) {
+    SokobanWorld world = new SokobanWorld(this.wide.toBoard()).withCamera(new Camera(4, 4, 1));
+    BoardIndex index = world.index();
+    Posn origin = world.camera.origin(index);
+    SokobanWorld walked = (SokobanWorld) world.onMouseClicked(new Posn(60, 180));
+    return t.checkExpect(world.makeScene(), world.camera.render(index, 120))
+        && t.checkExpect(new SokobanGrid(walked.boardState).player,
+            (origin.y + 1) * 12 + origin.x)
+        && t.checkExpect(origin, new Posn(8, 0))
+        && t.checkExpect(walked.camera, world.camera)
+        && t.checkExpect(walked.lastScene("Level Won"), world.camera.lastScene("Level Won", 120));
+  }
+}
@@ -0,0 +1,285 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tester.Tester;
+
+// represents the statistics of every level of a campaign, as one primitive array
+// of every statistic indexed by the level's place in the pack, written to a file
+// on a background thread after every level so the game never waits for the disk
+// (the file is a table with a header line and one line per level, replaced whole
+// by every write)
+class CampaignStats {
+  // represents the names of the levels
+  String[] names;
+  // represents the moves of every level, over every attempt
+  int[] moves;
+  // represents the pushes of every level, over every attempt
+  int[] pushes;
+  // represents the time spent on every level, in milliseconds, over every attempt
+  long[] millis;
+  // represents the number of times every level was won
+  int[] wins;
+  // represents the number of times every level was lost
+  int[] losses;
+  // represents the file the statistics are written to, or null if they are not
+  Path file;
+  // represents the thread the statistics are written on
+  ExecutorService writer;
+  // represents the number of writes finished, for testing
+  AtomicInteger writes = new AtomicInteger();
+  // represents the number of writes that failed
+  AtomicInteger failures = new AtomicInteger();
+
+  CampaignStats(ArrayList<SokobanLevel> pack, Path file) {
+    this.names = new String[pack.size()];
+    for (int i = 0; i < pack.size(); i += 1) {
+      this.names[i] = pack.get(i).name;
+    }
+    this.moves = new int[pack.size()];
+    this.pushes = new int[pack.size()];
+    this.millis = new long[pack.size()];
+    this.wins = new int[pack.size()];
+    this.losses = new int[pack.size()];
+    this.file = file;
+    this.writer = Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task, "sokoban-stats");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  // EFFECT: adds an attempt at the level at the given index to its statistics
+  synchronized void add(int level, int moves, int pushes, long millis, boolean won) {
+    this.moves[level] += moves;
+    this.pushes[level] += pushes;
+    this.millis[level] += millis;
+    if (won) {
+      this.wins[level] += 1;
+    }
+    else {
+      this.losses[level] += 1;
+    }
+  }
+
+  // produces the statistics as the text of the file
+  synchronized String table() {
+    StringBuilder result = new StringBuilder("level,moves,pushes,millis,wins,losses\n");
+    for (int i = 0; i < this.names.length; i += 1) {
+      result.append(LevelReport.csvField(this.names[i])).append(',').append(this.moves[i])
+          .append(',').append(this.pushes[i]).append(',').append(this.millis[i]).append(',')
+          .append(this.wins[i]).append(',').append(this.losses[i]).append('\n');
+    }
+    return result.toString();
+  }
+
+  // produces the write of the statistics as they are now to the file, which
+  // finishes on the background thread (at once if there is no file)
+  // (a write that fails is counted in failures and reported on the console,
+  // where an error on the background thread has nowhere else to go)
+  CompletableFuture<Void> flush() {
+    if (this.file == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    String table = this.table();
+    return CompletableFuture.runAsync(() -> {
+      try {
+        Path temporary = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        Files.write(temporary, table.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, this.file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        this.writes.incrementAndGet();
+      }
+      catch (IOException e) {
+        this.failures.incrementAndGet();
+        System.err.println("Could not write the campaign statistics: " + e.getMessage());
+      }
+    }, this.writer);
+  }
+
+  // EFFECT: writes the statistics a last time, waiting for the write, and stops
+  // the background thread (closing them again does nothing)
+  synchronized void close() {
+    if (!this.writer.isShutdown()) {
+      this.flush().join();
+      this.writer.shutdown();
+    }
+  }
+}
+
+// represents a campaign: the levels of a pack played one after another in the
+// same world, the boards coming ready made from a LevelCache and the moves,
+// pushes and time of every attempt kept in CampaignStats
+// (winning a level moves on to the next one, and losing one starts it again)
+class Campaign {
+  // represents the levels of the campaign, in order
+  ArrayList<SokobanLevel> pack;
+  // represents the cache the boards are taken from
+  LevelCache cache;
+  // represents the statistics of the campaign
+  CampaignStats stats;
+  // represents the index of the level being played
+  int level;
+  // represents a grid played alongside the board of the level, telling the
+  // moves that push a piece apart
+  SokobanGrid grid;
+  // represents the moves of the attempt being played
+  int moves;
+  // represents the pushes of the attempt being played
+  int pushes;
+  // represents the time the attempt being played started, from System.nanoTime
+  long started;
+  // represents whether the last level has been won
+  boolean over;
+
+  Campaign(LevelCache cache, CampaignStats stats) {
+    this.pack = cache.pack;
+    this.cache = cache;
+    this.stats = stats;
+  }
+
+  // produces the starting board of the level at the given index, starting an
+  // attempt at it
+  SokobanBoard start(int level) {
+    this.level = level;
+    SokobanBoard board = this.cache.take(level);
+    SokobanLevel played = this.pack.get(level);
+    this.grid = new SokobanGrid(played.ground, played.contents);
+    this.grid.neighbours = board.neighbours;
+    this.moves = 0;
+    this.pushes = 0;
+    this.started = System.nanoTime();
+    return board;
+  }
+
+  // EFFECT: counts a move in the given direction in the attempt being played,
+  // unless it bumps into a wall or a piece that cannot be pushed and so leaves the
+  // board as it was
+  void record(String direction) {
+    int number = SokobanGrid.direction(direction);
+    int flags = LegalMoves.flags(LegalMoves.of(this.grid), number);
+    if ((flags & LegalMoves.MOVES) != 0) {
+      this.moves += 1;
+    }
+    if ((flags & (LegalMoves.PUSHES_BOX | LegalMoves.PUSHES_TROPHY)) != 0) {
+      this.pushes += 1;
+    }
+    this.grid.move(number);
+  }
+
+  // produces the board to play after the attempt being played ended as won or
+  // lost, as given: the next level after a win, the same level after a loss, or
+  // null once the last level is won (the statistics are written in the background,
+  // except for the last write, which is waited for, since the game may exit as
+  // soon as the campaign is over)
+  SokobanBoard finish(boolean won) {
+    this.stats.add(this.level, this.moves, this.pushes,
+        (System.nanoTime() - this.started) / 1000000, won);
+    if (!won) {
+      this.stats.flush();
+      return this.start(this.level);
+    }
+    else if (this.level + 1 < this.pack.size()) {
+      this.stats.flush();
+      return this.start(this.level + 1);
+    }
+    else {
+      this.over = true;
+      this.stats.close();
+      return null;
+    }
+  }
+}
+
+// tests and examples for CampaignStats and Campaign
+class ExamplesCampaign {
+  // a pack of two levels, each won by pushing the trophy right twice, the second
+  // with a hole to fall into when going down
+  ArrayList<SokobanLevel> pack() {
+    ArrayList<SokobanLevel> result = new ArrayList<SokobanLevel>();
+    result.add(new SokobanLevel("one", "_____\n" + "___R_\n" + "_____",
+        "WWWWW\n" + "W>r_W\n" + "WWWWW"));
+    result.add(new SokobanLevel("two", "______\n" + "____R_\n" + "______",
+        "WWWWWW\n" + "W>_r_W\n" + "WWHWWW"));
+    return result;
+  }
+
+  // tests that a campaign world moves from level to level and keeps statistics
+  boolean testWorld_Campaign(Tester t) throws IOException {
+    Path file = Files.createTempFile("campaign", ".csv");
+    CampaignStats stats = new CampaignStats(this.pack(), file);
+    Campaign campaign = new Campaign(new LevelCache(this.pack(), 1, 1000000), stats);
+    SokobanWorld world = new SokobanWorld(campaign).withTile(40);
+    // wins the first level, and moves on with the next key
+    SokobanWorld won = (SokobanWorld) world.onKeyEvent("right");
+    SokobanWorld second = (SokobanWorld) won.onKeyEvent("up");
+    // (playerMove changes the contents of the board it moves, so the boards are
+    // compared before they are moved)
+    boolean secondStarts = new SokobanGrid(second.boardState).key()
+        .equals(new SokobanGrid(this.pack().get(1).toBoard()).key());
+    // falls into the hole of the second level, and starts it again
+    SokobanWorld fell = (SokobanWorld) ((SokobanWorld) second.onKeyEvent("right"))
+        .onKeyEvent("down");
+    SokobanWorld again = (SokobanWorld) fell.onKeyEvent("left");
+    boolean againStarts = new SokobanGrid(again.boardState).key()
+        .equals(new SokobanGrid(this.pack().get(1).toBoard()).key());
+    // bumps into the wall above, which is not a move, and then wins the level
+    SokobanWorld bumped = (SokobanWorld) again.onKeyEvent("up");
+    SokobanWorld last = (SokobanWorld) ((SokobanWorld) bumped.onKeyEvent("right"))
+        .onKeyEvent("right");
+    last.onKeyEvent("right");
+    boolean closed = stats.writer.isShutdown();
+    stats.close();
+    String written = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    Files.delete(file);
+    return t.checkExpect(won.boardState.levelWon(), true)
+        && t.checkExpect(secondStarts, true)
+        && t.checkExpect(second.tile, 40) && t.checkExpect(second.campaign, campaign)
+        && t.checkExpect(againStarts, true)
+        && t.checkExpect(campaign.over, true) && t.checkExpect(closed, true)
+        && t.checkExpect(stats.failures.get(), 0)
+        && t.checkExpect(stats.moves, new int[] { 1, 4 })
+        && t.checkExpect(stats.pushes, new int[] { 1, 1 })
+        && t.checkExpect(stats.wins, new int[] { 1, 1 })
+        && t.checkExpect(stats.losses, new int[] { 0, 1 })
+        && t.checkExpect(written.startsWith("level,moves,pushes,millis,wins,losses\none,1,1,"),
+            true)
+        && t.checkExpect(written.split("\n")[2].startsWith("two,4,1,"), true)
+        && t.checkExpect(written.split("\n")[2].endsWith(",1,1"), true);
+  }
+
+  // tests that the statistics table and flush work without a file
+  boolean testStats_CampaignStats(Tester t) {
+    CampaignStats stats = new CampaignStats(this.pack(), null);
+    stats.add(0, 10, 2, 500, false);
+    stats.add(0, 5, 1, 100, true);
+    stats.flush().join();
+    stats.close();
+    ArrayList<SokobanLevel> odd = new ArrayList<SokobanLevel>();
+    odd.add(new SokobanLevel("a, \"b\"", this.pack().get(0).ground,
+        this.pack().get(0).contents));
+    return t.checkExpect(stats.table(),
+        "level,moves,pushes,millis,wins,losses\n" + "one,15,3,600,1,1\n" + "two,0,0,0,0,0\n")
+        && t.checkExpect(stats.writes.get(), 0)
+        && t.checkExpect(new CampaignStats(odd, null).table(),
+            "level,moves,pushes,millis,wins,losses\n" + "\"a, \"\"b\"\"\",0,0,0,0,0\n");
+  }
+
+  // tests that a write that fails is counted instead of lost
+  boolean testFailure_CampaignStats(Tester t) throws IOException {
+    Path directory = Files.createTempDirectory("campaign");
+    CampaignStats stats = new CampaignStats(this.pack(), directory.resolve("gone/stats.csv"));
+    stats.add(1, 3, 1, 20, true);
+    stats.flush().join();
+    stats.close();
+    Files.delete(directory);
+    return t.checkExpect(stats.failures.get(), 2) && t.checkExpect(stats.writes.get(), 0);
+  }
+}
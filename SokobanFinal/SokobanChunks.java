@@ -0,0 +1,424 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import javalib.worldimages.Posn;
+import tester.Tester;
+
+// represents where the cells of a chunked board come from the first time a chunk
+// of it is touched
+interface ChunkSource {
+  // EFFECT: fills the given chunk, row by row, with the codes of the cells of the
+  // given board in the chunk at the given chunk column and row
+  void fill(ChunkedBoard board, int chunkX, int chunkY, ByteBuffer chunk);
+}
+
+// represents the cells of a room of SokobanLevels.room, made cell by cell
+class RoomSource implements ChunkSource {
+  // represents the width and height of the room
+  int side;
+
+  RoomSource(int side) {
+    this.side = side;
+  }
+
+  // EFFECT: fills the given chunk with the cells of the room in it
+  public void fill(ChunkedBoard board, int chunkX, int chunkY, ByteBuffer chunk) {
+    SokobanLevels levels = new SokobanLevels();
+    int size = ChunkedBoard.CHUNK;
+    // codes every cell of the chunk that is in the room
+    for (int y = 0; y < size && chunkY * size + y < board.height; y += 1) {
+      for (int x = 0; x < size && chunkX * size + x < board.width; x += 1) {
+        String cell = levels.roomCell(this.side, chunkY * size + y + 1, chunkX * size + x + 1);
+        chunk.put(y * size + x, ChunkedBoard.code(cell.charAt(0), cell.charAt(1)));
+      }
+    }
+  }
+}
+
+// represents a board too big to keep as cells: its locations packed one byte
+// each (the contents code in the low four bits, the ground code above them) in
+// square chunks of CHUNK x CHUNK locations
+// a chunk is only made, from the board's source, the first time one of its
+// locations is touched, so memory grows with the part of the board played on;
+// chunks live on the heap or in a memory-mapped file
+// moves go through MovePlayerVisitor, unchanged, by way of GridCells
+class ChunkedBoard {
+  // represents the width of the board
+  int width;
+  // represents the height of the board
+  int height;
+  // represents the number of chunks across and down the board
+  int chunksX;
+  int chunksY;
+  // represents every chunk, row by row, or null for a chunk not touched yet
+  ByteBuffer[] chunks;
+  // represents where untouched chunks come from
+  ChunkSource source;
+  // represents the file the chunks are mapped from, or null if they are on the heap
+  FileChannel channel;
+  // represents the header of the file, mapped: its magic number, width and height,
+  // then one bit for every chunk set once the chunk is filled from the source
+  MappedByteBuffer header;
+  // represents the location of the player, row by row, or -1 if the player fell
+  int player;
+  // represents the number of chunks made so far
+  int loaded;
+  // represents the number of targets in the chunks made so far without a trophy
+  // of their color on them
+  long unmatched;
+
+  // the width and height of a chunk, in locations
+  static final int CHUNK = 64;
+  // the first four bytes of a file of chunks, "SKC1"
+  static final int MAGIC = 0x534B4331;
+  // the contents characters, in the order of their codes
+  static final String CONTENTS = "_WBrgbyH>";
+  // the ground characters, in the order of their codes
+  static final String GROUND = "_RGBY";
+
+  // constructor for a board kept on the heap
+  ChunkedBoard(int width, int height, int player, ChunkSource source) {
+    if (width <= 0 || height <= 0 || player < 0 || player >= width * height) {
+      throw new IllegalArgumentException("The player must be on a board of positive size");
+    }
+    this.width = width;
+    this.height = height;
+    this.chunksX = (width + CHUNK - 1) / CHUNK;
+    this.chunksY = (height + CHUNK - 1) / CHUNK;
+    this.chunks = new ByteBuffer[this.chunksX * this.chunksY];
+    this.source = source;
+    this.player = player;
+  }
+
+  // produces a board whose chunks are mapped from the given file: the chunks
+  // already filled in the file if it is a file of a board of the same size,
+  // otherwise a new file, and every chunk not filled yet is filled from the source
+  // when it is first touched
+  // (the file is a header, with a bit for every chunk that is filled, and then the
+  // chunks in order, so a board closed after touching only some chunks reopens
+  // with the others still to fill)
+  static ChunkedBoard mapped(Path file, int width, int height, int player, ChunkSource source)
+      throws IOException {
+    ChunkedBoard board = new ChunkedBoard(width, height, player, source);
+    int headerBytes = ChunkedBoard.headerBytes(board.chunks.length);
+    long bytes = headerBytes + (long) board.chunks.length * CHUNK * CHUNK;
+    board.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    boolean same = board.channel.size() == bytes;
+    if (same) {
+      ByteBuffer start = ByteBuffer.allocate(12);
+      board.channel.read(start, 0);
+      same = start.getInt(0) == MAGIC && start.getInt(4) == width && start.getInt(8) == height;
+    }
+    if (!same) {
+      board.channel.truncate(0);
+      board.channel.write(ByteBuffer.allocate(1), bytes - 1);
+    }
+    board.header = board.channel.map(FileChannel.MapMode.READ_WRITE, 0, headerBytes);
+    board.header.putInt(0, MAGIC).putInt(4, width).putInt(8, height);
+    return board;
+  }
+
+  // produces the number of bytes of the header of a file of the given number of
+  // chunks: the magic number, width and height, and a bit for every chunk
+  static int headerBytes(int chunks) {
+    return 12 + (chunks + 7) / 8;
+  }
+
+  // determines if the given chunk of the file is filled
+  boolean isFilled(int chunk) {
+    return (this.header.get(12 + chunk / 8) & (1 << (chunk % 8))) != 0;
+  }
+
+  // produces the room of SokobanLevels.room with the given side as a chunked board
+  static ChunkedBoard room(int side) {
+    if (side < 5) {
+      throw new IllegalArgumentException("A room must be at least 5 cells wide");
+    }
+    return new ChunkedBoard(side, side, side + 1, new RoomSource(side));
+  }
+
+  // produces the byte code of a location with the given ground and contents characters
+  static byte code(char ground, char contents) {
+    return (byte) (CONTENTS.indexOf(contents) | GROUND.indexOf(ground) << 4);
+  }
+
+  // produces the chunk of the given location, making it if it is not made yet
+  ByteBuffer chunk(int index) {
+    int chunk = (index / this.width / CHUNK) * this.chunksX + (index % this.width) / CHUNK;
+    if (this.chunks[chunk] == null) {
+      this.chunks[chunk] = this.load(chunk);
+      this.loaded += 1;
+      // counts the targets of the new chunk that are not matched yet
+      for (int i = 0; i < CHUNK * CHUNK; i += 1) {
+        if (this.isUnmatched(this.chunks[chunk].get(i))) {
+          this.unmatched += 1;
+        }
+      }
+    }
+    return this.chunks[chunk];
+  }
+
+  // produces the given chunk, from the file or the source
+  ByteBuffer load(int chunk) {
+    int chunkX = chunk % this.chunksX;
+    int chunkY = chunk / this.chunksX;
+    ByteBuffer result;
+    if (this.channel == null) {
+      result = ByteBuffer.allocate(CHUNK * CHUNK);
+    }
+    else {
+      try {
+        result = this.channel.map(FileChannel.MapMode.READ_WRITE,
+            this.header.capacity() + (long) chunk * CHUNK * CHUNK, CHUNK * CHUNK);
+      }
+      catch (IOException e) {
+        throw new IllegalArgumentException("Could not map chunk " + chunk);
+      }
+    }
+    if (this.channel == null || !this.isFilled(chunk)) {
+      this.source.fill(this, chunkX, chunkY, result);
+    }
+    if (this.channel != null) {
+      // marks the chunk filled only once it is, so a crash before leaves it to fill
+      int at = 12 + chunk / 8;
+      this.header.put(at, (byte) (this.header.get(at) | (1 << (chunk % 8))));
+    }
+    return result;
+  }
+
+  // produces the place of the given location in its chunk
+  int offset(int index) {
+    return ((index / this.width) % CHUNK) * CHUNK + (index % this.width) % CHUNK;
+  }
+
+  // produces the contents character at the given location
+  char contentsAt(int index) {
+    return CONTENTS.charAt(this.chunk(index).get(this.offset(index)) & 15);
+  }
+
+  // produces the ground character at the given location
+  char groundAt(int index) {
+    return GROUND.charAt(this.chunk(index).get(this.offset(index)) >> 4);
+  }
+
+  // determines if the given code is a target without a trophy of its color on it
+  boolean isUnmatched(byte code) {
+    int ground = code >> 4;
+    return ground != 0 && (code & 15) != ground + 2;
+  }
+
+  // EFFECT: puts the given contents character at the given location
+  void write(int index, char contents) {
+    ByteBuffer chunk = this.chunk(index);
+    int offset = this.offset(index);
+    byte before = chunk.get(offset);
+    byte after = (byte) ((before & ~15) | CONTENTS.indexOf(contents));
+    chunk.put(offset, after);
+    if (this.isUnmatched(before) && !this.isUnmatched(after)) {
+      this.unmatched -= 1;
+    }
+    else if (!this.isUnmatched(before) && this.isUnmatched(after)) {
+      this.unmatched += 1;
+    }
+  }
+
+  // produces the contents cell at the given location
+  ICell cell(int index) {
+    return new Utils().makeCell(String.valueOf(this.contentsAt(index)), index % this.width + 1,
+        index / this.width + 1, false);
+  }
+
+  // produces the location of the given coordinates, row by row
+  int index(Posn coord) {
+    return (coord.y - 1) * this.width + (coord.x - 1);
+  }
+
+  // EFFECT: moves the player in the given direction by the rules of
+  // MovePlayerVisitor, as SokobanBoard.playerMove does (a player who fell no
+  // longer moves)
+  void move(String direction) {
+    if (this.player < 0) {
+      return;
+    }
+    GridCells cells = new GridCells(this);
+    ICell player = this.cell(this.player);
+    ICell next = new Utils().findNext(cells, direction, player.accept(new CellPosnVisitor()),
+        new Posn(this.width, this.height));
+    ICell newPlayer = next.accept(
+        new MovePlayerVisitor(player, direction, cells, new Posn(this.width, this.height)));
+    this.write(this.player, '_');
+    if (newPlayer.accept(new CellCharVisitor()).equals(">")) {
+      this.player = this.index(newPlayer.accept(new CellPosnVisitor()));
+      this.write(this.player, '>');
+    }
+    else {
+      this.player = -1;
+    }
+  }
+
+  // determines if the player fell in a hole
+  boolean fell() {
+    return this.player < 0;
+  }
+
+  // determines if every target of the board has a trophy of its color on it
+  // (this makes every chunk, so it is for boards small enough to be made whole)
+  boolean won() {
+    for (int chunk = 0; chunk < this.chunks.length; chunk += 1) {
+      this.chunk((chunk / this.chunksX) * CHUNK * this.width + (chunk % this.chunksX) * CHUNK);
+    }
+    return this.unmatched == 0;
+  }
+
+  // produces the number of bytes of the chunks made so far
+  long bytesLoaded() {
+    return (long) this.loaded * CHUNK * CHUNK;
+  }
+
+  // EFFECT: writes the mapped chunks to their file and closes it
+  void close() throws IOException {
+    if (this.channel != null) {
+      this.header.force();
+      this.channel.force(false);
+      this.channel.close();
+    }
+  }
+}
+
+// represents the contents cells of a chunked board as MovePlayerVisitor moves
+// them: a cell is read from its location, and a new cell is written at its own
+// location, blanking the location of the cell it replaces if it moved from there
+class GridCells implements ICellGrid {
+  // represents the board the cells are read from and written to
+  ChunkedBoard board;
+
+  GridCells(ChunkedBoard board) {
+    this.board = board;
+  }
+
+  // produces the cell at the given coordinates, as Utils.findCell does
+  public ICell cellAt(int x, int y) {
+    if (x < 1 || y < 1 || x > this.board.width || y > this.board.height) {
+      throw new RuntimeException("Cell not found");
+    }
+    return this.board.cell((y - 1) * this.board.width + (x - 1));
+  }
+
+  // EFFECT: writes the given new cell at its location, blanking the location of
+  // the given old cell if the new cell is somewhere else
+  public void replace(ICell old, ICell cell) {
+    int from = this.board.index(old.accept(new CellPosnVisitor()));
+    int at = this.board.index(cell.accept(new CellPosnVisitor()));
+    if (at != from) {
+      this.board.write(from, '_');
+    }
+    this.board.write(at, cell.accept(new CellCharVisitor()).charAt(0));
+  }
+}
+
+// tests and examples for ChunkedBoard and GridCells
+class ExamplesChunkedBoard {
+
+  // tests that a chunked room plays like the same room on a SokobanGrid
+  boolean testAgree_ChunkedBoard(Tester t) {
+    SokobanLevel level = new SokobanLevels().room(70);
+    SokobanGrid grid = new SokobanGrid(level.ground, level.contents);
+    ChunkedBoard chunked = ChunkedBoard.room(70);
+    Random random = new Random(7);
+    boolean same = true;
+    // plays the same random moves on both until the player falls
+    for (int i = 0; i < 400 && !grid.shouldEnd(); i += 1) {
+      int direction = random.nextInt(4);
+      grid.move(direction);
+      chunked.move(SokobanGrid.DIRECTIONS[direction]);
+      same = same && grid.player == chunked.player;
+    }
+    StringBuilder contents = new StringBuilder();
+    for (int i = 0; i < 70 * 70; i += 1) {
+      contents.append(chunked.contentsAt(i));
+    }
+    return t.checkExpect(same, true)
+        && t.checkExpect(contents.toString(), grid.contentsString().replace("\n", ""))
+        && t.checkExpect(chunked.fell(), grid.player < 0)
+        && t.checkExpect(chunked.won(), grid.won());
+  }
+
+  // tests that a room of a million cells only makes the chunks it is played on
+  boolean testLazy_ChunkedBoard(Tester t) {
+    ChunkedBoard huge = ChunkedBoard.room(1000);
+    huge.move("right");
+    huge.move("down");
+    huge.move("down");
+    return t.checkExpect(huge.player, 3 * 1000 + 2) && t.checkExpect(huge.loaded, 1)
+        && t.checkExpect(huge.bytesLoaded(), 4096L) && t.checkExpect(huge.contentsAt(4002), 'b')
+        && t.checkExpect(huge.groundAt(3002), 'B') && t.checkExpect(huge.unmatched > 0, true)
+        && t.checkExpect(new GridCells(huge).cellAt(3, 4), new Player(new Posn(3, 4)))
+        && t.checkException(new RuntimeException("Cell not found"), new GridCells(huge),
+            "cellAt", 1001, 1)
+        && t.checkExpect(this.replaced(huge), "_>")
+        && t.checkException(new IllegalArgumentException("A room must be at least 5 cells wide"),
+            huge, "room", 4)
+        && t.checkConstructorException(
+            new IllegalArgumentException("The player must be on a board of positive size"),
+            "ChunkedBoard", 5, 5, 25, new RoomSource(5));
+  }
+
+  // produces the contents of the locations of the player and right of it after
+  // the player there is replaced by a player one location to the right
+  String replaced(ChunkedBoard board) {
+    new GridCells(board).replace(new Player(new Posn(3, 4)), new Player(new Posn(4, 4)));
+    return "" + board.contentsAt(3002) + board.contentsAt(3003);
+  }
+
+  // tests that a memory-mapped board keeps its cells in its file
+  boolean testMapped_ChunkedBoard(Tester t) throws IOException {
+    Path file = Files.createTempFile("sokoban", ".chunks");
+    ChunkedBoard board = ChunkedBoard.mapped(file, 100, 100, 101, new RoomSource(100));
+    board.move("right");
+    board.move("down");
+    board.move("down");
+    board.close();
+    ChunkedBoard reopened = ChunkedBoard.mapped(file, 100, 100, 302, new RoomSource(100));
+    boolean kept = reopened.isFilled(0) && !reopened.isFilled(3);
+    char pushed = reopened.contentsAt(402);
+    char player = reopened.contentsAt(302);
+    reopened.close();
+    long size = Files.size(file);
+    ChunkedBoard other = ChunkedBoard.mapped(file, 90, 100, 91, new RoomSource(90));
+    boolean replaced = !other.isFilled(0) && other.contentsAt(3) == 'W';
+    other.close();
+    Files.delete(file);
+    return t.checkExpect(kept, true) && t.checkExpect(pushed, 'b')
+        && t.checkExpect(player, '>')
+        && t.checkExpect(size, ChunkedBoard.headerBytes(4) + 4L * 64 * 64)
+        && t.checkExpect(replaced, true);
+  }
+
+  // tests that the chunks a mapped board never touched are filled from the source
+  // after it is reopened, and agree with the same board on the heap
+  boolean testUntouched_ChunkedBoard(Tester t) throws IOException {
+    Path file = Files.createTempFile("sokoban", ".chunks");
+    ChunkedBoard board = ChunkedBoard.mapped(file, 100, 100, 101, new RoomSource(100));
+    board.move("right");
+    board.close();
+    ChunkedBoard reopened = ChunkedBoard.mapped(file, 100, 100, 102, new RoomSource(100));
+    ChunkedBoard heap = ChunkedBoard.room(100);
+    heap.move("right");
+    char corner = reopened.contentsAt(9999);
+    char far = reopened.contentsAt(50 * 100 + 70);
+    boolean won = reopened.won();
+    long unmatched = reopened.unmatched;
+    reopened.close();
+    Files.delete(file);
+    return t.checkExpect(corner, 'W') && t.checkExpect(corner, heap.contentsAt(9999))
+        && t.checkExpect(far, heap.contentsAt(50 * 100 + 70))
+        && t.checkExpect(won, heap.won()) && t.checkExpect(unmatched, heap.unmatched);
+  }
+}
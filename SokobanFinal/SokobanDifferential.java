@@ -0,0 +1,465 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+import tester.Tester;
+
+// represents a fast engine that must play exactly as SokobanBoard does
+interface IFastEngine {
+  // produces the name this engine is reported under
+  String name();
+
+  // EFFECT: starts this engine on the given level
+  void start(SokobanLevel level);
+
+  // EFFECT: moves the player in the given direction number
+  void move(int direction);
+
+  // produces the contents of the board as a level string, with the player as >
+  String contents();
+
+  // determines if the level has been won
+  boolean won();
+
+  // determines if the level should end
+  boolean ended();
+}
+
+// plays by SokobanGrid
+class GridEngine implements IFastEngine {
+  // represents the grid being played, once started
+  SokobanGrid grid;
+
+  // produces the name this engine is reported under
+  public String name() {
+    return "grid";
+  }
+
+  // EFFECT: starts a grid of the given level
+  public void start(SokobanLevel level) {
+    this.grid = new SokobanGrid(level.ground, level.contents);
+  }
+
+  // EFFECT: moves the player of the grid in the given direction number
+  public void move(int direction) {
+    this.grid.move(direction);
+  }
+
+  // produces the contents of the grid as a level string
+  public String contents() {
+    return this.grid.contentsString();
+  }
+
+  // determines if the grid is won
+  public boolean won() {
+    return this.grid.won();
+  }
+
+  // determines if the grid should end
+  public boolean ended() {
+    return this.grid.shouldEnd();
+  }
+}
+
+// plays by RuleEngine
+class RulesEngine implements IFastEngine {
+  // represents the rule engine being played, once started
+  RuleEngine engine;
+
+  // produces the name this engine is reported under
+  public String name() {
+    return "rules";
+  }
+
+  // EFFECT: starts a rule engine on the board of the given level
+  public void start(SokobanLevel level) {
+    this.engine = new RuleEngine(level.toBoard());
+  }
+
+  // EFFECT: moves the player of the rule engine in the given direction number
+  public void move(int direction) {
+    this.engine.move(direction);
+  }
+
+  // produces the contents of the rule engine as a level string
+  public String contents() {
+    return this.engine.contentsString();
+  }
+
+  // determines if the rule engine's board is won
+  public boolean won() {
+    return this.engine.won();
+  }
+
+  // determines if the rule engine's board should end: the player fell or it is won
+  public boolean ended() {
+    return this.engine.player == -1 || this.engine.won();
+  }
+}
+
+// represents a game in which a fast engine and SokobanBoard disagree: the level,
+// the directions played (as the letters r, l, u and d, the last one showing the
+// difference) and the state of both engines then
+class Mismatch {
+  // represents the level that was played
+  SokobanLevel level;
+  // represents the directions played
+  String moves;
+  // represents the state of SokobanBoard
+  String expected;
+  // represents the state of the fast engine
+  String actual;
+
+  Mismatch(SokobanLevel level, String moves, String expected, String actual) {
+    this.level = level;
+    this.moves = moves;
+    this.expected = expected;
+    this.actual = actual;
+  }
+
+  // produces a report of this mismatch
+  String report() {
+    return "level " + this.level.name + "\n" + this.level.ground + "\n\n" + this.level.contents
+        + "\nmoves \"" + this.moves + "\"\nexpected " + this.expected + "\nactual   "
+        + this.actual;
+  }
+}
+
+// plays random moves on random walled levels through SokobanBoard and a fast
+// engine, comparing their contents, levelWon and shouldEnd after every move, and
+// shrinks any game where they disagree to a smallest level and move sequence
+// that still disagree
+class DifferentialHarness {
+  // represents the engine checked against SokobanBoard
+  IFastEngine engine;
+  // represents the number of moves compared so far
+  long compared;
+
+  DifferentialHarness(IFastEngine engine) {
+    this.engine = engine;
+  }
+
+  // produces the state of both engines after every move of the given directions
+  // on the given level, up to the first where they disagree, or null if they
+  // agree throughout (moves after the level ends are not played, as in
+  // SokobanWorld; an exception of either engine is a disagreement, reported as
+  // "exception" and its message in place of that engine's state)
+  Mismatch compare(SokobanLevel level, String moves) {
+    SokobanBoard board = level.toBoard();
+    String crash = null;
+    try {
+      this.engine.start(level);
+    }
+    catch (RuntimeException e) {
+      crash = "exception " + e.getMessage();
+    }
+    for (int i = 0; i <= moves.length(); i += 1) {
+      if (i > 0) {
+        if (board.shouldEnd()) {
+          return null;
+        }
+        int direction = "rlud".indexOf(moves.charAt(i - 1));
+        try {
+          board = board.playerMove(SokobanGrid.DIRECTIONS[direction]);
+        }
+        catch (RuntimeException e) {
+          return new Mismatch(level, moves.substring(0, i), "exception " + e.getMessage(),
+              this.state());
+        }
+        try {
+          this.engine.move(direction);
+        }
+        catch (RuntimeException e) {
+          crash = "exception " + e.getMessage();
+        }
+        this.compared += 1;
+      }
+      String expected = DifferentialHarness.state(new SokobanGrid(board).contentsString(),
+          board.levelWon(), board.shouldEnd());
+      String actual = crash;
+      if (actual == null) {
+        actual = this.state();
+      }
+      if (!expected.equals(actual)) {
+        return new Mismatch(level, moves.substring(0, i), expected, actual);
+      }
+    }
+    return null;
+  }
+
+  // produces the state of the fast engine, or "exception" and its message if the
+  // engine throws one
+  String state() {
+    try {
+      return DifferentialHarness.state(this.engine.contents(), this.engine.won(),
+          this.engine.ended());
+    }
+    catch (RuntimeException e) {
+      return "exception " + e.getMessage();
+    }
+  }
+
+  // produces the given state as one string
+  static String state(String contents, boolean won, boolean ended) {
+    return contents.replace("\n", "|") + " won=" + won + " ended=" + ended;
+  }
+
+  // plays the given number of games of the given length on random levels of at
+  // most the given size, and produces the first disagreement shrunk, or null
+  Mismatch run(int games, int length, int size, long seed) {
+    Random random = new Random(seed);
+    for (int game = 0; game < games; game += 1) {
+      SokobanLevel level = DifferentialHarness.walled(SokobanPlayouts.randomLevel(
+          "random" + game, 1 + random.nextInt(size - 1), 1 + random.nextInt(size - 1), random));
+      StringBuilder moves = new StringBuilder();
+      for (int i = 0; i < length; i += 1) {
+        moves.append("rlud".charAt(random.nextInt(4)));
+      }
+      Mismatch mismatch = this.compare(level, moves.toString());
+      if (mismatch != null) {
+        return this.shrink(mismatch);
+      }
+    }
+    return null;
+  }
+
+  // produces the given level inside a ring of walls, with blank ground under them
+  static SokobanLevel walled(SokobanLevel level) {
+    String[] ground = level.ground.split("\n");
+    String[] contents = level.contents.split("\n");
+    String wall = "W".repeat(ground[0].length() + 2);
+    String blank = "_".repeat(ground[0].length() + 2);
+    StringBuilder newGround = new StringBuilder(blank);
+    StringBuilder newContents = new StringBuilder(wall);
+    for (int y = 0; y < ground.length; y += 1) {
+      newGround.append("\n_" + ground[y] + "_");
+      newContents.append("\nW" + contents[y] + "W");
+    }
+    newGround.append("\n" + blank);
+    newContents.append("\n" + wall);
+    return new SokobanLevel(level.name, newGround.toString(), newContents.toString());
+  }
+
+  // produces a smallest disagreement found from the given one: drops runs of
+  // moves, blanks out cells one at a time and drops rows and columns, keeping
+  // every change after which the engines still disagree, until none helps
+  Mismatch shrink(Mismatch mismatch) {
+    Mismatch result = mismatch;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      // tries dropping every run of moves, longest runs first
+      for (int run = Math.max(1, result.moves.length() / 2); run >= 1; run /= 2) {
+        for (int i = 0; i + run <= result.moves.length(); i += 1) {
+          String moves = result.moves.substring(0, i) + result.moves.substring(i + run);
+          Mismatch smaller = this.compare(result.level, moves);
+          if (smaller != null) {
+            result = smaller;
+            changed = true;
+            i -= 1;
+          }
+        }
+      }
+      // tries every simpler level
+      for (SokobanLevel level : DifferentialHarness.simpler(result.level)) {
+        Mismatch smaller = this.compare(level, result.moves);
+        if (smaller != null) {
+          result = smaller;
+          changed = true;
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  // produces every level one step simpler than the given walled level: one cell
+  // of its ground or contents blanked out, or one inside row or column removed
+  // (keeping the player)
+  static ArrayList<SokobanLevel> simpler(SokobanLevel level) {
+    ArrayList<SokobanLevel> result = new ArrayList<SokobanLevel>();
+    String[] ground = level.ground.split("\n");
+    String[] contents = level.contents.split("\n");
+    int height = ground.length;
+    int width = ground[0].length();
+    // removes every inside row and column without the player
+    for (int y = 1; y < height - 1 && height > 3; y += 1) {
+      if (contents[y].indexOf('>') == -1) {
+        result.add(new SokobanLevel(level.name, DifferentialHarness.withoutRow(ground, y),
+            DifferentialHarness.withoutRow(contents, y)));
+      }
+    }
+    for (int x = 1; x < width - 1 && width > 3; x += 1) {
+      if (!DifferentialHarness.column(contents, x).contains(">")) {
+        result.add(new SokobanLevel(level.name, DifferentialHarness.withoutColumn(ground, x),
+            DifferentialHarness.withoutColumn(contents, x)));
+      }
+    }
+    // blanks out every inside cell of the ground and the contents but the player
+    for (int i = 0; i < level.contents.length(); i += 1) {
+      if (level.ground.charAt(i) != '_' && level.ground.charAt(i) != '\n') {
+        result.add(new SokobanLevel(level.name,
+            level.ground.substring(0, i) + "_" + level.ground.substring(i + 1), level.contents));
+      }
+      char c = level.contents.charAt(i);
+      int x = i % (width + 1);
+      int y = i / (width + 1);
+      if (c != '_' && c != '\n' && c != '>' && x > 0 && y > 0 && x < width - 1
+          && y < height - 1) {
+        result.add(new SokobanLevel(level.name, level.ground,
+            level.contents.substring(0, i) + "_" + level.contents.substring(i + 1)));
+      }
+    }
+    return result;
+  }
+
+  // produces the given rows without the row at the given index, as a level string
+  static String withoutRow(String[] rows, int index) {
+    StringBuilder result = new StringBuilder();
+    for (int y = 0; y < rows.length; y += 1) {
+      if (y != index) {
+        if (result.length() > 0) {
+          result.append("\n");
+        }
+        result.append(rows[y]);
+      }
+    }
+    return result.toString();
+  }
+
+  // produces the given rows without the column at the given index, as a level string
+  static String withoutColumn(String[] rows, int index) {
+    StringBuilder result = new StringBuilder();
+    for (int y = 0; y < rows.length; y += 1) {
+      if (y > 0) {
+        result.append("\n");
+      }
+      result.append(rows[y].substring(0, index) + rows[y].substring(index + 1));
+    }
+    return result.toString();
+  }
+
+  // produces the characters of the given rows in the column at the given index
+  static String column(String[] rows, int index) {
+    StringBuilder result = new StringBuilder();
+    for (String row : rows) {
+      result.append(row.charAt(index));
+    }
+    return result.toString();
+  }
+
+  // checks an engine against SokobanBoard and prints the totals and any shrunk
+  // disagreement
+  // java DifferentialHarness [-engine rules] [-games 100000] [-length 30] [-size 6] [-seed 1]
+  public static void main(String[] args) {
+    IFastEngine engine = new RulesEngine();
+    int games = 100000;
+    int length = 30;
+    int size = 6;
+    long seed = 1;
+    // reads every flag along with the value that follows it
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String flag = args[i];
+      String value = args[i + 1];
+      if (flag.equals("-engine") && value.equals("grid")) {
+        engine = new GridEngine();
+      }
+      else if (flag.equals("-engine") && value.equals("rules")) {
+        engine = new RulesEngine();
+      }
+      else if (flag.equals("-games")) {
+        games = Integer.parseInt(value);
+      }
+      else if (flag.equals("-length")) {
+        length = Integer.parseInt(value);
+      }
+      else if (flag.equals("-size")) {
+        size = Integer.parseInt(value);
+      }
+      else if (flag.equals("-seed")) {
+        seed = Long.parseLong(value);
+      }
+      else {
+        throw new IllegalArgumentException("Unknown differential option " + flag + " " + value);
+      }
+    }
+    DifferentialHarness harness = new DifferentialHarness(engine);
+    Mismatch mismatch = harness.run(games, length, size, seed);
+    System.out.println(engine.name() + ": " + harness.compared + " moves compared");
+    if (mismatch != null) {
+      System.out.println(mismatch.report());
+    }
+  }
+}
+
+// plays by SokobanGrid, except that the player never walks into a hole (a wrong
+// engine, for testing that the harness finds and shrinks its mistake)
+class HolelessEngine extends GridEngine {
+  // EFFECT: moves the player of the grid in the given direction number, unless
+  // it would walk into a hole
+  public void move(int direction) {
+    if (this.grid.player == -1 || this.grid.next(this.grid.player, direction) == -1
+        || this.grid.contents[this.grid.next(this.grid.player, direction)] != 'H') {
+      this.grid.move(direction);
+    }
+  }
+}
+
+// plays by SokobanGrid, except that it throws when the player walks into a hole
+// (a crashing engine, for testing that the harness reports and shrinks the crash)
+class CrashingEngine extends GridEngine {
+  // EFFECT: moves the player of the grid in the given direction number, or throws
+  // if it would walk into a hole
+  public void move(int direction) {
+    if (this.grid.player != -1 && this.grid.next(this.grid.player, direction) != -1
+        && this.grid.contents[this.grid.next(this.grid.player, direction)] == 'H') {
+      throw new IllegalStateException("fell through the floor");
+    }
+    this.grid.move(direction);
+  }
+}
+
+// tests and examples for DifferentialHarness
+class ExamplesDifferentialHarness {
+  // a level where walking left, right and right again falls into the hole
+  SokobanLevel hole = DifferentialHarness.walled(new SokobanLevel("hole",
+      "____\n" + "_R__\n" + "____", "____\n" + "_>H_\n" + "_B_r"));
+
+  // tests that a wrong engine is caught and shrunk to one move on a smallest level
+  // (the target stays, since a level without targets is won before any move)
+  boolean testShrink_DifferentialHarness(Tester t) {
+    DifferentialHarness harness = new DifferentialHarness(new HolelessEngine());
+    Mismatch found = harness.compare(this.hole, "lrrl");
+    Mismatch shrunk = harness.shrink(found);
+    Mismatch random = harness.run(1000, 20, 6, 46);
+    return t.checkExpect(found.moves, "lrr")
+        && t.checkExpect(shrunk.moves, "r")
+        && t.checkExpect(shrunk.level.contents, "WWWW\n" + "W>HW\n" + "WWWW")
+        && t.checkExpect(shrunk.level.ground, "____\n" + "_R__\n" + "____")
+        && t.checkExpect(shrunk.expected.endsWith("ended=true"), true)
+        && t.checkExpect(shrunk.actual.endsWith("ended=false"), true)
+        && t.checkExpect(random.moves.length() <= 2, true)
+        && t.checkExpect(harness.compare(shrunk.level, "l"), null);
+  }
+
+  // tests that an engine that throws is reported and shrunk like any disagreement
+  boolean testCrash_DifferentialHarness(Tester t) {
+    DifferentialHarness harness = new DifferentialHarness(new CrashingEngine());
+    Mismatch found = harness.compare(this.hole, "lrrl");
+    Mismatch shrunk = harness.shrink(found);
+    return t.checkExpect(found.moves, "lrr")
+        && t.checkExpect(found.actual, "exception fell through the floor")
+        && t.checkExpect(shrunk.moves, "r")
+        && t.checkExpect(shrunk.actual, "exception fell through the floor")
+        && t.checkExpect(shrunk.expected.endsWith("ended=true"), true);
+  }
+
+  // tests that both fast engines agree with SokobanBoard on random levels
+  boolean testRun_DifferentialHarness(Tester t) {
+    DifferentialHarness grid = new DifferentialHarness(new GridEngine());
+    DifferentialHarness rules = new DifferentialHarness(new RulesEngine());
+    Mismatch gridMismatch = grid.run(300, 20, 6, 46);
+    Mismatch rulesMismatch = rules.run(300, 20, 6, 46);
+    return t.checkExpect(gridMismatch, null) && t.checkExpect(rulesMismatch, null)
+        && t.checkExpect(grid.compared > 1000, true);
+  }
+}
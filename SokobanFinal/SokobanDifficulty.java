@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import javalib.worldimages.Posn;
+import tester.Tester;
+
+// represents how hard one level is, as measured by solving it
+class LevelReport {
+  // represents the name of the level
+  String name;
+  // represents the width and height of the level
+  Posn size;
+  // represents whether the solver found a solution within its budget
+  boolean solved;
+  // represents the number of moves in the solution, walks included
+  int moves;
+  // represents the number of pushes in the solution
+  int pushes;
+  // represents the number of states the solver expanded
+  int expanded;
+  // represents the average number of new states each expanded state led to
+  double branching;
+  // represents the number of locations no needed trophy could ever be pushed from
+  // onto its target
+  int deadSquares;
+  // represents the number of holes in the level
+  int holes;
+  // represents the number of holes the solution fills with a box or trophy
+  int holesFilled;
+  // represents how long the analysis took, in microseconds
+  long micros;
+
+  LevelReport(String name, Posn size, boolean solved, int moves, int pushes, int expanded,
+      double branching, int deadSquares, int holes, int holesFilled, long micros) {
+    this.name = name;
+    this.size = size;
+    this.solved = solved;
+    this.moves = moves;
+    this.pushes = pushes;
+    this.expanded = expanded;
+    this.branching = branching;
+    this.deadSquares = deadSquares;
+    this.holes = holes;
+    this.holesFilled = holesFilled;
+    this.micros = micros;
+  }
+
+  // produces this report as a row of the CSV report
+  String toCsv() {
+    return String.format(Locale.ROOT, "%s,%d,%d,%b,%d,%d,%d,%.3f,%d,%d,%d,%d",
+        LevelReport.csvField(this.name), this.size.x, this.size.y, this.solved, this.moves,
+        this.pushes, this.expanded, this.branching, this.deadSquares, this.holes,
+        this.holesFilled, this.micros);
+  }
+
+  // produces the given text as a field of a CSV row: in double quotes, with every
+  // double quote doubled, if it holds a comma, a double quote or a line break
+  static String csvField(String text) {
+    if (text.contains(",") || text.contains("\"") || text.contains("\n")
+        || text.contains("\r")) {
+      return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+    else {
+      return text;
+    }
+  }
+
+  // produces this report as an object of the JSON report
+  String toJson() {
+    return String.format(Locale.ROOT,
+        "{ \"name\" : \"%s\", \"width\" : %d, \"height\" : %d, \"solved\" : %b, "
+            + "\"moves\" : %d, \"pushes\" : %d, \"expanded\" : %d, \"branching\" : %.3f, "
+            + "\"deadSquares\" : %d, \"holes\" : %d, \"holesFilled\" : %d, \"micros\" : %d }",
+        this.name.replace("\\", "\\\\").replace("\"", "\\\""), this.size.x, this.size.y,
+        this.solved, this.moves, this.pushes, this.expanded, this.branching, this.deadSquares,
+        this.holes, this.holesFilled, this.micros);
+  }
+}
+
+// ranks the levels of a catalogue by how hard they are to solve, analysing the
+// levels in a parallel stream, one solver search per level
+class DifficultyAnalyser {
+  // represents the most states the solver may expand for one level
+  int budget;
+
+  // the header row of the CSV report
+  static final String CSV_HEADER = "name,width,height,solved,moves,pushes,expanded,branching,"
+      + "deadSquares,holes,holesFilled,micros";
+
+  DifficultyAnalyser(int budget) {
+    this.budget = budget;
+  }
+
+  // produces the report of the given level
+  LevelReport analyse(SokobanLevel level) {
+    long start = System.nanoTime();
+    SokobanGrid grid = new SokobanGrid(level.ground, level.contents);
+    SokobanSolver solver = new SokobanSolver(this.budget);
+    SolverResult result = solver.solve(grid);
+    int holes = this.count(grid.contents, 'H');
+    int holesFilled = 0;
+    if (result.solved) {
+      SokobanGrid played = grid.copy();
+      for (String move : result.moves) {
+        played.move(SokobanGrid.direction(move));
+      }
+      holesFilled = holes - this.count(played.contents, 'H');
+    }
+    return new LevelReport(level.name, new Posn(grid.width, grid.height), result.solved,
+        result.moves.size(), result.pushes, result.expanded, result.branching(),
+        this.deadSquares(grid, solver.deadSquares(grid)), holes, holesFilled,
+        (System.nanoTime() - start) / 1000);
+  }
+
+  // produces the number of locations of the given grid that are dead squares for
+  // the trophies of every color that has targets (0 if no color has dead squares)
+  int deadSquares(SokobanGrid grid, boolean[][] dead) {
+    int result = 0;
+    for (int i = 0; i < grid.contents.length; i += 1) {
+      boolean deadForAll = grid.contents[i] != 'W';
+      boolean anyColor = false;
+      for (int color = 0; color < 4; color += 1) {
+        if (this.hasDeadSquares(dead[color])) {
+          anyColor = true;
+          deadForAll = deadForAll && dead[color][i];
+        }
+      }
+      if (anyColor && deadForAll) {
+        result += 1;
+      }
+    }
+    return result;
+  }
+
+  // determines if any location is dead in the given dead squares of one color
+  boolean hasDeadSquares(boolean[] dead) {
+    for (boolean d : dead) {
+      if (d) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // produces the number of times the given character appears in the given contents
+  int count(char[] contents, char c) {
+    int result = 0;
+    for (char each : contents) {
+      if (each == c) {
+        result += 1;
+      }
+    }
+    return result;
+  }
+
+  // produces the reports of every level of the given catalogue, analysing the
+  // levels in parallel, hardest first: levels the solver gave up on, then the
+  // levels whose search expanded the most states, then the most pushes
+  ArrayList<LevelReport> analyseAll(ArrayList<SokobanLevel> catalogue) {
+    return catalogue.parallelStream().map(this::analyse)
+        .sorted(Comparator.comparing((LevelReport report) -> report.solved)
+            .thenComparing(Comparator.comparingInt((LevelReport report) -> report.expanded)
+                .thenComparingInt(report -> report.pushes).reversed()))
+        .collect(Collectors.toCollection(ArrayList::new));
+  }
+
+  // produces the given reports as a CSV report
+  String toCsv(ArrayList<LevelReport> reports) {
+    StringBuilder csv = new StringBuilder(CSV_HEADER).append("\n");
+    for (LevelReport report : reports) {
+      csv.append(report.toCsv()).append("\n");
+    }
+    return csv.toString();
+  }
+
+  // produces the given reports as a JSON report
+  String toJson(ArrayList<LevelReport> reports) {
+    StringBuilder json = new StringBuilder("[\n");
+    for (int i = 0; i < reports.size(); i += 1) {
+      json.append("  ").append(reports.get(i).toJson());
+      if (i < reports.size() - 1) {
+        json.append(",");
+      }
+      json.append("\n");
+    }
+    return json.append("]\n").toString();
+  }
+
+  // analyses the levels of a level file (the example levels if there is none)
+  // and writes the report, as JSON if its name ends in .json and CSV otherwise
+  // java DifficultyAnalyser [levels.txt] [-budget 200000] [-o report.csv]
+  public static void main(String[] args) throws IOException {
+    String in = "";
+    String out = "report.csv";
+    int budget = 200000;
+    // reads the level file and every flag along with the value that follows it
+    for (int i = 0; i < args.length; i += 1) {
+      if (args[i].equals("-budget") && i + 1 < args.length) {
+        budget = Integer.parseInt(args[i + 1]);
+        i += 1;
+      }
+      else if (args[i].equals("-o") && i + 1 < args.length) {
+        out = args[i + 1];
+        i += 1;
+      }
+      else {
+        in = args[i];
+      }
+    }
+    ArrayList<SokobanLevel> catalogue = new SokobanLevels().examples();
+    if (!in.isEmpty()) {
+      catalogue = new LevelValidator().read(Paths.get(in));
+    }
+    DifficultyAnalyser analyser = new DifficultyAnalyser(budget);
+    long start = System.nanoTime();
+    ArrayList<LevelReport> reports = analyser.analyseAll(catalogue);
+    String report;
+    if (out.endsWith(".json")) {
+      report = analyser.toJson(reports);
+    }
+    else {
+      report = analyser.toCsv(reports);
+    }
+    Files.write(Paths.get(out), report.getBytes(StandardCharsets.UTF_8));
+    System.out.println(reports.size() + " levels in " + (System.nanoTime() - start) / 1000000
+        + " ms");
+  }
+}
+
+// tests and examples for LevelReport and DifficultyAnalyser
+class ExamplesDifficultyAnalyser {
+  SokobanLevel filled = new SokobanLevel("filled", "________\n" + "_____R__\n" + "________",
+      "WWWWWWWW\n" + "W>BHr__W\n" + "WWWWWWWW");
+  SokobanLevel stuck = new SokobanLevel("stuck", "_____\n" + "_____\n" + "__R__",
+      "WWWWW\n" + "W>_rW\n" + "WWWWW");
+
+  // tests and examples for analyse in DifficultyAnalyser
+  boolean testAnalyse_DifficultyAnalyser(Tester t) {
+    LevelReport filledReport = new DifficultyAnalyser(1000).analyse(this.filled);
+    LevelReport stuckReport = new DifficultyAnalyser(1000).analyse(this.stuck);
+    return t.checkExpect(filledReport.solved, true) && t.checkExpect(filledReport.pushes, 2)
+        && t.checkExpect(filledReport.moves, 3) && t.checkExpect(filledReport.holes, 1)
+        && t.checkExpect(filledReport.holesFilled, 1)
+        && t.checkExpect(filledReport.deadSquares, 2)
+        && t.checkExpect(filledReport.size, new Posn(8, 3))
+        && t.checkExpect(stuckReport.solved, false) && t.checkExpect(stuckReport.pushes, 0)
+        && t.checkExpect(stuckReport.deadSquares, 3) && t.checkExpect(stuckReport.holes, 0);
+  }
+
+  // tests that analyseAll puts the hardest levels first and the reports print
+  boolean testAnalyseAll_DifficultyAnalyser(Tester t) {
+    ArrayList<SokobanLevel> catalogue = new ArrayList<SokobanLevel>();
+    catalogue.add(this.filled);
+    catalogue.add(this.stuck);
+    DifficultyAnalyser analyser = new DifficultyAnalyser(1000);
+    ArrayList<LevelReport> reports = analyser.analyseAll(catalogue);
+    reports.get(0).micros = 7;
+    reports.get(1).micros = 9;
+    String csv = analyser.toCsv(reports);
+    String json = analyser.toJson(reports);
+    return t.checkExpect(reports.get(0).name, "stuck")
+        && t.checkExpect(reports.get(1).name, "filled")
+        && t.checkExpect(csv.split("\n")[2], "filled,8,3,true,3,2,2,1.000,2,1,1,9")
+        && t.checkExpect(csv.startsWith(DifficultyAnalyser.CSV_HEADER + "\n"), true)
+        && t.checkExpect(LevelReport.csvField("room5"), "room5")
+        && t.checkExpect(LevelReport.csvField("a, \"b\""), "\"a, \"\"b\"\"\"")
+        && t.checkExpect(json.startsWith("[\n  { \"name\" : \"stuck\", \"width\" : 5,"), true)
+        && t.checkExpect(json.endsWith("\"holesFilled\" : 1, \"micros\" : 9 }\n]\n"), true);
+  }
+}
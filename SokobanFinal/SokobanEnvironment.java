@@ -0,0 +1,363 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import tester.Tester;
+
+// represents many independent games of one level for training agents, stepped
+// together in one call: the state of every board is its observation, one byte
+// per location of every board in one flat array, made by ChunkedBoard.code
+// (the contents in the low 4 bits, as an index of ChunkedBoard.CONTENTS with the
+// player as 8, and the ground in the high 4 bits, as an index of
+// ChunkedBoard.GROUND), and the moves follow MoveRules.ONTO
+// (a board that ends is reset at once, so every step of every board is live;
+// done says which boards ended in the last step)
+class VectorEnv {
+  // the reward of every step
+  static final float STEP = -0.1f;
+  // the reward of a trophy pushed onto a target of its color
+  static final float ON_TARGET = 1;
+  // the reward of a trophy pushed off a target of its color
+  static final float OFF_TARGET = -1;
+  // the reward of winning the level
+  static final float WON = 10;
+  // the reward of the player falling into a hole
+  static final float FELL = -10;
+  // the kind of every contents code
+  static final int[] KIND = { CellKind.BLANK, CellKind.WALL, CellKind.BOX, CellKind.TROPHY,
+      CellKind.TROPHY, CellKind.TROPHY, CellKind.TROPHY, CellKind.HOLE, CellKind.PLAYER };
+  // the contents code of the player
+  static final int PLAYER = 8;
+
+  // represents the number of boards
+  int count;
+  // represents the number of locations of every board
+  int cells;
+  // represents the number of steps after which a game ends anyway
+  int limit;
+  // represents the neighbour table of the level
+  int[][] neighbours;
+  // represents the observation of the start of the level
+  byte[] start;
+  // represents the location of the player at the start of the level
+  int startPlayer;
+  // represents the number of targets without their trophy at the start of the level
+  int startUnmatched;
+  // represents the observations of every board, board after board
+  byte[] observations;
+  // represents the location of the player on every board (-1 once it fell)
+  int[] players;
+  // represents the number of targets without their trophy on every board
+  int[] unmatched;
+  // represents the number of steps taken in the game of every board
+  int[] steps;
+  // represents the reward of every board in the last step
+  float[] rewards;
+  // represents whether the game of every board ended in the last step
+  boolean[] done;
+
+  VectorEnv(SokobanLevel level, int count, int limit) {
+    if (count <= 0 || limit <= 0) {
+      throw new IllegalArgumentException(
+          "An environment needs at least one board and a positive step limit");
+    }
+    SokobanGrid grid = new SokobanGrid(level.ground, level.contents);
+    if (grid.player == -1) {
+      throw new IllegalArgumentException("An environment needs a level with a player");
+    }
+    this.count = count;
+    this.cells = grid.contents.length;
+    this.limit = limit;
+    this.neighbours = grid.neighbours();
+    this.start = new byte[this.cells];
+    for (int i = 0; i < this.cells; i += 1) {
+      char contents = grid.contents[i];
+      if (i == grid.player) {
+        contents = '>';
+      }
+      this.start[i] = ChunkedBoard.code(grid.ground[i], contents);
+      if (VectorEnv.isUnmatched(this.start[i])) {
+        this.startUnmatched += 1;
+      }
+    }
+    this.startPlayer = grid.player;
+    this.observations = new byte[count * this.cells];
+    this.players = new int[count];
+    this.unmatched = new int[count];
+    this.steps = new int[count];
+    this.rewards = new float[count];
+    this.done = new boolean[count];
+    this.reset();
+  }
+
+  // determines if the given code is a target without a trophy of its color
+  static boolean isUnmatched(int code) {
+    int ground = (code >> 4) & 15;
+    return ground != 0 && (code & 15) != ground + 2;
+  }
+
+  // EFFECT: starts the game of every board again
+  void reset() {
+    for (int board = 0; board < this.count; board += 1) {
+      this.reset(board);
+    }
+  }
+
+  // EFFECT: starts the game of the given board again
+  void reset(int board) {
+    System.arraycopy(this.start, 0, this.observations, board * this.cells, this.cells);
+    this.players[board] = this.startPlayer;
+    this.unmatched[board] = this.startUnmatched;
+    this.steps[board] = 0;
+  }
+
+  // EFFECT: moves the player of every board in its direction number in the given
+  // actions, setting the reward and done of every board, and resetting every
+  // board whose game ended
+  // (every action is checked before any board moves, so a bad action leaves every
+  // board as it was)
+  void step(int[] actions) {
+    if (actions.length != this.count) {
+      throw new IllegalArgumentException("There must be one action for every board");
+    }
+    for (int action : actions) {
+      VectorEnv.checkAction(action);
+    }
+    for (int board = 0; board < this.count; board += 1) {
+      this.step(board, actions[board]);
+    }
+  }
+
+  // EFFECT: throws an exception if the given action is not a direction number
+  static void checkAction(int action) {
+    if (action < 0 || action > 3) {
+      throw new IllegalArgumentException("An action must be a direction number from 0 to 3");
+    }
+  }
+
+  // EFFECT: moves the player of the given board in the given direction number,
+  // setting its reward and done, and resetting it if its game ended
+  void step(int board, int action) {
+    VectorEnv.checkAction(action);
+    int base = board * this.cells;
+    float reward = STEP;
+    int at = this.players[board];
+    int next = this.neighbours[action][at];
+    if (next != -1) {
+      int nextCode = this.observations[base + next] & 15;
+      switch (MoveRules.ONTO[CellKind.PLAYER][KIND[nextCode]]) {
+        case MoveRules.MOVE:
+          this.write(board, at, 0);
+          this.write(board, next, PLAYER);
+          this.players[board] = next;
+          break;
+        case MoveRules.FALL:
+          this.write(board, at, 0);
+          this.players[board] = -1;
+          break;
+        case MoveRules.PUSH:
+          reward += this.push(board, at, next, this.neighbours[action][next]);
+          break;
+        default:
+          break;
+      }
+    }
+    this.steps[board] += 1;
+    if (this.players[board] == -1) {
+      reward += FELL;
+    }
+    else if (this.unmatched[board] == 0) {
+      reward += WON;
+    }
+    this.rewards[board] = reward;
+    this.done[board] = this.players[board] == -1 || this.unmatched[board] == 0
+        || this.steps[board] >= this.limit;
+    if (this.done[board]) {
+      this.reset(board);
+    }
+  }
+
+  // EFFECT: pushes the piece at the given location of the given board onto the
+  // location beyond it, the player following it from the first given location,
+  // if the piece can go there; produces the reward for the targets it changed
+  float push(int board, int at, int piece, int beyond) {
+    if (beyond == -1) {
+      return 0;
+    }
+    int base = board * this.cells;
+    int pieceCode = this.observations[base + piece] & 15;
+    int beyondCode = this.observations[base + beyond] & 15;
+    float reward = 0;
+    switch (MoveRules.ONTO[KIND[pieceCode]][KIND[beyondCode]]) {
+      case MoveRules.MOVE:
+        reward += this.write(board, beyond, pieceCode);
+        break;
+      case MoveRules.FILL:
+        reward += this.write(board, beyond, 0);
+        break;
+      default:
+        return 0;
+    }
+    reward += this.write(board, piece, PLAYER);
+    this.write(board, at, 0);
+    this.players[board] = piece;
+    return reward;
+  }
+
+  // EFFECT: sets the contents code of the given location of the given board,
+  // keeping count of its unmatched targets; produces the reward for the change
+  float write(int board, int index, int contents) {
+    int at = board * this.cells + index;
+    int before = this.observations[at];
+    int after = (before & ~15) | contents;
+    this.observations[at] = (byte) after;
+    if (VectorEnv.isUnmatched(before) && !VectorEnv.isUnmatched(after)) {
+      this.unmatched[board] -= 1;
+      return ON_TARGET;
+    }
+    else if (!VectorEnv.isUnmatched(before) && VectorEnv.isUnmatched(after)) {
+      this.unmatched[board] += 1;
+      return OFF_TARGET;
+    }
+    else {
+      return 0;
+    }
+  }
+}
+
+// represents the result of one step of an environment
+class EnvStep {
+  // represents the observation after the step (the environment's own array,
+  // overwritten by its next step)
+  byte[] observation;
+  // represents the reward of the step
+  float reward;
+  // represents whether the game ended (the observation is then the start of
+  // the next game)
+  boolean done;
+
+  EnvStep(byte[] observation, float reward, boolean done) {
+    this.observation = observation;
+    this.reward = reward;
+    this.done = done;
+  }
+}
+
+// represents one game of a level for training an agent, as a VectorEnv of one board
+class SokobanEnv {
+  // represents the board of the game
+  VectorEnv env;
+
+  SokobanEnv(SokobanLevel level, int limit) {
+    this.env = new VectorEnv(level, 1, limit);
+  }
+
+  // EFFECT: starts the game again, and produces its observation
+  byte[] reset() {
+    this.env.reset();
+    return this.env.observations;
+  }
+
+  // EFFECT: moves the player in the given direction number, and produces the
+  // observation, the reward and whether the game ended
+  EnvStep step(int action) {
+    this.env.step(0, action);
+    return new EnvStep(this.env.observations, this.env.rewards[0], this.env.done[0]);
+  }
+}
+
+// tests and examples for VectorEnv and SokobanEnv
+class ExamplesSokobanEnv {
+  // a level won by pushing the trophy two steps to the right
+  SokobanLevel push = new SokobanLevel("push", "______\n" + "___R__", "WWWWWW\n" + ">_r__H");
+
+  // produces the observation of the given board as a level would draw it
+  byte[] observe(SokobanBoard board) {
+    SokobanGrid grid = new SokobanGrid(board);
+    byte[] result = new byte[grid.contents.length];
+    for (int i = 0; i < result.length; i += 1) {
+      char contents = grid.contents[i];
+      if (i == grid.player) {
+        contents = '>';
+      }
+      result[i] = ChunkedBoard.code(grid.ground[i], contents);
+    }
+    return result;
+  }
+
+  // tests and examples for reset and step in SokobanEnv
+  boolean testStep_SokobanEnv(Tester t) {
+    SokobanEnv env = new SokobanEnv(this.push, 100);
+    byte[] start = env.reset().clone();
+    EnvStep walk = env.step(0);
+    byte[] walked = walk.observation.clone();
+    EnvStep onto = env.step(0);
+    EnvStep bump = new SokobanEnv(this.push, 100).step(1);
+    SokobanEnv fall = new SokobanEnv(
+        new SokobanLevel("fall", "___\n" + "__R", "WWW\n" + ">Hr"), 100);
+    return t.checkExpect(start, this.observe(this.push.toBoard()))
+        && t.checkExpect(walk.reward, VectorEnv.STEP) && t.checkExpect(walk.done, false)
+        && t.checkExpect(walked, this.observe(this.push.toBoard().playerMove("right")))
+        && t.checkExpect(onto.reward, VectorEnv.STEP + VectorEnv.ON_TARGET + VectorEnv.WON)
+        && t.checkExpect(onto.done, true) && t.checkExpect(onto.observation, start)
+        && t.checkExpect(bump.reward, VectorEnv.STEP)
+        && t.checkExpect(fall.step(0).reward, VectorEnv.STEP + VectorEnv.FELL)
+        && t.checkExpect(new SokobanEnv(this.push, 1).step(1).done, true)
+        && t.checkConstructorException(new IllegalArgumentException(
+            "An environment needs at least one board and a positive step limit"),
+            "VectorEnv", this.push, 0, 10)
+        && t.checkConstructorException(
+            new IllegalArgumentException("An environment needs a level with a player"),
+            "VectorEnv", new SokobanLevel("none", "__\n" + "__", "__\n" + "__"), 1, 10)
+        && t.checkException(
+            new IllegalArgumentException("An action must be a direction number from 0 to 3"),
+            env, "step", 4);
+  }
+
+  // tests that a batch with a bad action moves no board at all
+  boolean testBadBatch_VectorEnv(Tester t) {
+    VectorEnv env = new VectorEnv(this.push, 3, 100);
+    byte[] before = env.observations.clone();
+    return t.checkException(
+        new IllegalArgumentException("An action must be a direction number from 0 to 3"), env,
+        "step", new int[] { 0, 0, 7 })
+        && t.checkExpect(env.observations, before)
+        && t.checkExpect(env.steps, new int[] { 0, 0, 0 });
+  }
+
+  // tests that every board of a vector environment plays exactly as
+  // SokobanBoard.playerMove does, through random games
+  boolean testAgree_VectorEnv(Tester t) {
+    SokobanLevel level = new SokobanLevels().room(9);
+    int count = 8;
+    VectorEnv env = new VectorEnv(level, count, 1000000);
+    SokobanBoard[] boards = new SokobanBoard[count];
+    for (int board = 0; board < count; board += 1) {
+      boards[board] = level.toBoard();
+    }
+    Random random = new Random(44);
+    int[] actions = new int[count];
+    boolean same = true;
+    int compared = 0;
+    for (int step = 0; step < 200 && same; step += 1) {
+      for (int board = 0; board < count; board += 1) {
+        actions[board] = random.nextInt(4);
+      }
+      env.step(actions);
+      for (int board = 0; board < count; board += 1) {
+        boards[board] = boards[board].playerMove(SokobanGrid.DIRECTIONS[actions[board]]);
+        if (!env.done[board]) {
+          same = same && Arrays.equals(this.observe(boards[board]), Arrays.copyOfRange(
+              env.observations, board * env.cells, (board + 1) * env.cells));
+          compared += 1;
+        }
+        else {
+          boards[board] = level.toBoard();
+        }
+      }
+    }
+    return t.checkExpect(same, true) && t.checkExpect(compared > 1000, true)
+        && t.checkException(
+            new IllegalArgumentException("There must be one action for every board"), env,
+            "step", new int[3]);
+  }
+}
@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import tester.Tester;
+
+// the Java Flight Recorder events the game emits, so a recording can line up
+// game activity with garbage collection, allocation and CPU samples
+// (events cost next to nothing unless a recording has them enabled, e.g.
+// java -XX:StartFlightRecording:filename=game.jfr ...)
+
+// represents a move applied to a board by SokobanBoard.playerMove
+@Name("sokoban.MoveApplied")
+@Label("Move Applied")
+@Category({ "Sokoban", "Game" })
+@StackTrace(false)
+class MoveAppliedEvent extends Event {
+  // represents the direction the player tried to move in
+  @Label("Direction")
+  String direction;
+  // represents whether the player ended up somewhere else
+  @Label("Player Moved")
+  boolean moved;
+  // represents the number of content cells of the board after the move
+  @Label("Content Cells")
+  int cells;
+}
+
+// represents a box or trophy pushed by the player
+@Name("sokoban.Push")
+@Label("Push")
+@Category({ "Sokoban", "Game" })
+@StackTrace(false)
+class PushEvent extends Event {
+  // represents the kind of piece pushed ("Box" or "Trophy")
+  @Label("Piece")
+  String piece;
+  // represents the direction the piece was pushed in
+  @Label("Direction")
+  String direction;
+  // represents the column the piece was pushed from
+  @Label("From X")
+  int x;
+  // represents the row the piece was pushed from
+  @Label("From Y")
+  int y;
+}
+
+// represents a level ending in SokobanWorld
+@Name("sokoban.LevelEnd")
+@Label("Level End")
+@Category({ "Sokoban", "Game" })
+@StackTrace(false)
+class LevelEndEvent extends Event {
+  // represents how the level ended ("Level Won" or "Level Lost")
+  @Label("Outcome")
+  String outcome;
+  // represents the width of the board
+  @Label("Width")
+  int width;
+  // represents the height of the board
+  @Label("Height")
+  int height;
+}
+
+// represents a frame rendered by SokobanBoard.render
+@Name("sokoban.RenderFrame")
+@Label("Render Frame")
+@Category({ "Sokoban", "Rendering" })
+@StackTrace(false)
+class RenderFrameEvent extends Event {
+  // represents the number of cells drawn into the frame
+  @Label("Cells Drawn")
+  int cells;
+  // represents the width of the frame in pixels
+  @Label("Width")
+  int width;
+  // represents the height of the frame in pixels
+  @Label("Height")
+  int height;
+}
+
+// represents a batch of states expanded by a search over boards
+// (searches commit one event per batch rather than one per state)
+@Name("sokoban.SolverExpansion")
+@Label("Solver Expansion Batch")
+@Category({ "Sokoban", "Search" })
+@StackTrace(false)
+class SolverExpansionEvent extends Event {
+  // represents the name of the search that expanded the states
+  @Label("Search")
+  String search;
+  // represents the number of states expanded in this batch
+  @Label("States Expanded")
+  int expanded;
+  // represents the number of states waiting to be expanded after the batch
+  @Label("Frontier Size")
+  int frontier;
+  // represents the number of distinct states seen so far
+  @Label("States Seen")
+  int seen;
+}
+
+// tests and examples for the Sokoban flight recorder events
+class ExamplesSokobanEvents {
+
+  // tests that every event type is registered under its name and category
+  boolean testEventTypes_SokobanEvents(Tester t) {
+    return t.checkExpect(EventType.getEventType(MoveAppliedEvent.class).getName(),
+        "sokoban.MoveApplied")
+        && t.checkExpect(EventType.getEventType(PushEvent.class).getName(), "sokoban.Push")
+        && t.checkExpect(EventType.getEventType(LevelEndEvent.class).getName(),
+            "sokoban.LevelEnd")
+        && t.checkExpect(EventType.getEventType(RenderFrameEvent.class).getName(),
+            "sokoban.RenderFrame")
+        && t.checkExpect(EventType.getEventType(SolverExpansionEvent.class).getName(),
+            "sokoban.SolverExpansion")
+        && t.checkExpect(EventType.getEventType(PushEvent.class).getCategoryNames().get(0),
+            "Sokoban");
+  }
+
+  // tests that playing a level emits the game events into a recording
+  boolean testRecording_SokobanEvents(Tester t) throws IOException {
+    Path file = Files.createTempFile("sokoban", ".jfr");
+    Recording recording = new Recording();
+    recording.enable("sokoban.MoveApplied");
+    recording.enable("sokoban.Push");
+    recording.enable("sokoban.LevelEnd");
+    recording.enable("sokoban.RenderFrame");
+    recording.start();
+    SokobanWorld world = new SokobanWorld(new SokobanLevels().find("holes").toBoard());
+    // bumps into a wall, pushes the box into a hole, walks into another hole,
+    // then presses a key so the world sees that the level is lost
+    String[] keys = { "up", "right", "right", "right", "down", "down", "left", "left", "up",
+        "left", "up" };
+    for (String key : keys) {
+      world = (SokobanWorld) world.onKeyEvent(key);
+    }
+    world.makeScene();
+    recording.stop();
+    recording.dump(file);
+    recording.close();
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    Files.delete(file);
+    int moves = 0;
+    int stays = 0;
+    int pushes = 0;
+    int renders = 0;
+    String outcome = "";
+    String pushed = "";
+    // counts the events of each kind in the recording
+    for (RecordedEvent e : events) {
+      String name = e.getEventType().getName();
+      if (name.equals("sokoban.MoveApplied")) {
+        moves += 1;
+        if (!e.getBoolean("moved")) {
+          stays += 1;
+        }
+      }
+      else if (name.equals("sokoban.Push")) {
+        pushes += 1;
+        pushed = e.getString("piece") + " " + e.getString("direction") + " " + e.getInt("x")
+            + "," + e.getInt("y");
+      }
+      else if (name.equals("sokoban.RenderFrame")) {
+        renders += 1;
+      }
+      else if (name.equals("sokoban.LevelEnd")) {
+        outcome = e.getString("outcome");
+      }
+    }
+    return t.checkExpect(moves, 10) && t.checkExpect(stays, 1) && t.checkExpect(pushes, 1)
+        && t.checkExpect(pushed, "Box left 5,4") && t.checkExpect(renders, 1)
+        && t.checkExpect(outcome, "Level Lost");
+  }
+
+  // tests that every level ended in a campaign is recorded, won or lost
+  boolean testCampaignRecording_SokobanEvents(Tester t) throws IOException {
+    Path file = Files.createTempFile("sokoban", ".jfr");
+    Recording recording = new Recording();
+    recording.enable("sokoban.LevelEnd");
+    recording.start();
+    ArrayList<SokobanLevel> pack = new ExamplesCampaign().pack();
+    SokobanWorld world = new SokobanWorld(new Campaign(new LevelCache(pack, 1, 1000000),
+        new CampaignStats(pack, null)));
+    // wins the first level, falls into the hole of the second, and wins it again
+    String[] keys = { "right", "up", "right", "down", "left", "right", "right", "right" };
+    for (String key : keys) {
+      world = (SokobanWorld) world.onKeyEvent(key);
+    }
+    recording.stop();
+    recording.dump(file);
+    recording.close();
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    Files.delete(file);
+    String outcomes = "";
+    // lists the outcome of every level end in the recording
+    for (RecordedEvent e : events) {
+      if (e.getEventType().getName().equals("sokoban.LevelEnd")) {
+        outcomes = outcomes + e.getString("outcome") + ";";
+      }
+    }
+    return t.checkExpect(outcomes, "Level Won;Level Lost;Level Won;")
+        && t.checkExpect(world.campaign.over, true);
+  }
+}
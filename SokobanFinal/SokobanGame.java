@@ -19,11 +19,22 @@ class SokobanBoard {
   ArrayList<ICell> levelGroundCells = new ArrayList<ICell>();
   // represents the content cells of this board
   ArrayList<ICell> levelContentsCells = new ArrayList<ICell>();
+  // represents the neighbour table of this board (see SokobanGrid.neighbours),
+  // built once from its walls and shared by every board moved from it
+  int[][] neighbours;
 
   SokobanBoard(Posn size, ArrayList<ICell> levelGroundCells, ArrayList<ICell> levelContentsCells) {
+    this(size, levelGroundCells, levelContentsCells,
+        SokobanBoard.neighbours(size, levelContentsCells));
+  }
+
+  // constructor to create a board that shares the given neighbour table
+  SokobanBoard(Posn size, ArrayList<ICell> levelGroundCells, ArrayList<ICell> levelContentsCells,
+      int[][] neighbours) {
     this.size = size;
     this.levelGroundCells = levelGroundCells;
     this.levelContentsCells = levelContentsCells;
+    this.neighbours = neighbours;
   }
 
   // constructor to create a board based on two strings
@@ -36,11 +47,35 @@ class SokobanBoard {
     this.size = new Utils().findSize(levelContents);
     this.levelGroundCells.addAll(new Utils().toLevelCells(levelGround, true));
     this.levelContentsCells.addAll(new Utils().toLevelCells(levelContents, false));
+    this.neighbours = SokobanBoard.neighbours(this.size, this.levelContentsCells);
+  }
+
+  // produces the neighbour table of a board of the given size with the given
+  // contents cells
+  static int[][] neighbours(Posn size, ArrayList<ICell> levelContentsCells) {
+    boolean[] walls = new boolean[size.x * size.y];
+    for (ICell cell : levelContentsCells) {
+      Posn coord = cell.accept(new CellPosnVisitor());
+      if (cell.kind() == CellKind.WALL) {
+        walls[(coord.y - 1) * size.x + (coord.x - 1)] = true;
+      }
+    }
+    return SokobanGrid.neighbours(size.x, size.y, walls);
   }
 
   // renders this Sokoban board into an image
   WorldScene render() {
-    WorldScene result = new WorldScene(this.size.x * 120, this.size.y * 120);
+    return this.render(SpriteAtlas.NATIVE_TILE);
+  }
+
+  // renders this Sokoban board into an image with tiles of the given size,
+  // drawn from sprites already scaled to that size
+  WorldScene render(int tile) {
+    long start = SokobanMetrics.REGISTRY.start();
+    RenderFrameEvent event = new RenderFrameEvent();
+    event.begin();
+    WorldScene result = new WorldScene(this.size.x * tile, this.size.y * tile);
+    ICellVisitor<WorldImage> images = new CellImageVisitor(SpriteAtlas.directoryFor(tile), tile);
     ArrayList<ICell> fullBoard = new ArrayList<ICell>();
     fullBoard.addAll(this.levelGroundCells);
     fullBoard.addAll(this.levelContentsCells);
@@ -49,7 +84,15 @@ class SokobanBoard {
     for (ICell cell : fullBoard) {
       int x = cell.accept(new CellPosnVisitor()).x;
       int y = cell.accept(new CellPosnVisitor()).y;
-      result = result.placeImageXY(cell.drawICell(), (x * 120) - 60, (y * 120) - 60);
+      result = result.placeImageXY(cell.accept(images), (x * tile) - tile / 2,
+          (y * tile) - tile / 2);
+    }
+    SokobanMetrics.REGISTRY.stop(SokobanMetrics.REGISTRY.render, start);
+    if (event.shouldCommit()) {
+      event.cells = fullBoard.size();
+      event.width = this.size.x * tile;
+      event.height = this.size.y * tile;
+      event.commit();
     }
     return result;
   }
@@ -58,6 +101,9 @@ class SokobanBoard {
   // direction
   // if the player is able to move there
   SokobanBoard playerMove(String direction) {
+    long start = SokobanMetrics.REGISTRY.start();
+    MoveAppliedEvent event = new MoveAppliedEvent();
+    event.begin();
     ICell player = this.levelContentsCells
         .get(new Utils().findPlayerIndex(this.levelContentsCells));
     ICell next = new Utils().findNext(this.levelContentsCells, direction,
@@ -68,12 +114,23 @@ class SokobanBoard {
     this.levelContentsCells.remove(new Utils().findPlayerIndex(this.levelContentsCells));
     this.levelContentsCells.add(newPlayer);
     this.levelContentsCells = new Utils().noDupes(this.levelContentsCells, fillPlace);
-    return new SokobanBoard(this.size, this.levelGroundCells, this.levelContentsCells);
+    SokobanMetrics.REGISTRY.count(SokobanMetrics.REGISTRY.moves);
+    SokobanMetrics.REGISTRY.stop(SokobanMetrics.REGISTRY.playerMove, start);
+    if (event.shouldCommit()) {
+      event.direction = direction;
+      event.moved = !new Utils().samePosn(player.accept(new CellPosnVisitor()),
+          newPlayer.accept(new CellPosnVisitor()));
+      event.cells = this.levelContentsCells.size();
+      event.commit();
+    }
+    return new SokobanBoard(this.size, this.levelGroundCells, this.levelContentsCells,
+        this.neighbours);
   }
 
   // determines if this board has been won
   // (every target has a trophy on top with the correct color)
   boolean levelWon() {
+    long start = SokobanMetrics.REGISTRY.start();
     boolean result = true;
     ICell contentCell;
     // for every cell in the list, determines if the cell is a good pair (winnable
@@ -84,6 +141,7 @@ class SokobanBoard {
           cell.accept(new CellPosnVisitor()).x, cell.accept(new CellPosnVisitor()).y);
       result = result && cell.accept(new GoodPairVisitor(contentCell));
     }
+    SokobanMetrics.REGISTRY.stop(SokobanMetrics.REGISTRY.levelWon, start);
     return result;
   }
 
@@ -100,15 +158,21 @@ class SokobanBoard {
   // returns an image of level lost if there is no player found
   // is called within lastScene in SokobanWorld class so it is displayed properly
   public WorldScene lastScene(String msg) {
-    WorldScene scene = new WorldScene(this.size.x * 120, this.size.y * 120);
+    return this.lastScene(msg, SpriteAtlas.NATIVE_TILE);
+  }
+
+  // displays the appropriate ending screen based on the given string on a board
+  // drawn with tiles of the given size
+  public WorldScene lastScene(String msg, int tile) {
+    WorldScene scene = new WorldScene(this.size.x * tile, this.size.y * tile);
 
     TextImage levelWonImage = new TextImage("Level Won", 24, FontStyle.BOLD, Color.BLACK);
-    WorldScene levelWon = scene.placeImageXY(levelWonImage, (this.size.x * 120) / 2,
-        (this.size.y * 120) / 2);
+    WorldScene levelWon = scene.placeImageXY(levelWonImage, (this.size.x * tile) / 2,
+        (this.size.y * tile) / 2);
 
     TextImage levelLostImage = new TextImage("Level Lost", 24, FontStyle.BOLD, Color.BLACK);
-    WorldScene levelLost = scene.placeImageXY(levelLostImage, (this.size.x * 120) / 2,
-        (this.size.y * 120) / 2);
+    WorldScene levelLost = scene.placeImageXY(levelLostImage, (this.size.x * tile) / 2,
+        (this.size.y * tile) / 2);
 
     if (msg.equals("Level Won")) {
       return levelWon;
@@ -128,6 +192,9 @@ interface ICell {
   // to return the result of applying the given visitor to this Cell
   <T> T accept(ICellVisitor<T> visitor);
 
+  // produces the kind code of this cell (see CellKind), for the rule tables
+  int kind();
+
   // helps determine the location of the player in the board
   Posn findPlayer();
 
@@ -201,6 +268,11 @@ class Blank extends AICell {
     return visitor.visitBlank(this);
   }
 
+  // produces the kind code of this Blank
+  public int kind() {
+    return CellKind.BLANK;
+  }
+
 }
 
 //represents a wall cell in the board
@@ -220,6 +292,11 @@ class Wall extends AICell {
     return visitor.visitWall(this);
   }
 
+  // produces the kind code of this Wall
+  public int kind() {
+    return CellKind.WALL;
+  }
+
 }
 
 // represents a box cell in the board
@@ -239,6 +316,11 @@ class Box extends AICell {
     return visitor.visitBox(this);
   }
 
+  // produces the kind code of this Box
+  public int kind() {
+    return CellKind.BOX;
+  }
+
   // produces a new box moved to the new coordinates
   // based on the given direction and this box cell
   public ICell move(String direction) {
@@ -279,6 +361,11 @@ class Player extends AICell {
     return visitor.visitPlayer(this);
   }
 
+  // produces the kind code of this Player
+  public int kind() {
+    return CellKind.PLAYER;
+  }
+
   // to determines the location of this player
   public Posn findPlayer() {
     return this.coord;
@@ -337,6 +424,11 @@ class Target extends AICell {
   public <T> T accept(ICellVisitor<T> visitor) {
     return visitor.visitTarget(this);
   }
+
+  // produces the kind code of this Target
+  public int kind() {
+    return CellKind.TARGET;
+  }
 }
 
 //represents a trophy cell in the board
@@ -370,6 +462,11 @@ class Trophy extends AICell {
     return visitor.visitTrophy(this);
   }
 
+  // produces the kind code of this Trophy
+  public int kind() {
+    return CellKind.TROPHY;
+  }
+
   // produces a new Trophy moved to the new coordinates
   // based on the given direction and this Trophy cell
   public ICell move(String direction) {
@@ -415,6 +512,11 @@ class Hole extends AICell {
   public <T> T accept(ICellVisitor<T> visitor) {
     return visitor.visitHole(this);
   }
+
+  // produces the kind code of this Hole
+  public int kind() {
+    return CellKind.HOLE;
+  }
 }
 
 // to represent a visitor that visit (implements a function over ICell objects)
@@ -506,18 +608,23 @@ class MovePlayerVisitor implements ICellVisitor<ICell> {
   // to represent a direction the player can move
   String direction;
   // to represent the level content of the board
-  ArrayList<ICell> levelContentsCells;
+  ICellGrid levelContentsCells;
   // to represent the size of the board
   Posn size;
 
-  MovePlayerVisitor(ICell player, String direction, ArrayList<ICell> levelContentsCells,
-      Posn size) {
+  MovePlayerVisitor(ICell player, String direction, ICellGrid levelContentsCells, Posn size) {
     this.player = player;
     this.direction = direction;
     this.levelContentsCells = levelContentsCells;
     this.size = size;
   }
 
+  // constructor for a visitor that moves the cells of the given list
+  MovePlayerVisitor(ICell player, String direction, ArrayList<ICell> levelContentsCells,
+      Posn size) {
+    this(player, direction, new ListCellGrid(levelContentsCells), size);
+  }
+
   // to represent a visitor that visits a blank ICell and produces an ICell
   // representing a new player moved in the given direction
   public ICell visitBlank(Blank blank) {
@@ -544,10 +651,10 @@ class MovePlayerVisitor implements ICellVisitor<ICell> {
     if (next.accept(new CanMoveToVisitor())) {
       ICell newBox = next.accept(new MoveBoxVisitor(box, this.direction));
       ICell newPlayer = this.player.move(this.direction);
-      this.levelContentsCells.set(this.levelContentsCells.indexOf(box),
-          new Blank(box.accept(new CellPosnVisitor())));
-      this.levelContentsCells.set(this.levelContentsCells.indexOf(next), newBox);
-      this.levelContentsCells.set(this.levelContentsCells.indexOf(this.player), newPlayer);
+      this.recordPush("Box", box.accept(new CellPosnVisitor()));
+      this.levelContentsCells.replace(box, new Blank(box.accept(new CellPosnVisitor())));
+      this.levelContentsCells.replace(next, newBox);
+      this.levelContentsCells.replace(this.player, newPlayer);
       return newPlayer;
     }
     else {
@@ -582,10 +689,10 @@ class MovePlayerVisitor implements ICellVisitor<ICell> {
     if (next.accept(new CanMoveToVisitor())) {
       ICell newTrophy = next.accept(new MoveTrophyVisitor(trophy, this.direction));
       ICell newPlayer = this.player.move(this.direction);
-      this.levelContentsCells.set(this.levelContentsCells.indexOf(trophy),
-          new Blank(trophy.accept(new CellPosnVisitor())));
-      this.levelContentsCells.set(this.levelContentsCells.indexOf(next), newTrophy);
-      this.levelContentsCells.set(this.levelContentsCells.indexOf(this.player), newPlayer);
+      this.recordPush("Trophy", trophy.accept(new CellPosnVisitor()));
+      this.levelContentsCells.replace(trophy, new Blank(trophy.accept(new CellPosnVisitor())));
+      this.levelContentsCells.replace(next, newTrophy);
+      this.levelContentsCells.replace(this.player, newPlayer);
       return newPlayer;
     }
     else {
@@ -596,9 +703,23 @@ class MovePlayerVisitor implements ICellVisitor<ICell> {
   // to represent a visitor that visits a hole ICell and produces an ICell
   // representing anew player moved in the given direction
   public ICell visitHole(Hole hole) {
+    SokobanMetrics.REGISTRY.count(SokobanMetrics.REGISTRY.losses);
     return new Blank(hole.coord);
 
   }
+
+  // records that the player pushed the given kind of piece from the given location
+  void recordPush(String piece, Posn from) {
+    SokobanMetrics.REGISTRY.count(SokobanMetrics.REGISTRY.pushes);
+    PushEvent event = new PushEvent();
+    if (event.shouldCommit()) {
+      event.piece = piece;
+      event.direction = this.direction;
+      event.x = from.x;
+      event.y = from.y;
+      event.commit();
+    }
+  }
 }
 
 // to represent an ICellVisitor that visits an ICell
@@ -690,6 +811,7 @@ class MoveBoxVisitor implements ICellVisitor<ICell> {
 
   // returns a blank as an item is now lost forever and the hole is gone
   public ICell visitHole(Hole hole) {
+    SokobanMetrics.REGISTRY.count(SokobanMetrics.REGISTRY.holeFills);
     return new Blank(hole.coord);
   }
 }
@@ -737,10 +859,141 @@ class MoveTrophyVisitor implements ICellVisitor<ICell> {
 
   // returns a blank as an item is now lost forever and the hole is gone
   public ICell visitHole(Hole hole) {
+    SokobanMetrics.REGISTRY.count(SokobanMetrics.REGISTRY.holeFills);
     return new Blank(hole.coord);
   }
 }
 
+// to represent an ICellVisitor that visits an ICell and evaluates the cell to the
+// one character string that stands for it in a level string
+// (the reverse of Utils.makeCell)
+class CellCharVisitor implements ICellVisitor<String> {
+
+  // a blank is written as an underscore
+  public String visitBlank(Blank blank) {
+    return "_";
+  }
+
+  // a wall is written as W
+  public String visitWall(Wall wall) {
+    return "W";
+  }
+
+  // a box is written as B
+  public String visitBox(Box box) {
+    return "B";
+  }
+
+  // a player is written as >
+  public String visitPlayer(Player player) {
+    return ">";
+  }
+
+  // a target is written as the upper case first letter of its color
+  public String visitTarget(Target target) {
+    return this.colorLetter(target.color).toUpperCase();
+  }
+
+  // a trophy is written as the lower case first letter of its color
+  public String visitTrophy(Trophy trophy) {
+    return this.colorLetter(trophy.color);
+  }
+
+  // a hole is written as H
+  public String visitHole(Hole hole) {
+    return "H";
+  }
+
+  // produces the lower case first letter of the given color
+  // (any color that is not yellow, green or blue is drawn red)
+  String colorLetter(Color color) {
+    if (color.equals(Color.yellow)) {
+      return "y";
+    }
+    else if (color.equals(Color.green)) {
+      return "g";
+    }
+    else if (color.equals(Color.blue)) {
+      return "b";
+    }
+    else {
+      return "r";
+    }
+  }
+}
+
+// to represent an ICellVisitor that visits an ICell and evaluates the cell to its
+// image at a given tile size, loaded from the directory of sprites of that size
+// (at the size of SokobanImages, the same images as drawICell)
+class CellImageVisitor implements ICellVisitor<WorldImage> {
+  // represents the directory the sprites are loaded from
+  String directory;
+  // represents the width and height of every image
+  int tile;
+
+  CellImageVisitor(String directory, int tile) {
+    this.directory = directory;
+    this.tile = tile;
+  }
+
+  // a blank is an empty image
+  public WorldImage visitBlank(Blank blank) {
+    return new ComputedPixelImage(this.tile, this.tile);
+  }
+
+  // a wall is the wall sprite
+  public WorldImage visitWall(Wall wall) {
+    return this.sprite("Wall.png");
+  }
+
+  // a box is the box sprite
+  public WorldImage visitBox(Box box) {
+    return this.sprite("Box.png");
+  }
+
+  // a player is the player sprite
+  public WorldImage visitPlayer(Player player) {
+    return this.sprite("Player.png");
+  }
+
+  // a target is the target sprite of its color
+  public WorldImage visitTarget(Target target) {
+    return this.sprite(this.colorName(target.color) + "Target.png");
+  }
+
+  // a trophy is the trophy sprite of its color
+  public WorldImage visitTrophy(Trophy trophy) {
+    return this.sprite(this.colorName(trophy.color) + "Trophy.png");
+  }
+
+  // a hole is the hole sprite
+  public WorldImage visitHole(Hole hole) {
+    return this.sprite("Hole.png");
+  }
+
+  // produces the image of the sprite file with the given name
+  WorldImage sprite(String name) {
+    return new FromFileImage(this.directory + "/" + name);
+  }
+
+  // produces the name of the given color in the sprite file names
+  // (any color that is not yellow, green or blue is drawn red)
+  String colorName(Color color) {
+    if (color.equals(Color.yellow)) {
+      return "Yellow";
+    }
+    else if (color.equals(Color.green)) {
+      return "Green";
+    }
+    else if (color.equals(Color.blue)) {
+      return "Blue";
+    }
+    else {
+      return "Red";
+    }
+  }
+}
+
 // to represent an ICellVisitor that visits an ICell and evaluates the cell to a boolean
 // representing whether the given cell and the visited cell
 // are a good pair (target has the correct color)
@@ -1364,6 +1617,71 @@ class ExamplesSokobanGame {
         && t.checkExpect(visitorWall.visitHole(holeO), true);
   }
 
+  // tests and examples for CellCharVisitor
+  boolean test_CellCharVisitor(Tester t) {
+    Posn ex = new Posn(1, 1);
+    CellCharVisitor visitor = new CellCharVisitor();
+    return t.checkExpect(new Blank(ex).accept(visitor), "_")
+        && t.checkExpect(new Wall(ex).accept(visitor), "W")
+        && t.checkExpect(new Box(ex).accept(visitor), "B")
+        && t.checkExpect(new Player(ex).accept(visitor), ">")
+        && t.checkExpect(new Hole(ex).accept(visitor), "H")
+        && t.checkExpect(new Target(ex, Color.yellow).accept(visitor), "Y")
+        && t.checkExpect(new Target(ex, Color.green).accept(visitor), "G")
+        && t.checkExpect(new Target(ex, Color.blue).accept(visitor), "B")
+        && t.checkExpect(new Target(ex, Color.red).accept(visitor), "R")
+        && t.checkExpect(new Trophy(ex, Color.yellow).accept(visitor), "y")
+        && t.checkExpect(new Trophy(ex, Color.green).accept(visitor), "g")
+        && t.checkExpect(new Trophy(ex, Color.blue).accept(visitor), "b")
+        && t.checkExpect(new Trophy(ex, Color.red).accept(visitor), "r")
+        && t.checkExpect(visitor.colorLetter(Color.black), "r");
+  }
+
+  // tests and examples for CellImageVisitor
+  boolean test_CellImageVisitor(Tester t) {
+    Posn ex = new Posn(1, 1);
+    CellImageVisitor visitor = new CellImageVisitor("SokobanImages", 120);
+    CellImageVisitor small = new CellImageVisitor("sprites", 30);
+    return t.checkExpect(new Blank(ex).accept(visitor), new Blank(ex).drawICell())
+        && t.checkExpect(new Wall(ex).accept(visitor), new Wall(ex).drawICell())
+        && t.checkExpect(new Box(ex).accept(visitor), new Box(ex).drawICell())
+        && t.checkExpect(new Player(ex).accept(visitor), new Player(ex).drawICell())
+        && t.checkExpect(new Hole(ex).accept(visitor), new Hole(ex).drawICell())
+        && t.checkExpect(new Target(ex, Color.green).accept(visitor),
+            new Target(ex, Color.green).drawICell())
+        && t.checkExpect(new Trophy(ex, Color.blue).accept(visitor),
+            new Trophy(ex, Color.blue).drawICell())
+        && t.checkExpect(new Trophy(ex, Color.yellow).accept(small),
+            new FromFileImage("sprites/YellowTrophy.png"))
+        && t.checkExpect(new Blank(ex).accept(small), new ComputedPixelImage(30, 30))
+        && t.checkExpect(visitor.colorName(Color.black), "Red");
+  }
+
+  // tests that render and lastScene with a tile size draw tiles of that size from
+  // the sprites scaled to it
+  boolean testRenderTile_SokobanBoard(Tester t) {
+    SokobanBoard board = new SokobanBoard("___\n" + "__R", "W>_\n" + "__r");
+    String directory = SpriteAtlas.directoryFor(30);
+    WorldScene result = new WorldScene(90, 60);
+    result = result.placeImageXY(new ComputedPixelImage(30, 30), 15, 15);
+    result = result.placeImageXY(new ComputedPixelImage(30, 30), 45, 15);
+    result = result.placeImageXY(new ComputedPixelImage(30, 30), 75, 15);
+    result = result.placeImageXY(new ComputedPixelImage(30, 30), 15, 45);
+    result = result.placeImageXY(new ComputedPixelImage(30, 30), 45, 45);
+    result = result.placeImageXY(new FromFileImage(directory + "/RedTarget.png"), 75, 45);
+    result = result.placeImageXY(new FromFileImage(directory + "/Wall.png"), 15, 15);
+    result = result.placeImageXY(new FromFileImage(directory + "/Player.png"), 45, 15);
+    result = result.placeImageXY(new ComputedPixelImage(30, 30), 75, 15);
+    result = result.placeImageXY(new ComputedPixelImage(30, 30), 15, 45);
+    result = result.placeImageXY(new ComputedPixelImage(30, 30), 45, 45);
+    result = result.placeImageXY(new FromFileImage(directory + "/RedTrophy.png"), 75, 45);
+    return t.checkExpect(board.render(30), result)
+        && t.checkExpect(new java.io.File(directory, "RedTrophy.png").exists(), true)
+        && t.checkExpect(board.lastScene("Level Won", 30), new WorldScene(90, 60).placeImageXY(
+            new TextImage("Level Won", 24, FontStyle.BOLD, Color.BLACK), 45, 30))
+        && t.checkExpect(board.render(), board.render(120));
+  }
+
   // tests on shouldEnd()
   boolean testShouldEnd(Tester t) {
 
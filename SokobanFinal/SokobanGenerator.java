@@ -0,0 +1,423 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import tester.Tester;
+
+// represents a level made by the generator, along with how hard it is to solve
+class GeneratedLevel {
+  // represents the generated level
+  SokobanLevel level;
+  // represents the fewest pushes the reverse search needed to reach this level
+  // from its solved state
+  int pushes;
+  // represents the number of states the reverse search saw
+  int states;
+
+  GeneratedLevel(SokobanLevel level, int pushes, int states) {
+    this.level = level;
+    this.pushes = pushes;
+    this.states = states;
+  }
+}
+
+// represents one state of the reverse search: the contents of the grid and the
+// smallest location the player can walk to, so states that only differ in
+// where the player stands in the same area are the same state
+class PullState {
+  // represents the contents of the grid in this state
+  char[] contents;
+  // represents the smallest location the player can walk to
+  int player;
+  // represents the number of pulls made to reach this state
+  int pulls;
+
+  PullState(char[] contents, int player, int pulls) {
+    this.contents = contents;
+    this.player = player;
+    this.pulls = pulls;
+  }
+
+  // produces a string that is the same for two states exactly when their
+  // pieces and player area are the same (the location and kind of every piece,
+  // then the player area, since the walls never move)
+  String key() {
+    StringBuilder key = new StringBuilder();
+    for (int i = 0; i < this.contents.length; i += 1) {
+      if (SokobanGrid.isPiece(this.contents[i])) {
+        SokobanGrid.appendIndex(key, i).append(this.contents[i]);
+      }
+    }
+    return SokobanGrid.appendIndex(key, this.player).toString();
+  }
+}
+
+// generates levels that can always be solved: it places colored targets in a
+// room made of walls and blanks, starts with a trophy on every target (and the
+// boxes somewhere in the room), then pulls the pieces backwards from that solved
+// state, the reverse of pushing them, and keeps the state that took the most
+// pulls to reach, since every pull can be undone by a push
+class SokobanGenerator {
+  // represents the room the levels are made in, as a contents string of W and _
+  String layout;
+  // represents the number of trophies (and targets) in every level
+  int trophies;
+  // represents the number of boxes in every level
+  int boxes;
+  // represents the most states the reverse search of one level may expand
+  int budget;
+
+  SokobanGenerator(String layout, int trophies, int boxes, int budget) {
+    if (trophies < 1 || boxes < 0 || budget < 1) {
+      throw new IllegalArgumentException("A level needs at least one trophy and a positive budget");
+    }
+    this.layout = layout;
+    this.trophies = trophies;
+    this.boxes = boxes;
+    this.budget = budget;
+  }
+
+  // produces an empty walled room of the given size as a layout, with a few
+  // short walls inside chosen by the given seed
+  static String layout(int width, int height, long seed) {
+    if (width < 5 || height < 5) {
+      throw new IllegalArgumentException("A room must be at least 5 cells wide");
+    }
+    Random random = new Random(seed);
+    char[][] rows = new char[height][width];
+    // for every location, puts a wall around the outside and a blank inside
+    for (int y = 0; y < height; y += 1) {
+      for (int x = 0; x < width; x += 1) {
+        if (x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+          rows[y][x] = 'W';
+        }
+        else {
+          rows[y][x] = '_';
+        }
+      }
+    }
+    // adds one short wall for every twelve inside locations
+    for (int i = 0; i < (width - 2) * (height - 2) / 12; i += 1) {
+      int x = 2 + random.nextInt(width - 4);
+      int y = 2 + random.nextInt(height - 4);
+      rows[y][x] = 'W';
+      if (random.nextBoolean()) {
+        rows[y][x + random.nextInt(2)] = 'W';
+      }
+      else {
+        rows[y + random.nextInt(2)][x] = 'W';
+      }
+    }
+    StringBuilder result = new StringBuilder();
+    for (int y = 0; y < height; y += 1) {
+      if (y > 0) {
+        result.append("\n");
+      }
+      result.append(rows[y]);
+    }
+    return result.toString();
+  }
+
+  // produces a level made from the given seed, or null if the room is too small
+  // for its pieces or no pull moves any trophy off its target
+  GeneratedLevel generate(long seed) {
+    Random random = new Random(seed);
+    String blankGround = this.layout.replace('W', '_');
+    SokobanGrid grid = new SokobanGrid(blankGround, this.layout);
+    ArrayList<Integer> floor = new ArrayList<Integer>();
+    for (int i = 0; i < grid.contents.length; i += 1) {
+      if (grid.contents[i] == '_') {
+        floor.add(i);
+      }
+    }
+    if (floor.size() < this.trophies + this.boxes + 1) {
+      return null;
+    }
+    Collections.shuffle(floor, random);
+    // puts a trophy on each target, then the boxes, on distinct floor locations
+    for (int i = 0; i < this.trophies; i += 1) {
+      grid.ground[floor.get(i)] = "RGBY".charAt(i % 4);
+      grid.contents[floor.get(i)] = "rgby".charAt(i % 4);
+    }
+    for (int i = this.trophies; i < this.trophies + this.boxes; i += 1) {
+      grid.contents[floor.get(i)] = 'B';
+    }
+    return this.pullSearch(grid, "gen-" + seed);
+  }
+
+  // produces the state furthest from the given solved grid by a breadth first
+  // search over pulls, as a level with the given name, or null if there is none
+  GeneratedLevel pullSearch(SokobanGrid solved, String name) {
+    ArrayDeque<PullState> frontier = new ArrayDeque<PullState>();
+    HashSet<String> seen = new HashSet<String>();
+    // starts from every area of the room the player could be standing in
+    for (int i = 0; i < solved.contents.length; i += 1) {
+      if (solved.contents[i] == '_') {
+        PullState start = new PullState(solved.contents, solved.area(solved.contents, i),
+            0);
+        if (seen.add(start.key())) {
+          frontier.add(start);
+        }
+      }
+    }
+    PullState best = null;
+    int expanded = 0;
+    int batch = 0;
+    while (!frontier.isEmpty() && expanded < this.budget) {
+      PullState state = frontier.poll();
+      expanded += 1;
+      batch += 1;
+      if (state.pulls > 0 && (best == null || state.pulls >= best.pulls)
+          && !this.isSolved(solved, state.contents)) {
+        best = state;
+      }
+      for (PullState next : this.pulls(solved, state)) {
+        if (seen.add(next.key())) {
+          frontier.add(next);
+        }
+      }
+      if (batch == 1024) {
+        this.recordBatch(batch, frontier.size(), seen.size());
+        batch = 0;
+      }
+    }
+    this.recordBatch(batch, frontier.size(), seen.size());
+    if (best == null) {
+      return null;
+    }
+    SokobanGrid result = new SokobanGrid(solved.width, solved.height, solved.ground,
+        best.contents, best.player);
+    return new GeneratedLevel(result.toLevel(name), best.pulls, seen.size());
+  }
+
+  // produces every state one pull away from the given state: the player stands
+  // next to a piece, steps away from it and drags it along
+  ArrayList<PullState> pulls(SokobanGrid grid, PullState state) {
+    ArrayList<PullState> result = new ArrayList<PullState>();
+    boolean[] reach = grid.reachable(state.contents, state.player);
+    for (int at = 0; at < reach.length; at += 1) {
+      if (reach[at]) {
+        for (int direction = 0; direction < 4; direction += 1) {
+          int piece = grid.next(at, direction ^ 1);
+          int to = grid.next(at, direction);
+          if (piece != -1 && to != -1 && SokobanGrid.isPiece(state.contents[piece])
+              && state.contents[to] == '_') {
+            char[] contents = state.contents.clone();
+            contents[at] = contents[piece];
+            contents[piece] = '_';
+            result.add(new PullState(contents, grid.area(contents, to), state.pulls + 1));
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  // determines if every target of the given grid has its trophy in the given contents
+  boolean isSolved(SokobanGrid grid, char[] contents) {
+    for (int i = 0; i < contents.length; i += 1) {
+      char g = grid.ground[i];
+      if (g != '_' && contents[i] != Character.toLowerCase(g)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // records a batch of expanded states as a flight recorder event
+  void recordBatch(int expanded, int frontier, int seen) {
+    SolverExpansionEvent event = new SolverExpansionEvent();
+    if (event.shouldCommit()) {
+      event.search = "generator";
+      event.expanded = expanded;
+      event.frontier = frontier;
+      event.seen = seen;
+      event.commit();
+    }
+  }
+
+  // produces the hardest of the levels made from the given number of seeds,
+  // hardest first, making the candidates in parallel on every core
+  ArrayList<GeneratedLevel> generateMany(long firstSeed, int candidates, int keep) {
+    return IntStream.range(0, candidates).parallel()
+        .mapToObj(i -> this.generate(firstSeed + i)).filter(level -> level != null)
+        .sorted(Comparator.comparingInt((GeneratedLevel level) -> level.pushes)
+            .thenComparingInt(level -> level.states).reversed())
+        .limit(keep).collect(Collectors.toCollection(ArrayList::new));
+  }
+
+  // generates levels and writes the hardest to a level file
+  // java SokobanGenerator [-size 10] [-trophies 2] [-boxes 2] [-budget 5000]
+  //                       [-candidates 2000] [-keep 20] [-seed 1] [-o generated.txt]
+  public static void main(String[] args) throws IOException {
+    int size = 10;
+    int trophies = 2;
+    int boxes = 2;
+    int budget = 5000;
+    int candidates = 2000;
+    int keep = 20;
+    long seed = 1;
+    String out = "generated.txt";
+    // reads every flag along with the value that follows it
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String flag = args[i];
+      String value = args[i + 1];
+      if (flag.equals("-size")) {
+        size = Integer.parseInt(value);
+      }
+      else if (flag.equals("-trophies")) {
+        trophies = Integer.parseInt(value);
+      }
+      else if (flag.equals("-boxes")) {
+        boxes = Integer.parseInt(value);
+      }
+      else if (flag.equals("-budget")) {
+        budget = Integer.parseInt(value);
+      }
+      else if (flag.equals("-candidates")) {
+        candidates = Integer.parseInt(value);
+      }
+      else if (flag.equals("-keep")) {
+        keep = Integer.parseInt(value);
+      }
+      else if (flag.equals("-seed")) {
+        seed = Long.parseLong(value);
+      }
+      else if (flag.equals("-o")) {
+        out = value;
+      }
+      else {
+        throw new IllegalArgumentException("Unknown generator option " + flag);
+      }
+    }
+    SokobanGenerator generator = new SokobanGenerator(SokobanGenerator.layout(size, size, seed),
+        trophies, boxes, budget);
+    ArrayList<SokobanLevel> levels = new ArrayList<SokobanLevel>();
+    for (GeneratedLevel generated : generator.generateMany(seed, candidates, keep)) {
+      System.out.println(generated.level.name + " pushes=" + generated.pushes + " states="
+          + generated.states);
+      levels.add(generated.level);
+    }
+    new SokobanLevels().write(levels, Paths.get(out));
+  }
+}
+
+// tests and examples for SokobanGenerator
+class ExamplesSokobanGenerator {
+
+  // produces the fewest pushes that solve the given level by a breadth first search
+  // over every move, or -1 if it cannot be solved within the given number of states
+  int solve(SokobanLevel level, int limit) {
+    SokobanGrid start = new SokobanGrid(level.ground, level.contents);
+    ArrayDeque<SokobanGrid> frontier = new ArrayDeque<SokobanGrid>();
+    HashMap<String, Integer> pushes = new HashMap<String, Integer>();
+    frontier.add(start);
+    pushes.put(start.key(), 0);
+    while (!frontier.isEmpty() && pushes.size() < limit) {
+      SokobanGrid grid = frontier.poll();
+      if (grid.won()) {
+        return pushes.get(grid.key());
+      }
+      for (int direction = 0; direction < 4; direction += 1) {
+        SokobanGrid next = grid.copy();
+        if (next.move(direction) && next.player != -1 && !pushes.containsKey(next.key())) {
+          int push = 0;
+          if (!new String(next.contents).equals(new String(grid.contents))) {
+            push = 1;
+          }
+          pushes.put(next.key(), pushes.get(grid.key()) + push);
+          if (push == 0) {
+            frontier.addFirst(next);
+          }
+          else {
+            frontier.add(next);
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  // tests and examples for layout in SokobanGenerator
+  boolean testLayout_SokobanGenerator(Tester t) {
+    String room = SokobanGenerator.layout(6, 5, 3);
+    String[] rows = room.split("\n");
+    return t.checkExpect(rows.length, 5) && t.checkExpect(rows[0], "WWWWWW")
+        && t.checkExpect(rows[4], "WWWWWW") && t.checkExpect(rows[2].charAt(0), 'W')
+        && t.checkExpect(room.replace("\n", "").replace("W", "").replace("_", ""), "")
+        && t.checkExpect(SokobanGenerator.layout(6, 5, 3), room)
+        && t.checkException(new IllegalArgumentException("A room must be at least 5 cells wide"),
+            new SokobanGenerator("W", 1, 0, 1), "layout", 4, 9, 1L);
+  }
+
+  // tests that the keys of states on boards of more than 65535 locations tell
+  // pieces and players 65536 locations apart
+  boolean testKey_PullState(Tester t) {
+    char[] near = new char[70000];
+    char[] far = new char[70000];
+    Arrays.fill(near, '_');
+    Arrays.fill(far, '_');
+    near[1] = 'B';
+    far[65537] = 'B';
+    return t.checkExpect(new PullState(near, 2, 0).key().equals(new PullState(far, 2, 0).key()),
+        false)
+        && t.checkExpect(new PullState(near, 2, 0).key().equals(
+            new PullState(near, 65538, 0).key()), false)
+        && t.checkExpect(new PullState(near, 2, 0).key(), new PullState(near.clone(), 2, 0).key());
+  }
+
+  // tests that generated levels are unsolved, and solvable in at most the pushes reported
+  // (the search for the solution may leave the boxes somewhere else)
+  boolean testGenerate_SokobanGenerator(Tester t) {
+    SokobanGenerator generator = new SokobanGenerator(
+        "WWWWWWW\n" + "W_____W\n" + "W__W__W\n" + "W_____W\n" + "WWWWWWW", 2, 1, 5000);
+    boolean solvable = true;
+    boolean unsolved = true;
+    // checks the level made from each of a few seeds
+    for (long seed = 0; seed < 6; seed += 1) {
+      GeneratedLevel made = generator.generate(seed);
+      SokobanBoard board = made.level.toBoard();
+      int pushes = this.solve(made.level, 200000);
+      solvable = solvable && pushes > 0 && pushes <= made.pushes;
+      unsolved = unsolved && !board.shouldEnd();
+    }
+    return t.checkExpect(solvable, true) && t.checkExpect(unsolved, true)
+        && t.checkExpect(generator.generate(2).level.name, "gen-2")
+        && t.checkExpect(generator.generate(2).level.contents,
+            generator.generate(2).level.contents)
+        && t.checkExpect(new SokobanGenerator("WWW\n" + "W_W\n" + "WWW", 1, 0, 10).generate(1),
+            null)
+        && t.checkConstructorException(
+            new IllegalArgumentException("A level needs at least one trophy and a positive budget"),
+            "SokobanGenerator", "W", 0, 0, 1);
+  }
+
+  // tests that generateMany keeps the hardest levels, hardest first
+  boolean testGenerateMany_SokobanGenerator(Tester t) {
+    SokobanGenerator generator = new SokobanGenerator(SokobanGenerator.layout(7, 7, 1), 2, 1,
+        3000);
+    ArrayList<GeneratedLevel> kept = generator.generateMany(10, 40, 5);
+    boolean ordered = true;
+    for (int i = 1; i < kept.size(); i += 1) {
+      ordered = ordered && kept.get(i - 1).pushes >= kept.get(i).pushes;
+    }
+    int hardest = 0;
+    for (long seed = 10; seed < 50; seed += 1) {
+      GeneratedLevel made = generator.generate(seed);
+      if (made != null) {
+        hardest = Math.max(hardest, made.pushes);
+      }
+    }
+    return t.checkExpect(kept.size(), 5) && t.checkExpect(ordered, true)
+        && t.checkExpect(kept.get(0).pushes, hardest);
+  }
+}
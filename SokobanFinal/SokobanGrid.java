@@ -0,0 +1,388 @@
+import java.util.Arrays;
+
+import javalib.worldimages.Posn;
+import tester.Tester;
+
+// represents a compact copy of a Sokoban board for searches that look at
+// many states: one character per location for the ground and the contents,
+// and the player kept apart as the index of its location
+// (the characters are the level string characters of Utils.makeCell, except
+// that the contents never hold the player or a target, since a target in the
+// contents behaves exactly like a blank)
+// follows the same rules as SokobanBoard.playerMove
+class SokobanGrid {
+  // represents the width of this grid
+  int width;
+  // represents the height of this grid
+  int height;
+  // represents the ground of every location, row by row
+  char[] ground;
+  // represents the contents of every location, row by row
+  char[] contents;
+  // represents the index of the player's location, or -1 once the player has
+  // fallen into a hole
+  int player;
+  // represents the location next to every location in every direction, by
+  // direction number (-1 where that is off the grid or a wall), built the first
+  // time it is needed and shared with every copy, since walls never move
+  int[][] neighbours;
+
+  // the names of the four directions, in the order of their direction numbers
+  static final String[] DIRECTIONS = { "right", "left", "up", "down" };
+
+  SokobanGrid(int width, int height, char[] ground, char[] contents, int player) {
+    this.width = width;
+    this.height = height;
+    this.ground = ground;
+    this.contents = contents;
+    this.player = player;
+  }
+
+  // constructor to create a grid based on two level strings
+  SokobanGrid(String levelGround, String levelContents) {
+    Posn size = new Utils().findSize(levelContents);
+    if (!new Utils().samePosn(size, new Utils().findSize(levelGround))) {
+      throw new IllegalArgumentException("Ground and contents must be the same size");
+    }
+    this.width = size.x;
+    this.height = size.y;
+    this.ground = new char[this.width * this.height];
+    this.contents = new char[this.width * this.height];
+    this.player = -1;
+    Arrays.fill(this.ground, '_');
+    Arrays.fill(this.contents, '_');
+    this.fill(levelGround, true);
+    this.fill(levelContents, false);
+  }
+
+  // constructor to create a grid from the current state of a board
+  SokobanGrid(SokobanBoard board) {
+    this(new Utils().levelString(board.levelGroundCells, board.size),
+        new Utils().levelString(board.levelContentsCells, board.size));
+    this.neighbours = board.neighbours;
+  }
+
+  // EFFECT: copies the characters of the given level string into the ground or
+  // the contents of this grid, taking the player out of the contents
+  void fill(String level, boolean isGround) {
+    String[] rows = level.split("\n");
+    for (int y = 0; y < rows.length; y += 1) {
+      for (int x = 0; x < rows[y].length(); x += 1) {
+        char c = rows[y].charAt(x);
+        int index = y * this.width + x;
+        if (isGround) {
+          this.ground[index] = c;
+        }
+        else if (c == '>' || c == '<' || c == '^' || c == 'v') {
+          this.player = index;
+        }
+        else if (c == 'R' || c == 'G' || c == 'Y') {
+          this.contents[index] = '_';
+        }
+        else {
+          this.contents[index] = c;
+        }
+      }
+    }
+  }
+
+  // produces a copy of this grid that can be moved without changing this one
+  SokobanGrid copy() {
+    SokobanGrid result = new SokobanGrid(this.width, this.height, this.ground.clone(),
+        this.contents.clone(), this.player);
+    result.neighbours = this.neighbours;
+    return result;
+  }
+
+  // produces the neighbour table of this grid, building it from the walls of
+  // its contents the first time
+  int[][] neighbours() {
+    if (this.neighbours == null) {
+      boolean[] walls = new boolean[this.contents.length];
+      for (int i = 0; i < walls.length; i += 1) {
+        walls[i] = this.contents[i] == 'W';
+      }
+      this.neighbours = SokobanGrid.neighbours(this.width, this.height, walls);
+    }
+    return this.neighbours;
+  }
+
+  // produces the table of the location next to every location of a grid of the
+  // given size in every direction, by direction number, with -1 where that is
+  // off the grid or one of the given walls
+  static int[][] neighbours(int width, int height, boolean[] walls) {
+    int[][] result = new int[4][width * height];
+    for (int index = 0; index < width * height; index += 1) {
+      int x = index % width;
+      int y = index / width;
+      result[0][index] = SokobanGrid.open(x + 1 < width, index + 1, walls);
+      result[1][index] = SokobanGrid.open(x > 0, index - 1, walls);
+      result[2][index] = SokobanGrid.open(y > 0, index - width, walls);
+      result[3][index] = SokobanGrid.open(y + 1 < height, index + width, walls);
+    }
+    return result;
+  }
+
+  // produces the given location if it is on the grid and not a wall, or -1
+  static int open(boolean onGrid, int index, boolean[] walls) {
+    if (onGrid && !walls[index]) {
+      return index;
+    }
+    else {
+      return -1;
+    }
+  }
+
+  // produces the number of the given direction name, or -1 if it is not one
+  static int direction(String name) {
+    return Arrays.asList(DIRECTIONS).indexOf(name);
+  }
+
+  // produces the index of the location next to the given one in the given
+  // direction, or -1 if that is off the grid or a wall (nothing ever moves onto
+  // a wall, so every search treats both alike)
+  int next(int index, int direction) {
+    return this.neighbours()[direction][index];
+  }
+
+  // determines if the given contents character is a piece the player can push
+  // (a box or a trophy)
+  static boolean isPiece(char c) {
+    return c == 'B' || c == 'r' || c == 'g' || c == 'b' || c == 'y';
+  }
+
+  // EFFECT: moves the player of this grid in the given direction, pushing a box
+  // or trophy in front of it if that piece can move, and produces whether the
+  // player moved (a player walking into a hole falls in and is gone, a piece
+  // pushed into a hole fills it and both are gone)
+  boolean move(int direction) {
+    if (this.player == -1) {
+      return false;
+    }
+    int next = this.next(this.player, direction);
+    if (next == -1) {
+      return false;
+    }
+    char c = this.contents[next];
+    if (c == '_') {
+      this.player = next;
+      return true;
+    }
+    else if (c == 'H') {
+      this.player = -1;
+      return true;
+    }
+    else if (SokobanGrid.isPiece(c)) {
+      int beyond = this.next(next, direction);
+      if (beyond == -1 || (this.contents[beyond] != '_' && this.contents[beyond] != 'H')) {
+        return false;
+      }
+      if (this.contents[beyond] == 'H') {
+        this.contents[beyond] = '_';
+      }
+      else {
+        this.contents[beyond] = c;
+      }
+      this.contents[next] = '_';
+      this.player = next;
+      return true;
+    }
+    else {
+      return false;
+    }
+  }
+
+  // produces the locations the player can walk to from the given location when
+  // the grid holds the given contents (walking only over blanks)
+  boolean[] reachable(char[] contents, int from) {
+    boolean[] reach = new boolean[contents.length];
+    int[] stack = new int[contents.length];
+    int size = 0;
+    reach[from] = true;
+    stack[size] = from;
+    size += 1;
+    while (size > 0) {
+      size -= 1;
+      int at = stack[size];
+      for (int direction = 0; direction < 4; direction += 1) {
+        int next = this.next(at, direction);
+        if (next != -1 && !reach[next] && contents[next] == '_') {
+          reach[next] = true;
+          stack[size] = next;
+          size += 1;
+        }
+      }
+    }
+    return reach;
+  }
+
+  // produces the smallest location the player can walk to from the given location
+  int area(char[] contents, int from) {
+    boolean[] reach = this.reachable(contents, from);
+    int smallest = 0;
+    while (!reach[smallest]) {
+      smallest += 1;
+    }
+    return smallest;
+  }
+
+  // determines if every target of this grid has a trophy of its color on top
+  boolean won() {
+    for (int i = 0; i < this.ground.length; i += 1) {
+      char g = this.ground[i];
+      if ((g == 'R' || g == 'G' || g == 'B' || g == 'Y')
+          && this.contents[i] != Character.toLowerCase(g)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // determines if the level should end (it is won or the player fell in a hole)
+  boolean shouldEnd() {
+    return this.player == -1 || this.won();
+  }
+
+  // produces the ground of this grid as a level string
+  String groundString() {
+    return this.rows(this.ground, -1);
+  }
+
+  // produces the contents of this grid as a level string, with the player as >
+  String contentsString() {
+    return this.rows(this.contents, this.player);
+  }
+
+  // produces the given characters as rows of this grid's width, with > at the
+  // given player location (if it is not -1)
+  String rows(char[] cells, int playerAt) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < cells.length; i += 1) {
+      if (i > 0 && i % this.width == 0) {
+        result.append("\n");
+      }
+      if (i == playerAt) {
+        result.append('>');
+      }
+      else {
+        result.append(cells[i]);
+      }
+    }
+    return result.toString();
+  }
+
+  // produces a level with the given name in the current state of this grid
+  SokobanLevel toLevel(String name) {
+    return new SokobanLevel(name, this.groundString(), this.contentsString());
+  }
+
+  // produces a string that is the same for two grids exactly when their
+  // contents and player are the same (the ground never changes)
+  String key() {
+    return new String(this.contents) + this.player;
+  }
+
+  // EFFECT: appends the given location (or -1) to the given key as two chars, the
+  // high and low halves of the index, so keys of boards with more than 65535
+  // locations never share a char
+  static StringBuilder appendIndex(StringBuilder key, int index) {
+    return key.append((char) (index >>> 16)).append((char) index);
+  }
+}
+
+// tests and examples for SokobanGrid
+class ExamplesSokobanGrid {
+
+  // tests and examples for the SokobanGrid constructors and the level strings
+  boolean testSokobanGridConstructor_SokobanGrid(Tester t) {
+    SokobanLevel basic = new SokobanLevels().find("basic");
+    SokobanGrid grid = new SokobanGrid(basic.ground, basic.contents);
+    SokobanGrid fromBoard = new SokobanGrid(basic.toBoard());
+    SokobanGrid withTarget = new SokobanGrid("___\n" + "___", "R>_\n" + "___");
+    return t.checkExpect(grid.width, 8) && t.checkExpect(grid.height, 7)
+        && t.checkExpect(grid.player, 27) && t.checkExpect(grid.contents[27], '_')
+        && t.checkExpect(grid.groundString(), basic.ground)
+        && t.checkExpect(grid.contentsString(), basic.contents)
+        && t.checkExpect(fromBoard.key(), grid.key())
+        && t.checkExpect(withTarget.contentsString(), "_>_\n" + "___")
+        && t.checkExpect(grid.toLevel("copy").toBoard(), basic.toBoard())
+        && t.checkConstructorException(
+            new IllegalArgumentException("Ground and contents must be the same size"),
+            "SokobanGrid", "__\n" + "__", "___\n" + "___");
+  }
+
+  // tests and examples for next and direction in SokobanGrid
+  boolean testNext_SokobanGrid(Tester t) {
+    SokobanGrid grid = new SokobanGrid("___\n" + "___", ">__\n" + "___");
+    return t.checkExpect(grid.next(0, 0), 1) && t.checkExpect(grid.next(0, 1), -1)
+        && t.checkExpect(grid.next(0, 2), -1) && t.checkExpect(grid.next(0, 3), 3)
+        && t.checkExpect(grid.next(5, 0), -1) && t.checkExpect(grid.next(5, 3), -1)
+        && t.checkExpect(grid.next(5, 2), 2) && t.checkExpect(SokobanGrid.direction("up"), 2)
+        && t.checkExpect(SokobanGrid.direction("pizza"), -1);
+  }
+
+  // tests and examples for the neighbour tables of SokobanGrid and SokobanBoard
+  boolean testNeighbours_SokobanGrid(Tester t) {
+    SokobanBoard board = new SokobanBoard("___\n" + "___", "W>_\n" + "__W");
+    SokobanGrid grid = new SokobanGrid(board.playerMove("right"));
+    SokobanGrid built = new SokobanGrid("___\n" + "___", "W>_\n" + "__W");
+    return t.checkExpect(board.neighbours[0], new int[] { 1, 2, -1, 4, -1, -1 })
+        && t.checkExpect(board.neighbours[1], new int[] { -1, -1, 1, -1, 3, 4 })
+        && t.checkExpect(board.neighbours[2], new int[] { -1, -1, -1, -1, 1, 2 })
+        && t.checkExpect(board.neighbours[3], new int[] { 3, 4, -1, -1, -1, -1 })
+        && t.checkExpect(built.neighbours(), board.neighbours)
+        && t.checkExpect(grid.neighbours == board.neighbours, true)
+        && t.checkExpect(grid.copy().neighbours == board.neighbours, true)
+        && t.checkExpect(grid.next(2, 3), -1) && t.checkExpect(grid.next(1, 1), -1);
+  }
+
+  // tests that moving a grid agrees with SokobanBoard.playerMove on every level
+  boolean testMove_SokobanGrid(Tester t) {
+    String[] keys = { "right", "down", "left", "left", "up", "down", "right", "right", "down",
+        "down", "left", "up", "left", "left", "down", "right" };
+    boolean agrees = true;
+    // plays the same keys on a board and a grid of every example level
+    for (SokobanLevel level : new SokobanLevels().examples()) {
+      SokobanBoard board = level.toBoard();
+      SokobanGrid grid = new SokobanGrid(level.ground, level.contents);
+      for (String key : keys) {
+        if (!board.shouldEnd()) {
+          board = board.playerMove(key);
+          grid.move(SokobanGrid.direction(key));
+        }
+        agrees = agrees && new SokobanGrid(board).key().equals(grid.key())
+            && board.shouldEnd() == grid.shouldEnd();
+      }
+    }
+    return t.checkExpect(agrees, true);
+  }
+
+  // tests and examples for reachable and area in SokobanGrid
+  boolean testReachable_SokobanGrid(Tester t) {
+    SokobanGrid grid = new SokobanGrid("_____\n" + "_____", "WB>_W\n" + "W_H_W");
+    boolean[] reach = grid.reachable(grid.contents, 2);
+    return t.checkExpect(reach[2], true) && t.checkExpect(reach[3], true)
+        && t.checkExpect(reach[8], true) && t.checkExpect(reach[1], false)
+        && t.checkExpect(reach[6], false) && t.checkExpect(reach[7], false)
+        && t.checkExpect(grid.area(grid.contents, 8), 2)
+        && t.checkExpect(grid.area(grid.contents, 6), 6);
+  }
+
+  // tests and examples for move, won and shouldEnd in SokobanGrid
+  boolean testWon_SokobanGrid(Tester t) {
+    SokobanGrid grid = new SokobanGrid("_____\n" + "___R_", "WWWWW\n" + ">_r_H");
+    SokobanGrid copy = grid.copy();
+    boolean first = grid.move(0);
+    boolean second = grid.move(0);
+    boolean fall = copy.move(3);
+    SokobanGrid hole = new SokobanGrid("____\n" + "____", ">BH_\n" + "WWWW");
+    hole.move(0);
+    hole.move(0);
+    return t.checkExpect(first, true) && t.checkExpect(second, true)
+        && t.checkExpect(grid.won(), true) && t.checkExpect(grid.move(2), false)
+        && t.checkExpect(fall, false) && t.checkExpect(copy.shouldEnd(), false)
+        && t.checkExpect(hole.contentsString(), "__>_\n" + "WWWW")
+        && t.checkExpect(new SokobanGrid("_\n" + "_", ">\n" + "W").won(), true)
+        && t.checkExpect(new SokobanGrid("__\n" + "__", ">H\n" + "WW").copy().move(0), true);
+  }
+}
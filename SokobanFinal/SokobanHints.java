@@ -0,0 +1,219 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tester.Tester;
+
+// represents a position in a solution: the moves of the whole solution and the
+// index of the next move to make from the state this step is cached under
+class PlanStep {
+  // represents every move of the solution
+  ArrayList<String> moves;
+  // represents the index of the next move
+  int index;
+
+  PlanStep(ArrayList<String> moves, int index) {
+    this.moves = moves;
+    this.index = index;
+  }
+
+  // produces the next move of the plan, or an empty string if there is none
+  String next() {
+    if (this.index < this.moves.size()) {
+      return this.moves.get(this.index);
+    }
+    else {
+      return "";
+    }
+  }
+}
+
+// represents a least recently used map that forgets its eldest entry once it
+// holds more than its capacity
+class LeastRecentlyUsed<K, V> extends LinkedHashMap<K, V> {
+  // the version of the serialized form, which LinkedHashMap has
+  private static final long serialVersionUID = 1L;
+
+  // represents the most entries this map keeps
+  int capacity;
+
+  LeastRecentlyUsed(int capacity) {
+    super(16, 0.75f, true);
+    this.capacity = capacity;
+  }
+
+  // determines if the eldest entry should be forgotten after an entry is added
+  protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+    return this.size() > this.capacity;
+  }
+}
+
+// gives hints to players who are stuck: the next direction of a solution from
+// the current state of their board
+// solutions are found by a SokobanSolver on a background thread and cached by
+// the state of the board at every step, so a player who follows a hint gets the
+// next one straight from the rest of the same solution
+class SokobanHints {
+  // represents the solver used to find new solutions
+  SokobanSolver solver;
+  // represents the thread the solver runs on
+  ExecutorService executor;
+  // represents the cached plan steps by the key of the state they start from
+  Map<String, PlanStep> cache;
+  // represents the searches running, by the key of the state they start from
+  ConcurrentHashMap<String, CompletableFuture<String>> running =
+      new ConcurrentHashMap<String, CompletableFuture<String>>();
+  // represents the number of searches started, for testing the cache
+  AtomicInteger searches = new AtomicInteger();
+
+  SokobanHints(int budget, int capacity) {
+    this.solver = new SokobanSolver(budget);
+    this.cache = Collections.synchronizedMap(new LeastRecentlyUsed<String, PlanStep>(capacity));
+    this.executor = Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task, "sokoban-hints");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  // produces the direction to move the player of the given world in next
+  // (see hint on a board)
+  CompletableFuture<String> hint(SokobanWorld world) {
+    return this.hint(world.boardState);
+  }
+
+  // produces the direction to move the player of the given board in next, once it
+  // is known: at once if the state is cached, otherwise when the background
+  // search finishes (an empty string if the level has ended or cannot be solved)
+  CompletableFuture<String> hint(SokobanBoard board) {
+    SokobanGrid grid = new SokobanGrid(board);
+    String key = grid.key();
+    PlanStep step = this.cache.get(key);
+    if (step != null) {
+      return CompletableFuture.completedFuture(step.next());
+    }
+    else if (grid.shouldEnd()) {
+      return CompletableFuture.completedFuture("");
+    }
+    else {
+      CompletableFuture<String> search = new CompletableFuture<String>();
+      CompletableFuture<String> existing = this.running.putIfAbsent(key, search);
+      if (existing != null) {
+        return existing;
+      }
+      this.searches.incrementAndGet();
+      this.executor.execute(() -> {
+        try {
+          search.complete(this.solveAndCache(grid));
+        }
+        catch (RuntimeException e) {
+          search.completeExceptionally(e);
+        }
+        finally {
+          this.running.remove(key);
+        }
+      });
+      return search;
+    }
+  }
+
+  // produces the hint for the given board if it is already known, otherwise an
+  // empty string, starting a background search so it is known soon
+  String hintNow(SokobanBoard board) {
+    return this.hint(board).getNow("");
+  }
+
+  // produces the first move of a solution from the given grid after caching the
+  // step of the solution that starts from every state along it
+  String solveAndCache(SokobanGrid grid) {
+    SolverResult result = this.solver.solve(grid);
+    SokobanGrid played = grid.copy();
+    // caches the rest of the plan under every state the plan passes through
+    for (int i = 0; i < result.moves.size(); i += 1) {
+      this.cache.put(played.key(), new PlanStep(result.moves, i));
+      played.move(SokobanGrid.direction(result.moves.get(i)));
+    }
+    if (!result.solved) {
+      this.cache.put(grid.key(), new PlanStep(result.moves, 0));
+    }
+    return this.cache.getOrDefault(grid.key(), new PlanStep(result.moves, 0)).next();
+  }
+
+  // EFFECT: stops the background thread, abandoning any search still running
+  void shutdown() {
+    this.executor.shutdownNow();
+  }
+}
+
+// tests and examples for PlanStep, LeastRecentlyUsed and SokobanHints
+class ExamplesSokobanHints {
+  SokobanLevel tiny = new SokobanLevel("tiny", "______\n" + "______\n" + "____R_",
+      "WWWWWW\n" + "W>___W\n" + "W_r__W");
+
+  // tests and examples for next in PlanStep
+  boolean testNext_PlanStep(Tester t) {
+    ArrayList<String> moves = new ArrayList<String>();
+    moves.add("down");
+    moves.add("right");
+    return t.checkExpect(new PlanStep(moves, 0).next(), "down")
+        && t.checkExpect(new PlanStep(moves, 1).next(), "right")
+        && t.checkExpect(new PlanStep(moves, 2).next(), "");
+  }
+
+  // tests that LeastRecentlyUsed forgets the entry used longest ago
+  boolean testCapacity_LeastRecentlyUsed(Tester t) {
+    LeastRecentlyUsed<String, Integer> map = new LeastRecentlyUsed<String, Integer>(2);
+    map.put("a", 1);
+    map.put("b", 2);
+    map.get("a");
+    map.put("c", 3);
+    return t.checkExpect(map.size(), 2) && t.checkExpect(map.containsKey("a"), true)
+        && t.checkExpect(map.containsKey("b"), false);
+  }
+
+  // tests that following the hints wins the level with only one search
+  boolean testFollow_SokobanHints(Tester t) throws Exception {
+    SokobanHints hints = new SokobanHints(10000, 100);
+    SokobanWorld world = new SokobanWorld(this.tiny.toBoard());
+    String first = hints.hint(world).get(5, TimeUnit.SECONDS);
+    int moves = 0;
+    boolean instant = true;
+    // plays the hints until the level ends
+    while (!world.boardState.shouldEnd() && moves < 20) {
+      String direction = hints.hintNow(world.boardState);
+      instant = instant && !direction.isEmpty();
+      world = (SokobanWorld) world.onKeyEvent(direction);
+      moves += 1;
+    }
+    String after = hints.hint(world).get(5, TimeUnit.SECONDS);
+    hints.shutdown();
+    return t.checkExpect(first, "down") && t.checkExpect(instant, true)
+        && t.checkExpect(world.boardState.levelWon(), true) && t.checkExpect(moves, 3)
+        && t.checkExpect(hints.searches.get(), 1) && t.checkExpect(after, "");
+  }
+
+  // tests that a player who leaves the plan gets a new search, and that a level
+  // that cannot be solved gets no hint
+  boolean testLeave_SokobanHints(Tester t) throws Exception {
+    SokobanHints hints = new SokobanHints(10000, 100);
+    SokobanBoard board = this.tiny.toBoard();
+    hints.hint(board).get(5, TimeUnit.SECONDS);
+    SokobanBoard wandered = this.tiny.toBoard().playerMove("right");
+    String pending = hints.hintNow(wandered);
+    String found = hints.hint(wandered).get(5, TimeUnit.SECONDS);
+    SokobanBoard stuck = new SokobanLevel("stuck", "_____\n" + "_____\n" + "__R__",
+        "WWWWW\n" + "W>_rW\n" + "WWWWW").toBoard();
+    String none = hints.hint(stuck).get(5, TimeUnit.SECONDS);
+    hints.shutdown();
+    return t.checkExpect(pending.equals("") || pending.equals("left"), true)
+        && t.checkExpect(found, "left") && t.checkExpect(none, "")
+        && t.checkExpect(hints.searches.get(), 3);
+  }
+}
@@ -0,0 +1,291 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import tester.Tester;
+
+// represents an append-only journal of the moves of one game, so the game can be
+// recovered after a crash by replaying the moves onto the start of its level
+// a journal is "SKJ1", the level name (a varint length and UTF-8 bytes), and then
+// one byte per move: the index of its direction in SokobanGrid.DIRECTIONS
+// moves are only buffered when they are made; a background thread writes the
+// buffered moves through a FileChannel and forces them to disk once every
+// flush interval, so a crash loses at most the moves of the last interval
+class MoveJournal {
+  // represents the level the journalled game is played on
+  SokobanLevel level;
+  // represents the channel of the journal file
+  FileChannel channel;
+  // represents the moves made since the last flush
+  ByteBuffer buffer = ByteBuffer.allocate(256);
+  // represents the thread that flushes the journal
+  ScheduledExecutorService flusher;
+  // represents the number of flushes that wrote moves to disk
+  int syncs;
+
+  // the four bytes every journal starts with
+  static final int MAGIC = 0x534B4A31;
+
+  // constructor for a journal of a game on the given level in the given file,
+  // flushed every given number of milliseconds
+  // (a file already journalling the level is continued, so a recovered game
+  // keeps its moves from before the crash)
+  MoveJournal(Path file, SokobanLevel level, long flushMillis) throws IOException {
+    if (flushMillis <= 0) {
+      throw new IllegalArgumentException("The flush interval must be positive");
+    }
+    this.level = level;
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    ByteBuffer header = MoveJournal.header(level.name);
+    if (this.channel.size() == 0) {
+      while (header.hasRemaining()) {
+        this.channel.write(header);
+      }
+      this.channel.force(false);
+    }
+    else {
+      ByteBuffer existing = ByteBuffer.allocate(header.remaining());
+      int read = 0;
+      while (existing.hasRemaining() && read != -1) {
+        read = this.channel.read(existing);
+      }
+      existing.flip();
+      if (!existing.equals(header)) {
+        this.channel.close();
+        throw new IllegalArgumentException("Journal is not for level " + level.name);
+      }
+      this.channel.position(this.channel.size());
+    }
+    this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "sokoban-journal");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  // produces the header of a journal of the level with the given name
+  static ByteBuffer header(String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer header = ByteBuffer.allocate(4 + 5 + bytes.length);
+    header.putInt(MAGIC);
+    SokobanSnapshot.putVarint(header, bytes.length);
+    header.put(bytes);
+    header.flip();
+    return header;
+  }
+
+  // EFFECT: buffers the given move (one of SokobanGrid.DIRECTIONS) to be written
+  // with the next flush
+  synchronized void append(String direction) {
+    if (!this.buffer.hasRemaining()) {
+      ByteBuffer bigger = ByteBuffer.allocate(this.buffer.capacity() * 2);
+      this.buffer.flip();
+      this.buffer = bigger.put(this.buffer);
+    }
+    this.buffer.put((byte) SokobanGrid.direction(direction));
+  }
+
+  // EFFECT: writes every buffered move to the journal file and forces it to disk
+  // (the buffer is swapped out first, so moves made while writing are not held up)
+  void flush() throws IOException {
+    ByteBuffer moves;
+    synchronized (this) {
+      if (this.buffer.position() == 0) {
+        return;
+      }
+      moves = this.buffer;
+      moves.flip();
+      this.buffer = ByteBuffer.allocate(moves.capacity());
+    }
+    synchronized (this.channel) {
+      while (moves.hasRemaining()) {
+        this.channel.write(moves);
+      }
+      this.channel.force(false);
+      this.syncs += 1;
+    }
+  }
+
+  // EFFECT: flushes the journal on the background thread, where an error has
+  // nowhere to go but the console
+  void flushQuietly() {
+    try {
+      this.flush();
+    }
+    catch (IOException e) {
+      System.err.println("Could not write the move journal: " + e.getMessage());
+    }
+  }
+
+  // EFFECT: stops the background thread, flushes the moves still buffered and
+  // closes the journal file
+  void close() throws IOException {
+    this.flusher.shutdown();
+    try {
+      this.flusher.awaitTermination(1, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.flush();
+    this.channel.close();
+  }
+
+  // produces the board of the game journalled in the given file: the start of its
+  // level, found among the given levels or SokobanLevels.named, with every move of
+  // the journal replayed until the level should end (a last move torn by the
+  // crash is ignored)
+  static SokobanBoard recover(Path file, ArrayList<SokobanLevel> levels) throws IOException {
+    ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(file));
+    SokobanBoard board = MoveJournal.level(journal, levels).toBoard();
+    // replays every move, as SokobanWorld.play would
+    for (int direction = MoveJournal.nextMove(journal); direction != -1
+        && !board.shouldEnd(); direction = MoveJournal.nextMove(journal)) {
+      board = board.playerMove(SokobanGrid.DIRECTIONS[direction]);
+    }
+    return board;
+  }
+
+  // produces the level of the game journalled in the given buffer, found among
+  // the given levels or SokobanLevels.named, reading the start of the journal
+  static SokobanLevel level(ByteBuffer journal, ArrayList<SokobanLevel> levels) {
+    if (journal.remaining() < 4 || journal.getInt() != MAGIC) {
+      throw new IllegalArgumentException("Not a Sokoban move journal");
+    }
+    int length = SokobanSnapshot.getVarint(journal);
+    if (length < 0 || length > journal.remaining()) {
+      throw new IllegalArgumentException("Not a Sokoban move journal");
+    }
+    byte[] name = new byte[length];
+    journal.get(name);
+    return SokobanSnapshot.findLevel(new String(name, StandardCharsets.UTF_8), levels);
+  }
+
+  // produces the direction number of the next move of the given buffer, read after
+  // the level, or -1 at the end of the journal or a last move torn by a crash
+  static int nextMove(ByteBuffer journal) {
+    if (!journal.hasRemaining()) {
+      return -1;
+    }
+    int direction = journal.get();
+    if (direction < 0 || direction >= SokobanGrid.DIRECTIONS.length) {
+      return -1;
+    }
+    return direction;
+  }
+}
+
+// tests and examples for MoveJournal
+class ExamplesMoveJournal {
+  String[] keys = { "right", "right", "down", "left", "up", "x", "right", "right", "down" };
+
+  // produces the board after pressing the keys on the holes level
+  SokobanBoard played() {
+    SokobanBoard board = new SokobanLevels().find("holes").toBoard();
+    for (String key : this.keys) {
+      if (!new Utils().keyDirection(key).isEmpty()) {
+        board = board.playerMove(key);
+      }
+    }
+    return board;
+  }
+
+  // tests that the moves of a journalled world are only buffered by key events
+  // and that the journal recovers the board they led to
+  boolean testRecover_MoveJournal(Tester t) throws IOException {
+    Path file = Files.createTempFile("sokoban", ".skj");
+    Files.delete(file);
+    SokobanLevel holes = new SokobanLevels().find("holes");
+    MoveJournal journal = new MoveJournal(file, holes, 3_600_000L);
+    SokobanWorld world = new SokobanWorld(holes.toBoard()).journaled(journal);
+    for (String key : this.keys) {
+      world = (SokobanWorld) world.onKeyEvent(key);
+    }
+    int syncsBefore = journal.syncs;
+    long sizeBefore = Files.size(file);
+    journal.flush();
+    SokobanBoard recovered = MoveJournal.recover(file, new ArrayList<SokobanLevel>());
+    journal.close();
+    Files.delete(file);
+    return t.checkExpect(syncsBefore, 0) && t.checkExpect(sizeBefore, 10L)
+        && t.checkExpect(journal.syncs, 1)
+        && t.checkExpect(new SokobanGrid(recovered).key(), new SokobanGrid(this.played()).key())
+        && t.checkExpect(new SokobanGrid(world.boardState).key(),
+            new SokobanGrid(this.played()).key());
+  }
+
+  // tests that the background thread flushes a batched world's moves and that a
+  // journal continued after a recovery keeps the moves from before it
+  boolean testBackgroundAndContinue_MoveJournal(Tester t) throws Exception {
+    Path file = Files.createTempFile("sokoban", ".skj");
+    Files.delete(file);
+    SokobanLevel holes = new SokobanLevels().find("holes");
+    MoveJournal journal = new MoveJournal(file, holes, 5);
+    SokobanWorld world = new SokobanWorld(holes.toBoard()).batched().journaled(journal);
+    for (int i = 0; i < 5; i += 1) {
+      world.onKeyEvent(this.keys[i]);
+    }
+    world = (SokobanWorld) world.onTick();
+    long waited = 0;
+    while (Files.size(file) < 15 && waited < 5000) {
+      Thread.sleep(5);
+      waited += 5;
+    }
+    long flushed = Files.size(file);
+    // the crash: the journal is never closed, and a new one continues the file
+    SokobanWorld recovered = new SokobanWorld(MoveJournal.recover(file,
+        new ArrayList<SokobanLevel>())).journaled(new MoveJournal(file, holes, 3_600_000L));
+    for (int i = 5; i < this.keys.length; i += 1) {
+      recovered = (SokobanWorld) recovered.onKeyEvent(this.keys[i]);
+    }
+    recovered.journal.close();
+    journal.close();
+    SokobanBoard again = MoveJournal.recover(file, new ArrayList<SokobanLevel>());
+    Files.delete(file);
+    return t.checkExpect(flushed, 15L)
+        && t.checkExpect(new SokobanGrid(again).key(), new SokobanGrid(this.played()).key());
+  }
+
+  // tests that journals of other levels and files that are not journals are refused
+  // and that a torn last move is ignored
+  boolean testErrors_MoveJournal(Tester t) throws IOException {
+    Path file = Files.createTempFile("sokoban", ".skj");
+    Files.delete(file);
+    SokobanLevel holes = new SokobanLevels().find("holes");
+    SokobanLevel first = new SokobanLevels().find("first");
+    new MoveJournal(file, holes, 1000).close();
+    Files.write(file, new byte[] { 0, 3, 99 }, StandardOpenOption.APPEND);
+    SokobanBoard torn = MoveJournal.recover(file, new ArrayList<SokobanLevel>());
+    Path other = Files.createTempFile("sokoban", ".txt");
+    Files.write(other, "hello".getBytes(StandardCharsets.UTF_8));
+    boolean result = t.checkExpect(new SokobanGrid(torn).key(),
+        new SokobanGrid(holes.toBoard().playerMove("right").playerMove("down")).key())
+        && t.checkConstructorException(
+            new IllegalArgumentException("Journal is not for level first"), "MoveJournal", file,
+            first, 1000L)
+        && t.checkConstructorException(
+            new IllegalArgumentException("The flush interval must be positive"), "MoveJournal",
+            file, first, 0L)
+        && t.checkException(new IllegalArgumentException("Not a Sokoban move journal"),
+            new ExamplesMoveJournal(), "recoverFrom", other);
+    Files.delete(file);
+    Files.delete(other);
+    return result;
+  }
+
+  // produces the board recovered from the given file, for testing its exceptions
+  SokobanBoard recoverFrom(Path file) throws IOException {
+    return MoveJournal.recover(file, new ArrayList<SokobanLevel>());
+  }
+}
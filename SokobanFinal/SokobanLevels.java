@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javalib.worldimages.Posn;
+import tester.Tester;
+
+// represents a named Sokoban level as the two strings a SokobanBoard is built from
+class SokobanLevel {
+  // represents the name this level is known by
+  String name;
+  // represents the ground string of this level
+  String ground;
+  // represents the contents string of this level
+  String contents;
+
+  SokobanLevel(String name, String ground, String contents) {
+    this.name = name;
+    this.ground = ground;
+    this.contents = contents;
+  }
+
+  // produces a new board in the starting state of this level
+  SokobanBoard toBoard() {
+    return new SokobanBoard(this.ground, this.contents);
+  }
+
+  // produces the width and height of this level
+  Posn size() {
+    return new Utils().findSize(this.contents);
+  }
+}
+
+// contains the levels that ship with the game and generated levels of any size
+class SokobanLevels {
+
+  // produces the levels used by the examples of the game
+  ArrayList<SokobanLevel> examples() {
+    ArrayList<SokobanLevel> result = new ArrayList<SokobanLevel>();
+    result.add(new SokobanLevel("basic",
+        "________\n" + "___R____\n" + "________\n" + "_B____Y_\n" + "________\n" + "___G____\n"
+            + "________",
+        "__WWW___\n" + "__W_WW__\n" + "WW_r_WWW\n" + "W_b>y__W\n" + "WWHgWWWW\n" + "_WW_W___\n"
+            + "__WWW___"));
+    result.add(new SokobanLevel("first",
+        "________\n" + "________\n" + "_B______\n" + "_____G__\n" + "_R______\n" + "____Y___\n"
+            + "______R_\n" + "____G___\n" + "________",
+        "__WWWWW_\n" + "WWW___W_\n" + "W_<b__W_\n" + "WWW_g_W_\n" + "W_WWy_W_\n" + "W_W___WW\n"
+            + "Wr_bgr_W\n" + "W______W\n" + "WWWWWWWW"));
+    result.add(new SokobanLevel("holes",
+        "_______\n" + "_______\n" + "_______\n" + "__R____\n" + "_______\n" + "_______\n"
+            + "_______",
+        "WWWWWWW\n" + "W_>___W\n" + "W_H_r_W\n" + "WH_HB_W\n" + "W_H___W\n" + "W_____W\n"
+            + "WWWWWWW"));
+    return result;
+  }
+
+  // produces the example level with the given name
+  SokobanLevel find(String name) {
+    for (SokobanLevel level : this.examples()) {
+      if (level.name.equals(name)) {
+        return level;
+      }
+    }
+    throw new IllegalArgumentException("No level named " + name);
+  }
+
+  // produces the example level with the given name, or a room for names like room12
+  SokobanLevel named(String name) {
+    int side = this.roomSide(name);
+    if (side != -1) {
+      return this.room(side);
+    }
+    else {
+      return this.find(name);
+    }
+  }
+
+  // produces the side of the room with the given name, like 12 for room12, or -1
+  // if the name is not one of a room
+  int roomSide(String name) {
+    if (name.startsWith("room") && name.length() > 4 && name.length() < 9
+        && name.substring(4).chars().allMatch(Character::isDigit)) {
+      return Integer.parseInt(name.substring(4));
+    }
+    else {
+      return -1;
+    }
+  }
+
+  // EFFECT: writes the given levels to the given level file, each as a line
+  // "Level <name>", the rows of its ground, a line "-", the rows of its contents
+  // and an empty line
+  void write(ArrayList<SokobanLevel> levels, Path file) throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (SokobanLevel level : levels) {
+      text.append("Level ").append(level.name).append("\n").append(level.ground).append("\n-\n")
+          .append(level.contents).append("\n\n");
+    }
+    Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  // produces the levels in the given level file, in order
+  ArrayList<SokobanLevel> read(Path file) throws IOException {
+    List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    ArrayList<SokobanLevel> result = new ArrayList<SokobanLevel>();
+    int i = 0;
+    // reads one level for every line starting with "Level "
+    while (i < lines.size()) {
+      if (!lines.get(i).startsWith("Level ")) {
+        i += 1;
+      }
+      else {
+        String name = lines.get(i).substring(6);
+        StringBuilder ground = new StringBuilder();
+        StringBuilder contents = new StringBuilder();
+        i += 1;
+        while (i < lines.size() && !lines.get(i).equals("-")) {
+          this.addRow(ground, lines.get(i));
+          i += 1;
+        }
+        i += 1;
+        while (i < lines.size() && !lines.get(i).isEmpty()) {
+          this.addRow(contents, lines.get(i));
+          i += 1;
+        }
+        result.add(new SokobanLevel(name, ground.toString(), contents.toString()));
+      }
+    }
+    return result;
+  }
+
+  // EFFECT: adds the given row to the end of the given level string
+  void addRow(StringBuilder level, String row) {
+    if (level.length() > 0) {
+      level.append("\n");
+    }
+    level.append(row);
+  }
+
+  // produces a walled square room with the given width and height,
+  // the player in the top left corner, and trophies, boxes and holes
+  // spread across the room with a matching target just below every trophy
+  SokobanLevel room(int side) {
+    if (side < 5) {
+      throw new IllegalArgumentException("A room must be at least 5 cells wide");
+    }
+    StringBuilder ground = new StringBuilder();
+    StringBuilder contents = new StringBuilder();
+    // for every cell in the room, adds the ground and contents character for it
+    for (int row = 1; row <= side; row += 1) {
+      for (int column = 1; column <= side; column += 1) {
+        String cell = this.roomCell(side, row, column);
+        ground.append(cell.charAt(0));
+        contents.append(cell.charAt(1));
+      }
+      if (row < side) {
+        ground.append("\n");
+        contents.append("\n");
+      }
+    }
+    return new SokobanLevel("room" + side, ground.toString(), contents.toString());
+  }
+
+  // produces the ground and contents characters of the cell of a room with the
+  // given side at the given row and column
+  // (walls around the outside, a piece every third cell of every third row)
+  String roomCell(int side, int row, int column) {
+    if (row == 1 || column == 1 || row == side || column == side) {
+      return "_W";
+    }
+    else if (row == 2 && column == 2) {
+      return "_>";
+    }
+    else if (this.roomPiece(side, row, column)) {
+      return "_" + "rgbyBH".charAt(this.roomKind(row, column));
+    }
+    else if (this.roomPiece(side, row - 1, column) && this.roomKind(row - 1, column) < 4) {
+      return "RGBY".charAt(this.roomKind(row - 1, column)) + "_";
+    }
+    else {
+      return "__";
+    }
+  }
+
+  // determines if a room with the given side has a piece at the given row and column
+  boolean roomPiece(int side, int row, int column) {
+    return row % 3 == 0 && column % 3 == 0 && row < side - 1 && column < side - 1;
+  }
+
+  // produces the kind of piece a room has at the given row and column
+  // (0 to 3 are the red, green, blue and yellow trophies, 4 a box and 5 a hole)
+  int roomKind(int row, int column) {
+    return (row / 3 + column / 3) % 6;
+  }
+}
+
+// tests and examples for SokobanLevels
+class ExamplesSokobanLevels {
+
+  // tests and examples for examples and find in SokobanLevels
+  boolean testFind_SokobanLevels(Tester t) {
+    SokobanLevel holes = new SokobanLevels().find("holes");
+    return t.checkExpect(new SokobanLevels().examples().size(), 3)
+        && t.checkExpect(holes.size(), new Posn(7, 7))
+        && t.checkExpect(new SokobanLevels().find("basic").toBoard().levelWon(), false)
+        && t.checkException(new IllegalArgumentException("No level named pizza"),
+            new SokobanLevels(), "find", "pizza");
+  }
+
+  // tests and examples for named in SokobanLevels
+  boolean testNamed_SokobanLevels(Tester t) {
+    return t.checkExpect(new SokobanLevels().named("holes"), new SokobanLevels().find("holes"))
+        && t.checkExpect(new SokobanLevels().named("room12"), new SokobanLevels().room(12))
+        && t.checkException(new IllegalArgumentException("No level named room"),
+            new SokobanLevels(), "named", "room")
+        && t.checkException(new IllegalArgumentException("No level named room1x"),
+            new SokobanLevels(), "named", "room1x");
+  }
+
+  // tests and examples for write and read in SokobanLevels
+  boolean testWriteRead_SokobanLevels(Tester t) throws IOException {
+    Path file = Files.createTempFile("levels", ".txt");
+    ArrayList<SokobanLevel> levels = new SokobanLevels().examples();
+    levels.add(new SokobanLevels().room(6));
+    new SokobanLevels().write(levels, file);
+    String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    ArrayList<SokobanLevel> read = new SokobanLevels().read(file);
+    Files.delete(file);
+    return t.checkExpect(read, levels)
+        && t.checkExpect(text.startsWith("Level basic\n________\n___R____\n"), true);
+  }
+
+  // tests and examples for room in SokobanLevels
+  boolean testRoom_SokobanLevels(Tester t) {
+    SokobanLevel small = new SokobanLevels().room(7);
+    SokobanBoard board = small.toBoard();
+    return t.checkExpect(small.ground,
+        "_______\n" + "_______\n" + "_______\n" + "__B____\n" + "_______\n" + "_______\n"
+            + "_______")
+        && t.checkExpect(small.contents,
+            "WWWWWWW\n" + "W>____W\n" + "W_b___W\n" + "W_____W\n" + "W_____W\n" + "W_____W\n"
+                + "WWWWWWW")
+        && t.checkExpect(new SokobanLevels().room(500).size(), new Posn(500, 500))
+        && t.checkExpect(board.shouldEnd(), false)
+        && t.checkExpect(board.playerMove("right").playerMove("left").shouldEnd(), false)
+        && t.checkException(new IllegalArgumentException("A room must be at least 5 cells wide"),
+            new SokobanLevels(), "room", 4);
+  }
+}
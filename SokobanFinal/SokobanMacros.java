@@ -0,0 +1,355 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import tester.Tester;
+
+// represents the pushes of one piece found by a breadth first search, where a
+// state is the location of the piece times 4 plus the side the player is on
+class PushSearch {
+  // represents, for every state, the state it is reached from by one push, -1 at
+  // a starting state and -2 where it cannot be reached
+  int[] previous;
+  // represents, for every location, the first state reached with the piece there
+  // (so with the fewest pushes), or -1 if the piece cannot get there
+  int[] first;
+
+  PushSearch(int cells) {
+    this.previous = new int[cells * 4];
+    this.first = new int[cells];
+    Arrays.fill(this.previous, -2);
+    Arrays.fill(this.first, -1);
+  }
+}
+
+// plans macro moves on one state of a board: a walk to a location, or walks and
+// pushes that take one box or trophy to a location with the fewest pushes
+// everything a plan needs is computed at most once per state and kept, so asking
+// again (while the player hovers over locations, say) only reads it:
+//   - the distance map of the player's walks (one breadth first search)
+//   - for each piece that is moved, the blocks of the locations the piece may
+//     use, which tell at once whether the player can walk around the piece from
+//     one side of it to another (one depth first search)
+//   - for each piece that is moved, the fewest pushes to every location it can
+//     reach (one breadth first search over the piece and the side of the player)
+class MacroPlanner {
+  // represents the state the plans start from
+  SokobanGrid grid;
+  // represents, for every location, the direction the player's shortest walk
+  // enters it from, 4 at the player and -1 where the player cannot walk
+  int[] walkFrom;
+  // represents, for every location, the length of the player's shortest walk there
+  int[] walkDistance;
+  // represents the blocks computed so far, by the location of the piece they are for
+  HashMap<Integer, int[]> blocks = new HashMap<Integer, int[]>();
+  // represents the push searches computed so far, by the location of the piece
+  // they are for
+  HashMap<Integer, PushSearch> pushes = new HashMap<Integer, PushSearch>();
+
+  MacroPlanner(SokobanGrid grid) {
+    this.grid = grid;
+    this.walkFrom = new int[grid.contents.length];
+    this.walkDistance = new int[grid.contents.length];
+    Arrays.fill(this.walkFrom, -1);
+    if (grid.player != -1) {
+      this.walkFrom[grid.player] = 4;
+      ArrayDeque<Integer> frontier = new ArrayDeque<Integer>();
+      frontier.add(grid.player);
+      // walks out from the player one step at a time over the blanks
+      while (!frontier.isEmpty()) {
+        int at = frontier.poll();
+        for (int direction = 0; direction < 4; direction += 1) {
+          int next = grid.next(at, direction);
+          if (next != -1 && this.walkFrom[next] == -1 && grid.contents[next] == '_') {
+            this.walkFrom[next] = direction;
+            this.walkDistance[next] = this.walkDistance[at] + 1;
+            frontier.add(next);
+          }
+        }
+      }
+    }
+  }
+
+  // produces the directions of a shortest walk from the player to the given
+  // location, or null if the player cannot walk there
+  ArrayList<String> walkRoute(int to) {
+    if (to < 0 || to >= this.walkFrom.length || this.walkFrom[to] == -1) {
+      return null;
+    }
+    ArrayList<String> result = new ArrayList<String>();
+    int at = to;
+    while (this.walkFrom[at] != 4) {
+      int direction = this.walkFrom[at];
+      result.add(SokobanGrid.DIRECTIONS[direction]);
+      at = this.grid.next(at, direction ^ 1);
+    }
+    Collections.reverse(result);
+    return result;
+  }
+
+  // produces the directions of the walks and pushes that take the piece at the
+  // given location to the other given location with the fewest pushes (the other
+  // pieces stay where they are), or null if it cannot get there
+  ArrayList<String> pushRoute(int piece, int to) {
+    int cells = this.grid.contents.length;
+    if (piece < 0 || piece >= cells || to < 0 || to >= cells
+        || !SokobanGrid.isPiece(this.grid.contents[piece])
+        || (to != piece && this.grid.contents[to] != '_')) {
+      return null;
+    }
+    PushSearch search = this.pushesFor(piece);
+    if (search.first[to] == -1) {
+      return null;
+    }
+    ArrayList<Integer> pushes = new ArrayList<Integer>();
+    for (int state = search.first[to]; search.previous[state] != -1;
+        state = search.previous[state]) {
+      pushes.add((state % 4) ^ 1);
+    }
+    Collections.reverse(pushes);
+    return this.play(piece, pushes);
+  }
+
+  // produces the push search for the piece at the given location, computing it the
+  // first time it is asked for
+  PushSearch pushesFor(int piece) {
+    PushSearch search = this.pushes.get(piece);
+    if (search == null) {
+      search = this.computePushes(piece);
+      this.pushes.put(piece, search);
+    }
+    return search;
+  }
+
+  // produces the fewest pushes of the piece at the given location to every
+  // location, by a breadth first search where a state is the location of the
+  // piece times 4 plus the side the player is on
+  PushSearch computePushes(int piece) {
+    int cells = this.grid.contents.length;
+    int[] block = this.blocksFor(piece);
+    PushSearch search = new PushSearch(cells);
+    ArrayDeque<Integer> frontier = new ArrayDeque<Integer>();
+    for (int side = 0; side < 4; side += 1) {
+      int next = this.grid.next(piece, side);
+      if (next != -1 && this.walkFrom[next] != -1) {
+        search.previous[piece * 4 + side] = -1;
+        frontier.add(piece * 4 + side);
+      }
+    }
+    while (!frontier.isEmpty()) {
+      int state = frontier.poll();
+      int at = state / 4;
+      if (search.first[at] == -1) {
+        search.first[at] = state;
+      }
+      for (int direction = 0; direction < 4; direction += 1) {
+        int behind = direction ^ 1;
+        int into = this.grid.next(at, direction);
+        boolean aroundPiece = behind == state % 4
+            || (block[at * 4 + state % 4] != -1
+                && block[at * 4 + state % 4] == block[at * 4 + behind]);
+        if (into != -1 && aroundPiece && this.isFloor(into, piece)
+            && search.previous[into * 4 + behind] == -2) {
+          search.previous[into * 4 + behind] = state;
+          frontier.add(into * 4 + behind);
+        }
+      }
+    }
+    return search;
+  }
+
+  // produces every move of pushing the piece at the given location in the given
+  // directions, walking to the right side of the piece before each push
+  ArrayList<String> play(int piece, ArrayList<Integer> pushes) {
+    ArrayList<String> result = new ArrayList<String>();
+    SokobanGrid played = this.grid.copy();
+    SokobanSolver walker = new SokobanSolver(1);
+    int at = piece;
+    for (int direction : pushes) {
+      for (int step : walker.walk(played, played.next(at, direction ^ 1))) {
+        played.move(step);
+        result.add(SokobanGrid.DIRECTIONS[step]);
+      }
+      played.move(direction);
+      result.add(SokobanGrid.DIRECTIONS[direction]);
+      at = played.next(at, direction);
+    }
+    return result;
+  }
+
+  // determines if the given location is one the player and the piece at the other
+  // given location may use (a blank, or where that piece started)
+  boolean isFloor(int at, int piece) {
+    return at == piece || this.grid.contents[at] == '_';
+  }
+
+  // produces the blocks for moving the piece at the given location, computing
+  // them the first time they are asked for
+  int[] blocksFor(int piece) {
+    int[] block = this.blocks.get(piece);
+    if (block == null) {
+      block = this.computeBlocks(piece);
+      this.blocks.put(piece, block);
+    }
+    return block;
+  }
+
+  // produces, for every location times 4 plus a direction, the block the step from
+  // that location in that direction belongs to (-1 if it is not a step between
+  // two floor locations), where the floor is every blank and the piece's location
+  // two steps out of the same location belong to the same block exactly when the
+  // player can walk from the end of one to the end of the other without passing
+  // through that location (the blocks are the biconnected components of the floor,
+  // found by Tarjan's depth first search, kept on an explicit stack)
+  int[] computeBlocks(int piece) {
+    int cells = this.grid.contents.length;
+    int[] block = new int[cells * 4];
+    Arrays.fill(block, -1);
+    int[] discovered = new int[cells];
+    Arrays.fill(discovered, -1);
+    int[] low = new int[cells];
+    int[] parent = new int[cells];
+    int[] nextDirection = new int[cells];
+    int[] stack = new int[cells];
+    int[] steps = new int[cells * 4];
+    int stackSize = 0;
+    int stepsSize = 0;
+    int time = 0;
+    int blockCount = 0;
+    for (int root = 0; root < cells; root += 1) {
+      if (discovered[root] == -1 && this.isFloor(root, piece)) {
+        discovered[root] = time;
+        low[root] = time;
+        time += 1;
+        parent[root] = -1;
+        nextDirection[root] = 0;
+        stack[stackSize] = root;
+        stackSize += 1;
+        while (stackSize > 0) {
+          int u = stack[stackSize - 1];
+          if (nextDirection[u] < 4) {
+            int direction = nextDirection[u];
+            nextDirection[u] += 1;
+            int v = this.grid.next(u, direction);
+            if (v != -1 && this.isFloor(v, piece)) {
+              if (discovered[v] == -1) {
+                steps[stepsSize] = u * 4 + direction;
+                stepsSize += 1;
+                parent[v] = u;
+                discovered[v] = time;
+                low[v] = time;
+                time += 1;
+                nextDirection[v] = 0;
+                stack[stackSize] = v;
+                stackSize += 1;
+              }
+              else if (v != parent[u] && discovered[v] < discovered[u]) {
+                steps[stepsSize] = u * 4 + direction;
+                stepsSize += 1;
+                low[u] = Math.min(low[u], discovered[v]);
+              }
+            }
+          }
+          else {
+            stackSize -= 1;
+            int p = parent[u];
+            if (p != -1) {
+              low[p] = Math.min(low[p], low[u]);
+              if (low[u] >= discovered[p]) {
+                // every step on the stack down to the step from p to u is one block
+                int step;
+                do {
+                  stepsSize -= 1;
+                  step = steps[stepsSize];
+                  block[step] = blockCount;
+                  block[this.grid.next(step / 4, step % 4) * 4 + ((step % 4) ^ 1)] = blockCount;
+                } while (this.grid.next(step / 4, step % 4) != u || step / 4 != p);
+                blockCount += 1;
+              }
+            }
+          }
+        }
+      }
+    }
+    return block;
+  }
+}
+
+// tests and examples for MacroPlanner
+class ExamplesMacroPlanner {
+
+  // produces the contents after playing the given moves on a board of the given level
+  String playOnBoard(SokobanLevel level, ArrayList<String> moves) {
+    SokobanBoard board = level.toBoard();
+    for (String move : moves) {
+      board = board.playerMove(move);
+    }
+    return new SokobanGrid(board).contentsString();
+  }
+
+  // tests and examples for walkRoute in MacroPlanner
+  boolean testWalkRoute_MacroPlanner(Tester t) {
+    SokobanLevel holes = new SokobanLevels().find("holes");
+    MacroPlanner planner = new MacroPlanner(new SokobanGrid(holes.ground, holes.contents));
+    ArrayList<String> route = planner.walkRoute(36);
+    ArrayList<String> stay = planner.walkRoute(9);
+    return t.checkExpect(route.size(), 11) && t.checkExpect(planner.walkDistance[36], 11)
+        && t.checkExpect(this.playOnBoard(holes, route).charAt(36 + 5), '>')
+        && t.checkExpect(stay, new ArrayList<String>())
+        && t.checkExpect(planner.walkRoute(0), null) && t.checkExpect(planner.walkRoute(23), null)
+        && t.checkExpect(planner.walkRoute(99), null);
+  }
+
+  // tests and examples for pushRoute in MacroPlanner
+  boolean testPushRoute_MacroPlanner(Tester t) {
+    SokobanLevel room = new SokobanLevel("room", "______\n" + "______\n" + "______\n" + "______"
+        + "\n______", "WWWWWW\n" + "W>___W\n" + "W_B__W\n" + "W____W\n" + "WWWWWW");
+    MacroPlanner planner = new MacroPlanner(new SokobanGrid(room.ground, room.contents));
+    ArrayList<String> route = planner.pushRoute(14, 22);
+    ArrayList<String> corner = planner.pushRoute(14, 7);
+    ArrayList<String> wall = planner.pushRoute(14, 0);
+    PushSearch search = planner.pushesFor(14);
+    return t.checkExpect(route.size() >= 3, true)
+        && t.checkExpect(this.playOnBoard(room, route).charAt(22 + 3), 'B')
+        && t.checkExpect(this.playOnBoard(room, corner).charAt(8), 'B')
+        && t.checkExpect(wall, null) && t.checkExpect(planner.pushRoute(8, 22), null)
+        && t.checkExpect(planner.pushRoute(14, 14), new ArrayList<String>())
+        && t.checkExpect(planner.blocks.size(), 1)
+        && t.checkExpect(planner.pushes.size(), 1)
+        && t.checkExpect(planner.pushesFor(14) == search, true);
+  }
+
+  // tests that the player walks around the piece only where there is room to
+  boolean testBlocks_MacroPlanner(Tester t) {
+    SokobanLevel corridor = new SokobanLevel("corridor", "_______\n" + "_______\n" + "_______"
+        + "\n_______", "WWWWWWW\n" + "W>_B__W\n" + "WW_WW_W\n" + "WWWWWWW");
+    MacroPlanner planner = new MacroPlanner(
+        new SokobanGrid(corridor.ground, corridor.contents));
+    ArrayList<String> right = planner.pushRoute(10, 12);
+    ArrayList<String> back = planner.pushRoute(10, 9);
+    return t.checkExpect(right, this.list("right", "right", "right"))
+        && t.checkExpect(back, null);
+  }
+
+  // tests that a route on a 100x100 board is found and plays out on a real board
+  boolean testLargeBoard_MacroPlanner(Tester t) {
+    SokobanLevel room = new SokobanLevels().room(100);
+    SokobanGrid grid = new SokobanGrid(room.ground, room.contents);
+    MacroPlanner planner = new MacroPlanner(grid);
+    int piece = 2 * 100 + 2;
+    ArrayList<String> route = planner.pushRoute(piece, 3 * 100 + 50);
+    SokobanGrid played = grid.copy();
+    for (String move : route) {
+      played.move(SokobanGrid.direction(move));
+    }
+    return t.checkExpect(played.contents[3 * 100 + 50], grid.contents[piece])
+        && t.checkExpect(planner.walkRoute(98 * 100 + 98).size(), planner.walkDistance[9898]);
+  }
+
+  // produces a list of the given directions
+  ArrayList<String> list(String... directions) {
+    return new ArrayList<String>(Arrays.asList(directions));
+  }
+}
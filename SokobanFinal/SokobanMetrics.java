@@ -0,0 +1,353 @@
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import tester.Tester;
+
+// represents a histogram of latencies in nanoseconds
+// values are counted in buckets that double in width and are each split into
+// 16 equal sub-buckets (like an HDR histogram), so every value is reported
+// within about 6% of its true value whatever its size, using a fixed amount
+// of memory and no allocation per recorded value
+class LatencyHistogram {
+  // represents the name this histogram is reported under
+  String name;
+  // represents the number of values recorded in each bucket
+  AtomicLongArray counts;
+  // represents the number of values recorded
+  LongAdder total;
+  // represents the sum of every value recorded
+  LongAdder sum;
+  // represents the largest value recorded
+  LongAccumulator max;
+
+  LatencyHistogram(String name) {
+    this.name = name;
+    this.counts = new AtomicLongArray(60 * 16);
+    this.total = new LongAdder();
+    this.sum = new LongAdder();
+    this.max = new LongAccumulator(Math::max, 0);
+  }
+
+  // records the given number of nanoseconds in this histogram
+  void record(long nanos) {
+    long value = Math.max(0, nanos);
+    this.counts.incrementAndGet(this.bucketIndex(value));
+    this.total.increment();
+    this.sum.add(value);
+    this.max.accumulate(value);
+  }
+
+  // produces the index of the bucket the given value is counted in
+  // (values under 16 get a bucket each, larger values are bucketed by their
+  // highest bit and the four bits below it)
+  int bucketIndex(long value) {
+    if (value < 16) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) ((value >>> (exponent - 4)) & 15);
+    return (exponent - 3) * 16 + sub;
+  }
+
+  // produces the largest value counted in the bucket at the given index
+  long bucketValue(int index) {
+    if (index < 16) {
+      return index;
+    }
+    int exponent = index / 16 + 3;
+    long lower = (16L + (index % 16)) << (exponent - 4);
+    return lower + (1L << (exponent - 4)) - 1;
+  }
+
+  // produces the number of values recorded in this histogram
+  long count() {
+    return this.total.sum();
+  }
+
+  // produces the average of the values recorded in this histogram
+  double mean() {
+    long count = this.count();
+    if (count == 0) {
+      return 0;
+    }
+    return (double) this.sum.sum() / count;
+  }
+
+  // produces the value that the given fraction of recorded values are at or
+  // below (0.5 is the median, 0.99 the 99th percentile)
+  long percentile(double fraction) {
+    long count = this.count();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(fraction * count));
+    long seen = 0;
+    // adds up the buckets in order until enough values have been seen
+    for (int i = 0; i < this.counts.length(); i += 1) {
+      seen += this.counts.get(i);
+      if (seen >= rank) {
+        return Math.min(this.bucketValue(i), this.max.get());
+      }
+    }
+    return this.max.get();
+  }
+
+  // forgets every value recorded in this histogram
+  void reset() {
+    for (int i = 0; i < this.counts.length(); i += 1) {
+      this.counts.set(i, 0);
+    }
+    this.total.reset();
+    this.sum.reset();
+    this.max.reset();
+  }
+
+  // produces a line of text summarizing this histogram
+  String toText() {
+    return String.format(Locale.ROOT,
+        "%-12s count=%d mean=%.0fns p50=%dns p90=%dns p99=%dns p999=%dns max=%dns", this.name,
+        this.count(), this.mean(), this.percentile(0.5), this.percentile(0.9),
+        this.percentile(0.99), this.percentile(0.999), this.max.get());
+  }
+
+  // produces a JSON object summarizing this histogram
+  String toJson() {
+    return String.format(Locale.ROOT,
+        "\"%s\":{\"count\":%d,\"mean\":%.1f,\"p50\":%d,\"p90\":%d,\"p99\":%d,\"p999\":%d,"
+            + "\"max\":%d}",
+        this.name, this.count(), this.mean(), this.percentile(0.5), this.percentile(0.9),
+        this.percentile(0.99), this.percentile(0.999), this.max.get());
+  }
+}
+
+// represents the latencies and event counts of a running game
+// the game records into the shared REGISTRY; recording is off unless the
+// game is started with -Dsokoban.metrics=true or enabled is set, and while
+// it is off each instrumented call only reads the enabled flag
+class SokobanMetrics {
+  // represents the metrics every part of the game records into
+  static final SokobanMetrics REGISTRY = new SokobanMetrics(Boolean.getBoolean("sokoban.metrics"));
+
+  // represents whether latencies and counts are being recorded
+  volatile boolean enabled;
+  // represents the time taken to handle a key in SokobanWorld.onKeyEvent
+  LatencyHistogram keyEvent;
+  // represents the time taken by SokobanBoard.playerMove
+  LatencyHistogram playerMove;
+  // represents the time taken by SokobanBoard.levelWon
+  LatencyHistogram levelWon;
+  // represents the time taken to render a frame (makeScene and render)
+  LatencyHistogram render;
+  // represents the number of moves made
+  LongAdder moves;
+  // represents the number of boxes and trophies pushed
+  LongAdder pushes;
+  // represents the number of holes filled by a box or trophy
+  LongAdder holeFills;
+  // represents the number of games lost by the player falling into a hole
+  LongAdder losses;
+
+  SokobanMetrics(boolean enabled) {
+    this.enabled = enabled;
+    this.keyEvent = new LatencyHistogram("onKeyEvent");
+    this.playerMove = new LatencyHistogram("playerMove");
+    this.levelWon = new LatencyHistogram("levelWon");
+    this.render = new LatencyHistogram("render");
+    this.moves = new LongAdder();
+    this.pushes = new LongAdder();
+    this.holeFills = new LongAdder();
+    this.losses = new LongAdder();
+  }
+
+  // produces the time to pass to stop once the measured work is done,
+  // or 0 without reading the clock when recording is off
+  long start() {
+    if (this.enabled) {
+      return System.nanoTime();
+    }
+    return 0L;
+  }
+
+  // records the time since the given start in the given histogram
+  // if recording was on when the work started
+  void stop(LatencyHistogram histogram, long start) {
+    if (start != 0L) {
+      histogram.record(System.nanoTime() - start);
+    }
+  }
+
+  // counts one event on the given counter if recording is on
+  void count(LongAdder counter) {
+    if (this.enabled) {
+      counter.increment();
+    }
+  }
+
+  // produces every histogram of these metrics
+  ArrayList<LatencyHistogram> histograms() {
+    ArrayList<LatencyHistogram> result = new ArrayList<LatencyHistogram>();
+    result.add(this.keyEvent);
+    result.add(this.playerMove);
+    result.add(this.levelWon);
+    result.add(this.render);
+    return result;
+  }
+
+  // forgets every latency and count recorded so far
+  void reset() {
+    for (LatencyHistogram h : this.histograms()) {
+      h.reset();
+    }
+    this.moves.reset();
+    this.pushes.reset();
+    this.holeFills.reset();
+    this.losses.reset();
+  }
+
+  // produces a text snapshot of the metrics recorded so far
+  String snapshotText() {
+    StringBuilder text = new StringBuilder();
+    text.append("moves=" + this.moves.sum() + " pushes=" + this.pushes.sum() + " holeFills="
+        + this.holeFills.sum() + " losses=" + this.losses.sum() + "\n");
+    for (LatencyHistogram h : this.histograms()) {
+      text.append(h.toText() + "\n");
+    }
+    return text.toString();
+  }
+
+  // produces a JSON snapshot of the metrics recorded so far
+  String snapshotJson() {
+    StringBuilder json = new StringBuilder();
+    json.append("{\"enabled\":" + this.enabled + ",\"counters\":{\"moves\":" + this.moves.sum()
+        + ",\"pushes\":" + this.pushes.sum() + ",\"holeFills\":" + this.holeFills.sum()
+        + ",\"losses\":" + this.losses.sum() + "},\"histograms\":{");
+    ArrayList<LatencyHistogram> histograms = this.histograms();
+    for (int i = 0; i < histograms.size(); i += 1) {
+      if (i > 0) {
+        json.append(",");
+      }
+      json.append(histograms.get(i).toJson());
+    }
+    return json.append("}}").toString();
+  }
+}
+
+// tests and examples for SokobanMetrics
+class ExamplesSokobanMetrics {
+
+  // tests and examples for bucketIndex and bucketValue in LatencyHistogram
+  boolean testBuckets_LatencyHistogram(Tester t) {
+    LatencyHistogram h = new LatencyHistogram("h");
+    return t.checkExpect(h.bucketIndex(0), 0) && t.checkExpect(h.bucketIndex(15), 15)
+        && t.checkExpect(h.bucketIndex(16), 16) && t.checkExpect(h.bucketIndex(31), 31)
+        && t.checkExpect(h.bucketIndex(32), 32) && t.checkExpect(h.bucketIndex(33), 32)
+        && t.checkExpect(h.bucketIndex(Long.MAX_VALUE), 60 * 16 - 1)
+        && t.checkExpect(h.bucketValue(15), 15L) && t.checkExpect(h.bucketValue(31), 31L)
+        && t.checkExpect(h.bucketValue(32), 33L)
+        && t.checkExpect(h.bucketValue(h.bucketIndex(1_000_000)) >= 1_000_000, true)
+        && t.checkExpect(h.bucketValue(h.bucketIndex(1_000_000)) < 1_070_000, true);
+  }
+
+  // tests and examples for record, percentile and reset in LatencyHistogram
+  boolean testRecord_LatencyHistogram(Tester t) {
+    LatencyHistogram h = new LatencyHistogram("h");
+    boolean empty = t.checkExpect(h.percentile(0.5), 0L) && t.checkExpect(h.mean(), 0.0);
+    // records 1 to 100 microseconds
+    for (int i = 1; i <= 100; i += 1) {
+      h.record(i * 1000L);
+    }
+    boolean full = t.checkExpect(h.count(), 100L) && t.checkExpect(h.mean(), 50500.0)
+        && t.checkExpect(h.max.get(), 100000L)
+        && t.checkExpect(Math.abs(h.percentile(0.5) - 50000) < 50000 / 16, true)
+        && t.checkExpect(Math.abs(h.percentile(0.99) - 99000) < 99000 / 16, true)
+        && t.checkExpect(h.percentile(1.0), 100000L);
+    h.reset();
+    return empty && full && t.checkExpect(h.count(), 0L) && t.checkExpect(h.max.get(), 0L);
+  }
+
+  // tests that the largest value survives records from many threads at once
+  boolean testConcurrentMax_LatencyHistogram(Tester t) throws InterruptedException {
+    LatencyHistogram h = new LatencyHistogram("h");
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i += 1) {
+      int offset = i;
+      threads[i] = new Thread(() -> {
+        for (int value = 1; value <= 100000; value += 1) {
+          h.record(value * 4L + offset);
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return t.checkExpect(h.max.get(), 400003L) && t.checkExpect(h.count(), 400000L);
+  }
+
+  // tests and examples for start, stop and count in SokobanMetrics
+  boolean testRecording_SokobanMetrics(Tester t) {
+    SokobanMetrics off = new SokobanMetrics(false);
+    long offStart = off.start();
+    off.stop(off.render, offStart);
+    off.count(off.moves);
+    SokobanMetrics on = new SokobanMetrics(true);
+    long onStart = on.start();
+    on.stop(on.render, onStart);
+    on.count(on.moves);
+    on.count(on.moves);
+    return t.checkExpect(offStart, 0L) && t.checkExpect(off.render.count(), 0L)
+        && t.checkExpect(off.moves.sum(), 0L) && t.checkExpect(on.render.count(), 1L)
+        && t.checkExpect(on.moves.sum(), 2L);
+  }
+
+  // tests and examples for snapshotText and snapshotJson in SokobanMetrics
+  boolean testSnapshot_SokobanMetrics(Tester t) {
+    SokobanMetrics m = new SokobanMetrics(true);
+    m.count(m.pushes);
+    m.levelWon.record(20);
+    return t.checkExpect(m.snapshotText().startsWith("moves=0 pushes=1 holeFills=0 losses=0\n"),
+        true)
+        && t.checkExpect(m.snapshotText().contains(
+            "levelWon     count=1 mean=20ns p50=20ns p90=20ns p99=20ns p999=20ns max=20ns"), true)
+        && t.checkExpect(m.snapshotJson(),
+            "{\"enabled\":true,\"counters\":{\"moves\":0,\"pushes\":1,\"holeFills\":0,"
+                + "\"losses\":0},\"histograms\":{"
+                + "\"onKeyEvent\":{\"count\":0,\"mean\":0.0,\"p50\":0,\"p90\":0,\"p99\":0,"
+                + "\"p999\":0,\"max\":0},"
+                + "\"playerMove\":{\"count\":0,\"mean\":0.0,\"p50\":0,\"p90\":0,\"p99\":0,"
+                + "\"p999\":0,\"max\":0},"
+                + "\"levelWon\":{\"count\":1,\"mean\":20.0,\"p50\":20,\"p90\":20,\"p99\":20,"
+                + "\"p999\":20,\"max\":20},"
+                + "\"render\":{\"count\":0,\"mean\":0.0,\"p50\":0,\"p90\":0,\"p99\":0,"
+                + "\"p999\":0,\"max\":0}}}");
+  }
+
+  // tests that the game records into the registry while it is enabled
+  boolean testGameRecording_SokobanMetrics(Tester t) {
+    SokobanMetrics registry = SokobanMetrics.REGISTRY;
+    boolean wasEnabled = registry.enabled;
+    registry.reset();
+    registry.enabled = true;
+    SokobanWorld world = new SokobanWorld(new SokobanLevels().find("holes").toBoard());
+    // walks around to push the box into a hole, then walks into another hole
+    String[] keys = { "right", "right", "right", "down", "down", "left", "left", "up", "left" };
+    for (String key : keys) {
+      world = (SokobanWorld) world.onKeyEvent(key);
+    }
+    world.makeScene();
+    String json = registry.snapshotJson();
+    boolean result = t.checkExpect(registry.moves.sum(), 9L)
+        && t.checkExpect(registry.pushes.sum(), 1L) && t.checkExpect(registry.holeFills.sum(), 1L)
+        && t.checkExpect(registry.losses.sum(), 1L) && t.checkExpect(registry.keyEvent.count(), 9L)
+        && t.checkExpect(registry.playerMove.count(), 9L)
+        && t.checkExpect(registry.render.count(), 1L)
+        && t.checkExpect(registry.levelWon.count() >= 3, true)
+        && t.checkExpect(json.startsWith("{\"enabled\":true,\"counters\":{\"moves\":9,"), true);
+    registry.reset();
+    registry.enabled = wasEnabled;
+    return result;
+  }
+}
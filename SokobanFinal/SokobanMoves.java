@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+import tester.Tester;
+
+// produces the legal moves of a board without playing them: for every direction,
+// a byte of flags packed into one int (direction number d in bits 8d to 8d + 7),
+// so bots and searches can ask again and again without allocating anything
+// (the flags follow MoveRules.ONTO, the same rules every engine plays by)
+class LegalMoves {
+  // the player changes location (or falls into a hole)
+  static final int MOVES = 1;
+  // the player pushes a box
+  static final int PUSHES_BOX = 2;
+  // the player pushes a trophy
+  static final int PUSHES_TROPHY = 4;
+  // the pushed piece fills a hole
+  static final int FILLS_HOLE = 8;
+  // the player falls into a hole and is gone
+  static final int KILLS_PLAYER = 16;
+  // the number of bits of flags for every direction
+  static final int BITS = 8;
+
+  // the kind of every contents character of SokobanGrid (a blank for any other)
+  static final byte[] KIND_OF = LegalMoves.kinds();
+
+  // produces the table of the kind of every contents character
+  static byte[] kinds() {
+    byte[] result = new byte[128];
+    result['W'] = CellKind.WALL;
+    result['B'] = CellKind.BOX;
+    result['H'] = CellKind.HOLE;
+    for (char c : "rgby".toCharArray()) {
+      result[c] = CellKind.TROPHY;
+    }
+    return result;
+  }
+
+  // produces the legal moves of the given grid
+  static int of(SokobanGrid grid) {
+    int result = 0;
+    if (grid.player == -1) {
+      return result;
+    }
+    for (int direction = 0; direction < 4; direction += 1) {
+      int next = grid.next(grid.player, direction);
+      int beyond = -1;
+      if (next != -1) {
+        beyond = grid.next(next, direction);
+      }
+      int flags = LegalMoves.outcome(LegalMoves.kind(grid.contents, next),
+          LegalMoves.kind(grid.contents, beyond));
+      result = result | (flags << (direction * BITS));
+    }
+    return result;
+  }
+
+  // produces the legal moves of the given rule engine
+  static int of(RuleEngine engine) {
+    int result = 0;
+    if (engine.player == -1) {
+      return result;
+    }
+    for (int direction = 0; direction < 4; direction += 1) {
+      int next = engine.next(engine.player, direction);
+      int nextKind = CellKind.WALL;
+      int beyondKind = CellKind.WALL;
+      if (next != -1) {
+        nextKind = engine.kinds[next];
+        int beyond = engine.next(next, direction);
+        if (beyond != -1) {
+          beyondKind = engine.kinds[beyond];
+        }
+      }
+      result = result | (LegalMoves.outcome(nextKind, beyondKind) << (direction * BITS));
+    }
+    return result;
+  }
+
+  // produces the legal moves of the given board
+  // (this builds a grid of the board, so it is for a single question; a bot
+  // asking about every move keeps a grid or a rule engine instead)
+  static int of(SokobanBoard board) {
+    return LegalMoves.of(new SokobanGrid(board));
+  }
+
+  // produces the kind of the contents at the given location, treating a
+  // location off the grid (-1) as a wall
+  static int kind(char[] contents, int index) {
+    if (index == -1) {
+      return CellKind.WALL;
+    }
+    else {
+      return KIND_OF[contents[index]];
+    }
+  }
+
+  // produces the flags of the player stepping onto a location of the first
+  // given kind, with a location of the second given kind beyond it
+  static int outcome(int nextKind, int beyondKind) {
+    int outcome = MoveRules.ONTO[CellKind.PLAYER][nextKind];
+    if (outcome == MoveRules.MOVE) {
+      return MOVES;
+    }
+    else if (outcome == MoveRules.FALL) {
+      return MOVES | KILLS_PLAYER;
+    }
+    else if (outcome == MoveRules.PUSH) {
+      int pushed = MoveRules.ONTO[nextKind][beyondKind];
+      int piece = PUSHES_TROPHY;
+      if (nextKind == CellKind.BOX) {
+        piece = PUSHES_BOX;
+      }
+      if (pushed == MoveRules.MOVE) {
+        return MOVES | piece;
+      }
+      else if (pushed == MoveRules.FILL) {
+        return MOVES | piece | FILLS_HOLE;
+      }
+    }
+    return 0;
+  }
+
+  // produces the flags of the given direction number in the given legal moves
+  static int flags(int moves, int direction) {
+    return (moves >>> (direction * BITS)) & 0xFF;
+  }
+
+  // determines if the player can move in the given direction number
+  static boolean isLegal(int moves, int direction) {
+    return (LegalMoves.flags(moves, direction) & MOVES) != 0;
+  }
+
+  // produces the direction numbers the player can move in, as a 4 bit mask
+  static int directions(int moves) {
+    int result = 0;
+    for (int direction = 0; direction < 4; direction += 1) {
+      if (LegalMoves.isLegal(moves, direction)) {
+        result = result | (1 << direction);
+      }
+    }
+    return result;
+  }
+}
+
+// tests and examples for LegalMoves
+class ExamplesLegalMoves {
+  // a box to the right, a trophy below, a wall above and a hole to the left
+  SokobanLevel cross = new SokobanLevel("cross",
+      "_____\n" + "_____\n" + "_____\n" + "__R__",
+      "WWWWW\n" + "WH>BW\n" + "W_r_W\n" + "W___W");
+
+  // tests and examples for of and the flags in LegalMoves
+  boolean testOf_LegalMoves(Tester t) {
+    int moves = LegalMoves.of(this.cross.toBoard());
+    SokobanGrid filled = new SokobanGrid("____\n" + "____", "WWWW\n" + ">BH_");
+    SokobanGrid fallen = new SokobanGrid("___\n" + "___", "WWW\n" + ">H_");
+    fallen.move(0);
+    return t.checkExpect(LegalMoves.flags(moves, 0), 0)
+        && t.checkExpect(LegalMoves.flags(moves, 1), LegalMoves.MOVES | LegalMoves.KILLS_PLAYER)
+        && t.checkExpect(LegalMoves.flags(moves, 2), 0)
+        && t.checkExpect(LegalMoves.flags(moves, 3),
+            LegalMoves.MOVES | LegalMoves.PUSHES_TROPHY)
+        && t.checkExpect(LegalMoves.directions(moves), 0b1010)
+        && t.checkExpect(LegalMoves.isLegal(moves, 3), true)
+        && t.checkExpect(LegalMoves.flags(LegalMoves.of(filled), 0),
+            LegalMoves.MOVES | LegalMoves.PUSHES_BOX | LegalMoves.FILLS_HOLE)
+        && t.checkExpect(LegalMoves.directions(LegalMoves.of(filled)), 0b0001)
+        && t.checkExpect(LegalMoves.of(fallen), 0);
+  }
+
+  // tests that the legal moves say exactly what playing every direction does, on
+  // grids and on rule engines, through random games
+  boolean testAgree_LegalMoves(Tester t) {
+    ArrayList<SokobanLevel> levels = new SokobanLevels().examples();
+    levels.add(this.cross);
+    levels.add(new SokobanLevels().room(9));
+    Random random = new Random(43);
+    boolean same = true;
+    int checked = 0;
+    for (SokobanLevel level : levels) {
+      for (int game = 0; game < 10; game += 1) {
+        SokobanGrid grid = new SokobanGrid(level.ground, level.contents);
+        RuleEngine engine = new RuleEngine(level.toBoard());
+        while (same && !grid.shouldEnd() && checked < 20000) {
+          int moves = LegalMoves.of(grid);
+          same = same && moves == LegalMoves.of(engine);
+          // plays every direction on a copy and compares with its flags
+          for (int direction = 0; direction < 4; direction += 1) {
+            SokobanGrid played = grid.copy();
+            int flags = LegalMoves.flags(moves, direction);
+            int pieces = this.pieces(played);
+            boolean moved = played.move(direction);
+            same = same && moved == LegalMoves.isLegal(moves, direction)
+                && (played.player == -1) == ((flags & LegalMoves.KILLS_PLAYER) != 0)
+                && (this.pieces(played) < pieces) == ((flags & LegalMoves.FILLS_HOLE) != 0);
+          }
+          int direction = random.nextInt(4);
+          grid.move(direction);
+          engine.move(direction);
+          checked += 1;
+        }
+      }
+    }
+    return t.checkExpect(same, true) && t.checkExpect(checked > 1000, true);
+  }
+
+  // produces the number of boxes and trophies on the given grid
+  int pieces(SokobanGrid grid) {
+    int result = 0;
+    for (char c : grid.contents) {
+      if (SokobanGrid.isPiece(c)) {
+        result += 1;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,325 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import tester.Tester;
+
+// represents a game that threw an exception: the level, the directions played
+// before it (as the letters r, l, u and d) and the message of the exception
+class PlayoutFailure {
+  // represents the level that was played
+  SokobanLevel level;
+  // represents the directions played, the last one throwing
+  String moves;
+  // represents the message of the exception
+  String message;
+
+  PlayoutFailure(SokobanLevel level, String moves, String message) {
+    this.level = level;
+    this.moves = moves;
+    this.message = message;
+  }
+}
+
+// represents the totals of many random games
+class PlayoutStats {
+  // represents the number of games played
+  long games;
+  // represents the number of moves played
+  long moves;
+  // represents the number of games won (levelWon)
+  long wins;
+  // represents the number of games lost to a hole
+  long losses;
+  // represents the number of games in which no move was legal
+  long stuck;
+  // represents the time spent playing, added up over every thread
+  long nanos;
+  // represents the number of exceptions by message
+  TreeMap<String, Long> errors = new TreeMap<String, Long>();
+  // represents the first game that threw each message
+  ArrayList<PlayoutFailure> failures = new ArrayList<PlayoutFailure>();
+
+  // EFFECT: adds the given totals to these
+  void add(PlayoutStats other) {
+    this.games += other.games;
+    this.moves += other.moves;
+    this.wins += other.wins;
+    this.losses += other.losses;
+    this.stuck += other.stuck;
+    this.nanos += other.nanos;
+    for (PlayoutFailure failure : other.failures) {
+      if (!this.errors.containsKey(failure.message)) {
+        this.failures.add(failure);
+      }
+    }
+    for (String message : other.errors.keySet()) {
+      this.errors.put(message, this.errors.getOrDefault(message, 0L) + other.errors.get(message));
+    }
+  }
+
+  // EFFECT: counts an exception with the given message thrown by the given game
+  void fail(SokobanLevel level, String moves, String message) {
+    if (!this.errors.containsKey(message)) {
+      this.failures.add(new PlayoutFailure(level, moves, message));
+    }
+    this.errors.put(message, this.errors.getOrDefault(message, 0L) + 1);
+  }
+
+  // produces the number of moves played per second of one core
+  double movesPerSecond() {
+    if (this.nanos == 0) {
+      return 0;
+    }
+    return this.moves * 1e9 / this.nanos;
+  }
+
+  // produces a report of these totals
+  String report() {
+    StringBuilder result = new StringBuilder(String.format(
+        "games=%d moves=%d wins=%d losses=%d stuck=%d moves/s/core=%.0f", this.games, this.moves,
+        this.wins, this.losses, this.stuck, this.movesPerSecond()));
+    for (PlayoutFailure failure : this.failures) {
+      result.append("\n" + failure.message + " x" + this.errors.get(failure.message) + " in "
+          + failure.level.name + " after " + failure.moves);
+    }
+    return result.toString();
+  }
+}
+
+// plays many random games with the rules of SokobanBoard.playerMove on a pool of
+// threads, counting wins, losses and moves per second, and catching every
+// exception the engine throws along with the game that threw it
+// (a legal game picks among the directions LegalMoves allows; a fuzzing game
+// presses any of the four, as a player may)
+class SokobanPlayouts {
+  // represents the number of threads playing
+  int threads;
+  // represents the most moves of one game
+  int limit;
+  // represents whether games press any direction rather than only legal ones
+  boolean fuzz;
+
+  SokobanPlayouts(int threads, int limit, boolean fuzz) {
+    if (threads <= 0 || limit <= 0) {
+      throw new IllegalArgumentException("Playouts need a positive number of threads and moves");
+    }
+    this.threads = threads;
+    this.limit = limit;
+    this.fuzz = fuzz;
+  }
+
+  // plays the given number of games of every given level, the game numbers
+  // seeding their moves, and produces the totals
+  PlayoutStats run(ArrayList<SokobanLevel> levels, int games, long seed) {
+    ExecutorService pool = Executors.newFixedThreadPool(this.threads, task -> {
+      Thread thread = new Thread(task, "sokoban-playouts");
+      thread.setDaemon(true);
+      return thread;
+    });
+    ArrayList<Future<PlayoutStats>> parts = new ArrayList<Future<PlayoutStats>>();
+    // gives every thread an equal share of the games, by game number
+    for (int part = 0; part < this.threads; part += 1) {
+      int first = part;
+      parts.add(pool.submit(() -> {
+        PlayoutStats stats = new PlayoutStats();
+        long start = System.nanoTime();
+        for (int game = first; game < games * levels.size(); game += this.threads) {
+          this.play(levels.get(game % levels.size()), new Random(seed + game), stats);
+        }
+        stats.nanos = System.nanoTime() - start;
+        return stats;
+      }));
+    }
+    PlayoutStats result = new PlayoutStats();
+    try {
+      for (Future<PlayoutStats> part : parts) {
+        result.add(part.get());
+      }
+    }
+    catch (Exception e) {
+      throw new IllegalStateException("A playout thread failed", e);
+    }
+    finally {
+      pool.shutdownNow();
+    }
+    return result;
+  }
+
+  // EFFECT: plays one random game of the given level, adding it to the given totals
+  void play(SokobanLevel level, Random random, PlayoutStats stats) {
+    SokobanBoard board = level.toBoard();
+    SokobanGrid grid = new SokobanGrid(level.ground, level.contents);
+    StringBuilder moves = new StringBuilder();
+    stats.games += 1;
+    try {
+      while (moves.length() < this.limit && !board.shouldEnd()) {
+        int direction = this.pick(grid, random);
+        if (direction == -1) {
+          stats.stuck += 1;
+          return;
+        }
+        moves.append("rlud".charAt(direction));
+        board = board.playerMove(SokobanGrid.DIRECTIONS[direction]);
+        grid.move(direction);
+        stats.moves += 1;
+      }
+      if (board.levelWon()) {
+        stats.wins += 1;
+      }
+      else if (board.shouldEnd()) {
+        stats.losses += 1;
+      }
+    }
+    catch (RuntimeException e) {
+      stats.fail(level, moves.toString(), e.getMessage());
+    }
+  }
+
+  // produces the direction number the next move of a game on the given grid
+  // presses, or -1 if it has no legal move
+  int pick(SokobanGrid grid, Random random) {
+    if (this.fuzz) {
+      return random.nextInt(4);
+    }
+    int directions = LegalMoves.directions(LegalMoves.of(grid));
+    if (directions == 0) {
+      return -1;
+    }
+    // picks the chosen one of the legal directions
+    int choice = random.nextInt(Integer.bitCount(directions));
+    int direction = Integer.numberOfTrailingZeros(directions);
+    for (int i = 0; i < choice; i += 1) {
+      directions = directions & (directions - 1);
+      direction = Integer.numberOfTrailingZeros(directions);
+    }
+    return direction;
+  }
+
+  // produces a random level of the given size for fuzzing: every location holds a
+  // random piece of contents, some of the ground holds targets, there is one
+  // player, and nothing keeps the player from the edges of the board
+  static SokobanLevel randomLevel(String name, int width, int height, Random random) {
+    StringBuilder ground = new StringBuilder();
+    StringBuilder contents = new StringBuilder();
+    int player = random.nextInt(width * height);
+    for (int i = 0; i < width * height; i += 1) {
+      if (i > 0 && i % width == 0) {
+        ground.append("\n");
+        contents.append("\n");
+      }
+      ground.append("_______RGBY".charAt(random.nextInt(11)));
+      if (i == player) {
+        contents.append('>');
+      }
+      else {
+        contents.append("______WBHrgby".charAt(random.nextInt(13)));
+      }
+    }
+    return new SokobanLevel(name, ground.toString(), contents.toString());
+  }
+
+  // plays random games and prints the totals
+  // java SokobanPlayouts [-threads 1] [-games 1000] [-moves 200] [-seed 1] [-fuzz 0]
+  public static void main(String[] args) {
+    int threads = Runtime.getRuntime().availableProcessors();
+    int games = 1000;
+    int moves = 200;
+    long seed = 1;
+    boolean fuzz = false;
+    // reads every flag along with the value that follows it
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String flag = args[i];
+      String value = args[i + 1];
+      if (flag.equals("-threads")) {
+        threads = Integer.parseInt(value);
+      }
+      else if (flag.equals("-games")) {
+        games = Integer.parseInt(value);
+      }
+      else if (flag.equals("-moves")) {
+        moves = Integer.parseInt(value);
+      }
+      else if (flag.equals("-seed")) {
+        seed = Long.parseLong(value);
+      }
+      else if (flag.equals("-fuzz")) {
+        fuzz = !value.equals("0");
+      }
+      else {
+        throw new IllegalArgumentException("Unknown playout option " + flag);
+      }
+    }
+    ArrayList<SokobanLevel> levels = new SokobanLevels().examples();
+    Random random = new Random(seed);
+    // adds generated levels, and random levels with open edges when fuzzing
+    SokobanGenerator generator = new SokobanGenerator(SokobanGenerator.layout(8, 8, seed), 2,
+        1, 2000);
+    for (int i = 0; i < 10; i += 1) {
+      GeneratedLevel generated = generator.generate(seed + i);
+      if (generated != null) {
+        levels.add(generated.level);
+      }
+      if (fuzz) {
+        levels.add(SokobanPlayouts.randomLevel("random" + i, 3 + random.nextInt(6),
+            2 + random.nextInt(6), random));
+      }
+    }
+    PlayoutStats stats = new SokobanPlayouts(threads, moves, fuzz).run(levels, games, seed);
+    System.out.println(stats.report());
+  }
+}
+
+// tests and examples for SokobanPlayouts and PlayoutStats
+class ExamplesSokobanPlayouts {
+  // a level with no walls, so the player can walk off the board
+  SokobanLevel open = new SokobanLevel("open", "___\n" + "__R", ">__\n" + "_r_");
+
+  // tests that legal games play out and add up on any number of threads
+  boolean testRun_SokobanPlayouts(Tester t) {
+    ArrayList<SokobanLevel> levels = new SokobanLevels().examples();
+    levels.add(this.open);
+    PlayoutStats one = new SokobanPlayouts(1, 50, false).run(levels, 20, 45);
+    PlayoutStats three = new SokobanPlayouts(3, 50, false).run(levels, 20, 45);
+    return t.checkExpect(one.games, 20L * levels.size())
+        && t.checkExpect(one.errors.isEmpty(), true)
+        && t.checkExpect(one.wins > 0, true) && t.checkExpect(one.losses > 0, true)
+        && t.checkExpect(one.moves > 1000, true) && t.checkExpect(one.movesPerSecond() > 0, true)
+        && t.checkExpect(three.moves, one.moves) && t.checkExpect(three.wins, one.wins)
+        && t.checkExpect(three.losses, one.losses)
+        && t.checkConstructorException(new IllegalArgumentException(
+            "Playouts need a positive number of threads and moves"), "SokobanPlayouts", 0, 5,
+            false);
+  }
+
+  // tests that fuzzing games catch the engine walking off the board, along with
+  // a game that throws again when replayed
+  boolean testFuzz_SokobanPlayouts(Tester t) {
+    ArrayList<SokobanLevel> levels = new ArrayList<SokobanLevel>();
+    levels.add(this.open);
+    PlayoutStats stats = new SokobanPlayouts(2, 50, true).run(levels, 50, 45);
+    PlayoutFailure failure = stats.failures.get(0);
+    SokobanBoard board = failure.level.toBoard();
+    String moves = failure.moves.substring(0, failure.moves.length() - 1);
+    for (char move : moves.toCharArray()) {
+      board = board.playerMove(SokobanGrid.DIRECTIONS["rlud".indexOf(move)]);
+    }
+    String last = SokobanGrid.DIRECTIONS["rlud".indexOf(failure.moves.charAt(moves.length()))];
+    return t.checkExpect(failure.message, "Out of board")
+        && t.checkExpect(stats.errors.get("Out of board") > 0, true)
+        && t.checkException(new RuntimeException("Out of board"), board, "playerMove", last)
+        && t.checkExpect(stats.report().contains("Out of board x"), true);
+  }
+
+  // tests and examples for randomLevel in SokobanPlayouts
+  boolean testRandomLevel_SokobanPlayouts(Tester t) {
+    SokobanLevel level = SokobanPlayouts.randomLevel("r", 5, 3, new Random(45));
+    SokobanGrid grid = new SokobanGrid(level.ground, level.contents);
+    return t.checkExpect(grid.width, 5) && t.checkExpect(grid.height, 3)
+        && t.checkExpect(grid.player != -1, true)
+        && t.checkExpect(level.contents.replaceAll("[^>]", "").length(), 1);
+  }
+}
@@ -0,0 +1,229 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tester.Tester;
+
+// keeps the boards of a pack of levels parsed ahead of time: taking a level parses
+// the next few levels of the pack on a background thread, and parsed boards are
+// kept by level name, least recently used first out once they pass a memory cap
+// (a cached board is never played: taking it produces a board with copies of its
+// cell lists, which playerMove may change, so a level can be taken again and
+// again; copying the lists costs far less than parsing the strings)
+class LevelCache {
+  // the estimated bytes a parsed board holds for every location: a ground and a
+  // contents cell, each with its Posn and its slot in a list
+  static final long BYTES_PER_CELL = 2 * (16 + 24 + 8);
+
+  // represents the levels of the pack, in order
+  ArrayList<SokobanLevel> pack;
+  // represents the number of levels after the one taken to parse ahead
+  int ahead;
+  // represents the most estimated bytes the cached boards may hold
+  long capacity;
+  // represents the cached boards by level name, least recently used first
+  LinkedHashMap<String, SokobanBoard> boards = new LinkedHashMap<String, SokobanBoard>(16,
+      0.75f, true);
+  // represents the estimated bytes the cached boards hold
+  long bytes;
+  // represents the parses running, by level name
+  ConcurrentHashMap<String, CompletableFuture<SokobanBoard>> running =
+      new ConcurrentHashMap<String, CompletableFuture<SokobanBoard>>();
+  // represents the thread the levels are parsed on
+  ExecutorService executor;
+  // represents the number of levels taken that had to be parsed when taken
+  AtomicInteger misses = new AtomicInteger();
+
+  LevelCache(ArrayList<SokobanLevel> pack, int ahead, long capacity) {
+    if (ahead < 0 || capacity <= 0) {
+      throw new IllegalArgumentException(
+          "A level cache needs a positive capacity and parses at least 0 levels ahead");
+    }
+    this.pack = pack;
+    this.ahead = ahead;
+    this.capacity = capacity;
+    this.executor = Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task, "sokoban-levels");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  // produces the estimated bytes the parsed board of the given level holds
+  static long bytes(SokobanLevel level) {
+    return level.contents.replace("\n", "").length() * BYTES_PER_CELL;
+  }
+
+  // produces a board in the starting state of the level at the given index of
+  // the pack, and starts parsing the levels after it
+  SokobanBoard take(int index) {
+    if (index < 0 || index >= this.pack.size()) {
+      throw new IllegalArgumentException("There is no level " + index + " in the pack");
+    }
+    SokobanLevel level = this.pack.get(index);
+    SokobanBoard board = this.cached(level.name);
+    if (board == null) {
+      CompletableFuture<SokobanBoard> parse = this.running.get(level.name);
+      if (parse != null) {
+        board = parse.join();
+      }
+      else {
+        this.misses.incrementAndGet();
+        board = level.toBoard();
+        this.keep(level.name, board);
+      }
+    }
+    this.preload(index);
+    return LevelCache.fresh(board);
+  }
+
+  // produces a board in the starting state of the level with the given name
+  SokobanBoard take(String name) {
+    for (int i = 0; i < this.pack.size(); i += 1) {
+      if (this.pack.get(i).name.equals(name)) {
+        return this.take(i);
+      }
+    }
+    throw new IllegalArgumentException("No level named " + name);
+  }
+
+  // produces a board with copies of the cell lists of the given board
+  static SokobanBoard fresh(SokobanBoard board) {
+    return new SokobanBoard(board.size, new ArrayList<ICell>(board.levelGroundCells),
+        new ArrayList<ICell>(board.levelContentsCells), board.neighbours);
+  }
+
+  // EFFECT: starts parsing every level after the given index, up to ahead of them,
+  // that is neither cached nor being parsed
+  void preload(int index) {
+    for (int i = index + 1; i <= index + this.ahead && i < this.pack.size(); i += 1) {
+      SokobanLevel level = this.pack.get(i);
+      CompletableFuture<SokobanBoard> parse = new CompletableFuture<SokobanBoard>();
+      if (!this.isCached(level.name) && this.running.putIfAbsent(level.name, parse) == null) {
+        this.executor.execute(() -> {
+          try {
+            SokobanBoard board = level.toBoard();
+            this.keep(level.name, board);
+            parse.complete(board);
+          }
+          catch (RuntimeException e) {
+            parse.completeExceptionally(e);
+          }
+          finally {
+            this.running.remove(level.name);
+          }
+        });
+      }
+    }
+  }
+
+  // produces the cached board of the level with the given name, or null
+  synchronized SokobanBoard cached(String name) {
+    return this.boards.get(name);
+  }
+
+  // determines if the board of the level with the given name is cached, without
+  // making it the most recently used
+  synchronized boolean isCached(String name) {
+    return this.boards.containsKey(name);
+  }
+
+  // EFFECT: caches the given board of the level with the given name, forgetting
+  // the least recently used boards while the cache holds more than its capacity
+  // (but never the board just cached)
+  synchronized void keep(String name, SokobanBoard board) {
+    if (this.boards.put(name, board) == null) {
+      this.bytes += board.size.x * board.size.y * BYTES_PER_CELL;
+    }
+    Iterator<Map.Entry<String, SokobanBoard>> eldest = this.boards.entrySet().iterator();
+    while (this.bytes > this.capacity && this.boards.size() > 1) {
+      Map.Entry<String, SokobanBoard> entry = eldest.next();
+      if (!entry.getKey().equals(name)) {
+        this.bytes -= entry.getValue().size.x * entry.getValue().size.y * BYTES_PER_CELL;
+        eldest.remove();
+      }
+    }
+  }
+
+  // EFFECT: waits until every parse started so far has finished
+  void await() {
+    for (CompletableFuture<SokobanBoard> parse : this.running.values()) {
+      parse.join();
+    }
+  }
+
+  // EFFECT: stops the background thread, abandoning any parse still waiting
+  void shutdown() {
+    this.executor.shutdownNow();
+  }
+}
+
+// tests and examples for LevelCache
+class ExamplesLevelCache {
+  // a pack of rooms of growing size
+  ArrayList<SokobanLevel> pack() {
+    ArrayList<SokobanLevel> result = new ArrayList<SokobanLevel>();
+    for (int side = 5; side < 15; side += 1) {
+      result.add(new SokobanLevels().room(side));
+    }
+    return result;
+  }
+
+  // tests that taking a level parses the next ones ahead, so they are taken
+  // without parsing
+  boolean testTake_LevelCache(Tester t) {
+    LevelCache cache = new LevelCache(this.pack(), 2, 1000000);
+    SokobanBoard first = cache.take(0);
+    cache.await();
+    boolean ahead = cache.isCached("room6") && cache.isCached("room7")
+        && !cache.isCached("room8");
+    SokobanBoard second = cache.take(1);
+    SokobanBoard third = cache.take("room7");
+    cache.shutdown();
+    return t.checkExpect(first, this.pack().get(0).toBoard())
+        && t.checkExpect(second, this.pack().get(1).toBoard())
+        && t.checkExpect(third, this.pack().get(2).toBoard())
+        && t.checkExpect(ahead, true) && t.checkExpect(cache.misses.get(), 1)
+        && t.checkException(new IllegalArgumentException("There is no level 10 in the pack"),
+            cache, "take", 10)
+        && t.checkException(new IllegalArgumentException("No level named pizza"), cache, "take",
+            "pizza")
+        && t.checkConstructorException(new IllegalArgumentException(
+            "A level cache needs a positive capacity and parses at least 0 levels ahead"),
+            "LevelCache", this.pack(), -1, 10L);
+  }
+
+  // tests that a taken board can be played without changing the cached board
+  boolean testFresh_LevelCache(Tester t) {
+    LevelCache cache = new LevelCache(this.pack(), 0, 1000000);
+    SokobanBoard played = cache.take(0).playerMove("right").playerMove("down");
+    SokobanBoard again = cache.take(0);
+    cache.shutdown();
+    return t.checkExpect(again, this.pack().get(0).toBoard())
+        && t.checkExpect(new SokobanGrid(played).player, 12)
+        && t.checkExpect(cache.misses.get(), 1);
+  }
+
+  // tests that the cache forgets the least recently used boards past its capacity
+  boolean testCapacity_LevelCache(Tester t) {
+    // room5 and room6 fit, and room7 fits only with room5
+    long capacity = (25 + 49 + 5) * LevelCache.BYTES_PER_CELL;
+    LevelCache cache = new LevelCache(this.pack(), 0, capacity);
+    cache.take(1);
+    cache.take(0);
+    boolean both = cache.isCached("room5") && cache.isCached("room6");
+    cache.take(2);
+    cache.shutdown();
+    return t.checkExpect(both, true) && t.checkExpect(cache.isCached("room6"), false)
+        && t.checkExpect(cache.isCached("room5"), true)
+        && t.checkExpect(cache.isCached("room7"), true)
+        && t.checkExpect(cache.bytes, (25 + 49) * LevelCache.BYTES_PER_CELL)
+        && t.checkExpect(LevelCache.bytes(this.pack().get(0)), 25 * LevelCache.BYTES_PER_CELL);
+  }
+}
@@ -0,0 +1,427 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.stream.IntStream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import javalib.worldimages.Posn;
+import tester.Tester;
+
+// represents the images of SokobanImages, decoded and scaled to one tile size
+// once and kept in memory, by the character of the ground or contents they draw
+class SpriteAtlas {
+  // represents the width and height of every sprite, in pixels
+  int tile;
+  // represents the directory the sprites were decoded from
+  String source;
+  // represents the directory the scaled sprites were written to for javalib, once
+  // they have been
+  String written;
+  // represents every sprite by the name of its file
+  LinkedHashMap<String, BufferedImage> files = new LinkedHashMap<String, BufferedImage>();
+  // represents the sprite of every ground character (null for none)
+  BufferedImage[] ground = new BufferedImage[128];
+  // represents the sprite of every contents character, '>' for the player
+  // (null for none)
+  BufferedImage[] contents = new BufferedImage[128];
+
+  // the width and height of the images of SokobanImages
+  static final int NATIVE_TILE = 120;
+  // the atlases of SokobanImages made so far, by tile size
+  static HashMap<Integer, SpriteAtlas> sized = new HashMap<Integer, SpriteAtlas>();
+  // the directory of this process the scaled sprites are written under, once made
+  static Path scaledRoot;
+
+  // constructor for the atlas of the images in the given directory, as they are
+  SpriteAtlas(String directory) {
+    this(directory, NATIVE_TILE);
+  }
+
+  // constructor for the atlas of the images in the given directory scaled to the
+  // given tile size
+  SpriteAtlas(String directory, int tile) {
+    if (tile <= 0) {
+      throw new IllegalArgumentException("The tile size must be positive");
+    }
+    this.tile = tile;
+    this.source = directory;
+    this.ground['R'] = this.read(directory, "RedTarget.png");
+    this.ground['G'] = this.read(directory, "GreenTarget.png");
+    this.ground['B'] = this.read(directory, "BlueTarget.png");
+    this.ground['Y'] = this.read(directory, "YellowTarget.png");
+    this.contents['W'] = this.read(directory, "Wall.png");
+    this.contents['B'] = this.read(directory, "Box.png");
+    this.contents['r'] = this.read(directory, "RedTrophy.png");
+    this.contents['g'] = this.read(directory, "GreenTrophy.png");
+    this.contents['b'] = this.read(directory, "BlueTrophy.png");
+    this.contents['y'] = this.read(directory, "YellowTrophy.png");
+    this.contents['H'] = this.read(directory, "Hole.png");
+    this.contents['>'] = this.read(directory, "Player.png");
+  }
+
+  // produces the atlas of SokobanImages at their own size
+  static SpriteAtlas standard() {
+    return SpriteAtlas.sized(NATIVE_TILE);
+  }
+
+  // produces the atlas of SokobanImages at the given tile size, decoding and
+  // scaling it the first time it is asked for
+  static synchronized SpriteAtlas sized(int tile) {
+    SpriteAtlas atlas = SpriteAtlas.sized.get(tile);
+    if (atlas == null) {
+      atlas = new SpriteAtlas("SokobanImages", tile);
+      SpriteAtlas.sized.put(tile, atlas);
+    }
+    return atlas;
+  }
+
+  // produces the image in the given file of the given directory, scaled to the
+  // tile size of this atlas
+  BufferedImage read(String directory, String name) {
+    try {
+      BufferedImage image = ImageIO.read(new File(directory, name));
+      if (image == null) {
+        throw new IllegalArgumentException("Could not read sprite " + name);
+      }
+      image = SpriteAtlas.scale(image, this.tile);
+      this.files.put(name, image);
+      return image;
+    }
+    catch (IOException e) {
+      throw new IllegalArgumentException("Could not read sprite " + name);
+    }
+  }
+
+  // produces the given image scaled to a square of the given size, halving it
+  // one step at a time while it is more than twice as big, so small tiles are
+  // smoothed rather than sampled
+  static BufferedImage scale(BufferedImage image, int tile) {
+    BufferedImage result = image;
+    if (result.getWidth() == tile && result.getHeight() == tile) {
+      return result;
+    }
+    // halves the image until one more step finishes it
+    while (result.getWidth() / 2 >= tile && result.getHeight() / 2 >= tile) {
+      result = SpriteAtlas.resize(result, result.getWidth() / 2, result.getHeight() / 2);
+    }
+    return SpriteAtlas.resize(result, tile, tile);
+  }
+
+  // produces the given image drawn at the given width and height
+  static BufferedImage resize(BufferedImage image, int width, int height) {
+    BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = result.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.drawImage(image, 0, 0, width, height, null);
+    g.dispose();
+    return result;
+  }
+
+  // produces the directory javalib should load the sprites of the given tile size
+  // from, making the atlas of that size only if the sprites must be scaled
+  static String directoryFor(int tile) {
+    if (tile == NATIVE_TILE) {
+      return "SokobanImages";
+    }
+    else {
+      return SpriteAtlas.sized(tile).directory();
+    }
+  }
+
+  // produces the directory javalib should load this atlas's sprites from: the
+  // source directory if they were not scaled, otherwise a directory they are
+  // written to the first time it is asked for, under scaledRoot
+  // (javalib keeps every image file it loads, so the scaled files are decoded
+  // once and drawn without scaling in every frame)
+  synchronized String directory() {
+    if (this.tile == NATIVE_TILE) {
+      return this.source;
+    }
+    if (this.written == null) {
+      try {
+        Path directory = Files.createTempDirectory(SpriteAtlas.scaledRoot(),
+            "tile" + this.tile + "-");
+        directory.toFile().deleteOnExit();
+        for (String name : this.files.keySet()) {
+          File file = directory.resolve(name).toFile();
+          file.deleteOnExit();
+          ImageIO.write(this.files.get(name), "png", file);
+        }
+        this.written = directory.toString();
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return this.written;
+  }
+
+  // produces the directory of this process the scaled sprites are written under,
+  // made the first time it is asked for with a name no other user can predict or
+  // take first, and deleted with everything in it when the process exits
+  // (deleteOnExit deletes in the reverse of the order it was asked, so the files
+  // go before their directories)
+  static synchronized Path scaledRoot() throws IOException {
+    if (SpriteAtlas.scaledRoot == null) {
+      SpriteAtlas.scaledRoot = Files.createTempDirectory("sokoban-sprites-");
+      SpriteAtlas.scaledRoot.toFile().deleteOnExit();
+    }
+    return SpriteAtlas.scaledRoot;
+  }
+
+  // produces the biggest tile size at which a board of the given size fits in the
+  // given width and height, but no bigger than the size of SokobanImages
+  static int fit(Posn size, int width, int height) {
+    return Math.max(1, Math.min(NATIVE_TILE, Math.min(width / size.x, height / size.y)));
+  }
+}
+
+// draws Sokoban boards straight into images, with no window and no javalib
+// scene, for thumbnails and replay videos made on servers with no display
+class BoardRenderer {
+  // represents the sprites every board is drawn with
+  SpriteAtlas atlas;
+
+  // the PNG compression quality that makes the writer use deflate level 1
+  static final float FAST_DEFLATE = 0.9f;
+
+  BoardRenderer(SpriteAtlas atlas) {
+    this.atlas = atlas;
+  }
+
+  // constructor for a renderer that draws with the images of SokobanImages
+  BoardRenderer() {
+    this(SpriteAtlas.standard());
+  }
+
+  // produces the image of the given board, drawn as SokobanBoard.render draws it
+  BufferedImage render(SokobanBoard board) {
+    return this.render(new SokobanGrid(board));
+  }
+
+  // produces the image of the given grid: a white background, the targets of the
+  // ground, and then the contents and the player on top
+  BufferedImage render(SokobanGrid grid) {
+    int tile = this.atlas.tile;
+    BufferedImage image = new BufferedImage(grid.width * tile, grid.height * tile,
+        BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.white);
+    g.fillRect(0, 0, image.getWidth(), image.getHeight());
+    // draws the sprites of the ground and contents of every location
+    for (int i = 0; i < grid.contents.length; i += 1) {
+      int x = (i % grid.width) * tile;
+      int y = (i / grid.width) * tile;
+      BufferedImage ground = this.atlas.ground[grid.ground[i] & 127];
+      BufferedImage contents = this.atlas.contents[grid.contents[i] & 127];
+      if (ground != null) {
+        g.drawImage(ground, x, y, null);
+      }
+      if (contents != null) {
+        g.drawImage(contents, x, y, null);
+      }
+    }
+    if (grid.player >= 0) {
+      g.drawImage(this.atlas.contents['>'], (grid.player % grid.width) * tile,
+          (grid.player / grid.width) * tile, null);
+    }
+    g.dispose();
+    return image;
+  }
+
+  // produces the state of the given grid before the given moves and after each
+  // of them, stopping at the move that ends the level
+  ArrayList<SokobanGrid> frames(SokobanGrid start, ArrayList<String> moves) {
+    ArrayList<SokobanGrid> result = new ArrayList<SokobanGrid>();
+    SokobanGrid grid = start.copy();
+    result.add(grid.copy());
+    // plays every move until the level should end
+    for (int i = 0; i < moves.size() && !grid.shouldEnd(); i += 1) {
+      grid.move(SokobanGrid.direction(moves.get(i)));
+      result.add(grid.copy());
+    }
+    return result;
+  }
+
+  // EFFECT: writes the frames of the given moves played from the given grid to
+  // the given directory as frame-00000.png, frame-00001.png, ..., drawing and
+  // encoding the frames in parallel on every core
+  // produces the number of frames written
+  int writeFrames(SokobanGrid start, ArrayList<String> moves, Path directory)
+      throws IOException {
+    ArrayList<SokobanGrid> frames = this.frames(start, moves);
+    Files.createDirectories(directory);
+    try {
+      IntStream.range(0, frames.size()).parallel().forEach(i -> {
+        try {
+          this.writePng(this.render(frames.get(i)),
+              directory.resolve(String.format("frame-%05d.png", i)));
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return frames.size();
+  }
+
+  // EFFECT: writes the given image to the given file as a PNG, compressed with
+  // the fastest deflate level (about three times faster to write than the
+  // default level, for files about a seventh larger)
+  void writePng(BufferedImage image, Path file) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(FAST_DEFLATE);
+    Files.deleteIfExists(file);
+    try (ImageOutputStream out = new FileImageOutputStream(file.toFile())) {
+      writer.setOutput(out);
+      writer.write(null, new IIOImage(image, null, null), param);
+    }
+    finally {
+      writer.dispose();
+    }
+  }
+
+  // writes the replay of moves on a level as a PNG sequence, with the moves given
+  // as letters r, l, u and d
+  // java BoardRenderer <level> <moves> [-o frames] [-tile 120]
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("java BoardRenderer <level> <moves> [-o frames] [-tile 120]");
+      return;
+    }
+    String out = "frames";
+    int tile = SpriteAtlas.NATIVE_TILE;
+    // reads every flag along with the value that follows it
+    for (int i = 2; i + 1 < args.length; i += 2) {
+      if (args[i].equals("-o")) {
+        out = args[i + 1];
+      }
+      else if (args[i].equals("-tile")) {
+        tile = Integer.parseInt(args[i + 1]);
+      }
+    }
+    SokobanLevel level = new SokobanLevels().named(args[0]);
+    ArrayList<String> moves = new ArrayList<String>();
+    for (char c : args[1].toCharArray()) {
+      int index = "rlud".indexOf(c);
+      if (index >= 0) {
+        moves.add(SokobanGrid.DIRECTIONS[index]);
+      }
+    }
+    long start = System.nanoTime();
+    int count = new BoardRenderer(SpriteAtlas.sized(tile)).writeFrames(
+        new SokobanGrid(level.ground, level.contents), moves, Paths.get(out));
+    long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+    System.out.println(count + " frames in " + millis + " ms (" + count * 1000 / millis
+        + " frames a second)");
+  }
+}
+
+// tests and examples for SpriteAtlas and BoardRenderer
+class ExamplesBoardRenderer {
+  SokobanLevel level = new SokobanLevel("small", "____\n" + "___R", "WWWW\n" + ">_r_");
+
+  // tests that the atlas decodes every sprite once, at the size of SokobanImages
+  boolean testAtlas_SpriteAtlas(Tester t) {
+    SpriteAtlas atlas = SpriteAtlas.standard();
+    return t.checkExpect(atlas.tile, 120) && t.checkExpect(atlas.ground['R'].getWidth(), 120)
+        && t.checkExpect(atlas.contents['>'].getHeight(), 120)
+        && t.checkExpect(atlas.ground['_'], null) && t.checkExpect(SpriteAtlas.standard(), atlas)
+        && t.checkException(new IllegalArgumentException("Could not read sprite Wall.png"),
+            atlas, "read", "NoImages", "Wall.png");
+  }
+
+  // tests that sized atlases are scaled once per size and fit picks a tile that fits
+  boolean testSized_SpriteAtlas(Tester t) {
+    SpriteAtlas small = SpriteAtlas.sized(24);
+    BufferedImage wall = small.contents['W'];
+    return t.checkExpect(small.tile, 24) && t.checkExpect(wall.getWidth(), 24)
+        && t.checkExpect(wall.getHeight(), 24) && t.checkExpect(SpriteAtlas.sized(24), small)
+        && t.checkExpect(new BoardRenderer(small).render(this.level.toBoard()).getWidth(), 96)
+        && t.checkExpect(SpriteAtlas.scale(wall, 24), wall)
+        && t.checkExpect(SpriteAtlas.fit(new Posn(50, 50), 1280, 960), 19)
+        && t.checkExpect(SpriteAtlas.fit(new Posn(3, 2), 1280, 960), 120)
+        && t.checkExpect(SpriteAtlas.directoryFor(120), "SokobanImages")
+        && t.checkExpect(new File(small.directory(), "Player.png").exists(), true)
+        && t.checkExpect(Paths.get(small.directory()).getParent().toString(),
+            SpriteAtlas.scaledRoot.toString())
+        && t.checkExpect(SpriteAtlas.scaledRoot.getFileName().toString()
+            .startsWith("sokoban-sprites-"), true)
+        && t.checkConstructorException(
+            new IllegalArgumentException("The tile size must be positive"), "SpriteAtlas",
+            "SokobanImages", 0);
+  }
+
+  // tests that render draws each sprite at its location over a white background
+  boolean testRender_BoardRenderer(Tester t) {
+    SpriteAtlas atlas = SpriteAtlas.standard();
+    BufferedImage image = new BoardRenderer().render(this.level.toBoard());
+    BufferedImage wall = atlas.contents['W'];
+    return t.checkExpect(image.getWidth(), 480) && t.checkExpect(image.getHeight(), 240)
+        && t.checkExpect(image.getRGB(250, 60), this.over(wall.getRGB(10, 60)))
+        && t.checkExpect(image.getRGB(60, 180), this.over(atlas.contents['>'].getRGB(60, 60)))
+        && t.checkExpect(image.getRGB(125, 125), 0xFFFFFFFF);
+  }
+
+  // produces the given color drawn over white, as an opaque color
+  int over(int argb) {
+    int alpha = argb >>> 24;
+    int result = 0xFF000000;
+    for (int shift = 0; shift <= 16; shift += 8) {
+      int channel = (argb >> shift) & 255;
+      result = result | ((channel * alpha + 255 * (255 - alpha) + 127) / 255) << shift;
+    }
+    return result;
+  }
+
+  // tests that frames stop at the end of the level and writeFrames writes every frame
+  boolean testWriteFrames_BoardRenderer(Tester t) throws IOException {
+    ArrayList<String> moves = new ArrayList<String>();
+    moves.add("right");
+    moves.add("left");
+    moves.add("right");
+    moves.add("right");
+    moves.add("down");
+    SokobanGrid start = new SokobanGrid(this.level.ground, this.level.contents);
+    BoardRenderer renderer = new BoardRenderer();
+    Path directory = Files.createTempDirectory("frames");
+    int written = renderer.writeFrames(start, moves, directory);
+    BufferedImage last = ImageIO.read(directory.resolve("frame-00004.png").toFile());
+    BufferedImage expected = renderer.render(renderer.frames(start, moves).get(4));
+    boolean same = last.getWidth() == expected.getWidth();
+    for (int x = 0; x < last.getWidth() && same; x += 7) {
+      for (int y = 0; y < last.getHeight() && same; y += 7) {
+        same = last.getRGB(x, y) == expected.getRGB(x, y);
+      }
+    }
+    for (int i = 0; i < written; i += 1) {
+      Files.delete(directory.resolve(String.format("frame-%05d.png", i)));
+    }
+    Files.delete(directory);
+    return t.checkExpect(renderer.frames(start, moves).size(), 5) && t.checkExpect(written, 5)
+        && t.checkExpect(same, true)
+        && t.checkExpect(renderer.frames(start, moves).get(4).won(), true);
+  }
+}
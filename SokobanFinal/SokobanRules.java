@@ -0,0 +1,291 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import javalib.worldimages.Posn;
+import tester.Tester;
+
+// the kind codes of the cells, as produced by ICell.kind
+class CellKind {
+  static final int BLANK = 0;
+  static final int WALL = 1;
+  static final int BOX = 2;
+  static final int PLAYER = 3;
+  static final int TARGET = 4;
+  static final int TROPHY = 5;
+  static final int HOLE = 6;
+  // the number of kinds
+  static final int KINDS = 7;
+}
+
+// the rules of moving one cell onto another, as a table by the kind of the cell
+// moving and the kind of the cell it moves onto: the same rules as
+// MovePlayerVisitor, CanMoveToVisitor, MoveBoxVisitor and MoveTrophyVisitor
+class MoveRules {
+  // the mover cannot go there
+  static final int BLOCKED = 0;
+  // the mover goes there
+  static final int MOVE = 1;
+  // the player pushes the piece there
+  static final int PUSH = 2;
+  // the player falls into the hole there and is gone
+  static final int FALL = 3;
+  // the piece fills the hole there and both are gone
+  static final int FILL = 4;
+
+  // the outcome of every mover kind moving onto every kind
+  static final int[][] ONTO = MoveRules.table();
+
+  // produces the table of outcomes (every pair not listed is BLOCKED)
+  static int[][] table() {
+    int[][] rules = new int[CellKind.KINDS][CellKind.KINDS];
+    rules[CellKind.PLAYER][CellKind.BLANK] = MOVE;
+    rules[CellKind.PLAYER][CellKind.PLAYER] = MOVE;
+    rules[CellKind.PLAYER][CellKind.TARGET] = MOVE;
+    rules[CellKind.PLAYER][CellKind.BOX] = PUSH;
+    rules[CellKind.PLAYER][CellKind.TROPHY] = PUSH;
+    rules[CellKind.PLAYER][CellKind.HOLE] = FALL;
+    // boxes and trophies move by the same rules
+    for (int piece : new int[] { CellKind.BOX, CellKind.TROPHY }) {
+      rules[piece][CellKind.BLANK] = MOVE;
+      rules[piece][CellKind.TARGET] = MOVE;
+      rules[piece][CellKind.HOLE] = FILL;
+    }
+    return rules;
+  }
+}
+
+// represents a board played by the rule tables instead of the visitors: the kind
+// of every location in a byte array, and a switch over the outcome of every move
+// (the visitors stay the reference; ExamplesRuleEngine checks that both agree)
+class RuleEngine {
+  // represents the width of the board
+  int width;
+  // represents the height of the board
+  int height;
+  // represents the kind of the contents of every location, row by row
+  // (the player's location holds a blank, as in SokobanGrid)
+  byte[] kinds;
+  // represents the color letter of the trophy at every location ('_' for none)
+  char[] colors;
+  // represents the color letter of the target at every location ('_' for none)
+  char[] targets;
+  // represents the location of the player, or -1 if the player fell
+  int player = -1;
+  // represents the neighbour table of the board (see SokobanGrid.neighbours)
+  int[][] neighbours;
+
+  RuleEngine(SokobanBoard board) {
+    this.width = board.size.x;
+    this.height = board.size.y;
+    int cells = this.width * this.height;
+    this.kinds = new byte[cells];
+    this.colors = new char[cells];
+    this.targets = new char[cells];
+    Arrays.fill(this.colors, '_');
+    Arrays.fill(this.targets, '_');
+    boolean[] seen = new boolean[cells];
+    // keeps the color of every target of the ground
+    for (ICell cell : board.levelGroundCells) {
+      if (cell.kind() == CellKind.TARGET) {
+        this.targets[this.index(cell.accept(new CellPosnVisitor()))] =
+            cell.accept(new CellCharVisitor()).toLowerCase().charAt(0);
+      }
+    }
+    // keeps the first contents cell at every location that is not a blank
+    for (ICell cell : board.levelContentsCells) {
+      int at = this.index(cell.accept(new CellPosnVisitor()));
+      int kind = cell.kind();
+      if (kind == CellKind.PLAYER) {
+        this.player = at;
+      }
+      else if (!seen[at] && kind != CellKind.BLANK) {
+        seen[at] = true;
+        this.kinds[at] = (byte) kind;
+        if (kind == CellKind.TROPHY) {
+          this.colors[at] = cell.accept(new CellCharVisitor()).charAt(0);
+        }
+      }
+    }
+    this.neighbours = board.neighbours;
+  }
+
+  // produces the location of the given coordinates, row by row
+  int index(Posn coord) {
+    return (coord.y - 1) * this.width + (coord.x - 1);
+  }
+
+  // produces the location next to the given one in the given direction (an
+  // index of SokobanGrid.DIRECTIONS), or -1 if that is off the board or a wall
+  int next(int index, int direction) {
+    return this.neighbours[direction][index];
+  }
+
+  // EFFECT: moves the player in the given direction by the rule tables and
+  // produces whether anything changed (a step off the board is blocked)
+  boolean move(int direction) {
+    if (this.player < 0) {
+      return false;
+    }
+    int next = this.next(this.player, direction);
+    if (next < 0) {
+      return false;
+    }
+    switch (MoveRules.ONTO[CellKind.PLAYER][this.kinds[next]]) {
+      case MoveRules.MOVE:
+        this.player = next;
+        return true;
+      case MoveRules.PUSH:
+        return this.push(next, direction);
+      case MoveRules.FALL:
+        this.player = -1;
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // EFFECT: pushes the piece at the given location in the given direction, the
+  // player following it if it moves, and produces whether it moved
+  boolean push(int piece, int direction) {
+    int beyond = this.next(piece, direction);
+    if (beyond < 0) {
+      return false;
+    }
+    switch (MoveRules.ONTO[this.kinds[piece]][this.kinds[beyond]]) {
+      case MoveRules.MOVE:
+        this.kinds[beyond] = this.kinds[piece];
+        this.colors[beyond] = this.colors[piece];
+        break;
+      case MoveRules.FILL:
+        this.kinds[beyond] = CellKind.BLANK;
+        break;
+      default:
+        return false;
+    }
+    this.kinds[piece] = CellKind.BLANK;
+    this.colors[piece] = '_';
+    this.player = piece;
+    return true;
+  }
+
+  // determines if every target has a trophy of its color on it
+  boolean won() {
+    for (int i = 0; i < this.targets.length; i += 1) {
+      if (this.targets[i] != '_' && this.colors[i] != this.targets[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // produces the contents of this board as a level string, as
+  // SokobanGrid.contentsString does
+  String contentsString() {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < this.kinds.length; i += 1) {
+      if (i > 0 && i % this.width == 0) {
+        result.append("\n");
+      }
+      if (i == this.player) {
+        result.append('>');
+      }
+      else if (this.kinds[i] == CellKind.TROPHY) {
+        result.append(this.colors[i]);
+      }
+      else {
+        result.append("_WB_T_H".charAt(this.kinds[i]));
+      }
+    }
+    return result.toString();
+  }
+}
+
+// tests and examples for CellKind, MoveRules and RuleEngine
+class ExamplesRuleEngine {
+  Posn ex = new Posn(2, 2);
+  // one cell of every kind
+  ArrayList<ICell> cells = new ArrayList<ICell>();
+
+  // EFFECT: fills cells with one cell of every kind, in kind order
+  void init() {
+    this.cells = new ArrayList<ICell>();
+    this.cells.add(new Blank(this.ex));
+    this.cells.add(new Wall(this.ex));
+    this.cells.add(new Box(this.ex));
+    this.cells.add(new Player(this.ex));
+    this.cells.add(new Target(this.ex, Color.red));
+    this.cells.add(new Trophy(this.ex, Color.red));
+    this.cells.add(new Hole(this.ex));
+  }
+
+  // tests that every cell produces its kind
+  boolean testKind_ICell(Tester t) {
+    this.init();
+    boolean result = true;
+    for (int kind = 0; kind < CellKind.KINDS; kind += 1) {
+      result = result && t.checkExpect(this.cells.get(kind).kind(), kind);
+    }
+    return result;
+  }
+
+  // tests that the table agrees with the visitors for every pair of kinds: a piece
+  // may move where CanMoveToVisitor says it can, and the player moves, pushes or
+  // falls as MovePlayerVisitor does
+  boolean testTable_MoveRules(Tester t) {
+    this.init();
+    boolean result = true;
+    for (ICell onto : this.cells) {
+      int kind = onto.kind();
+      result = result
+          && t.checkExpect(MoveRules.ONTO[CellKind.BOX][kind] != MoveRules.BLOCKED,
+              onto.accept(new CanMoveToVisitor()))
+          && t.checkExpect(MoveRules.ONTO[CellKind.TROPHY][kind],
+              MoveRules.ONTO[CellKind.BOX][kind])
+          && t.checkExpect(MoveRules.ONTO[CellKind.BOX][kind] == MoveRules.FILL,
+              kind == CellKind.HOLE);
+      if (kind != CellKind.BOX && kind != CellKind.TROPHY) {
+        ArrayList<ICell> contents = new ArrayList<ICell>();
+        ICell player = new Player(new Posn(1, 2));
+        contents.add(player);
+        contents.add(onto);
+        ICell moved = onto.accept(new MovePlayerVisitor(player, "right", contents,
+            new Posn(3, 3)));
+        int outcome = MoveRules.ONTO[CellKind.PLAYER][kind];
+        result = result
+            && t.checkExpect(outcome == MoveRules.MOVE || outcome == MoveRules.FALL,
+                !moved.equals(player))
+            && t.checkExpect(outcome == MoveRules.FALL, moved.kind() == CellKind.BLANK);
+      }
+    }
+    return result;
+  }
+
+  // tests that the rule engine plays random games exactly as the visitors do
+  boolean testAgree_RuleEngine(Tester t) {
+    ArrayList<SokobanLevel> levels = new SokobanLevels().examples();
+    levels.add(new SokobanLevels().room(9));
+    levels.add(new SokobanLevel("filled", "________\n" + "_____R__\n" + "________",
+        "WWWWWWWW\n" + "W>BHr__W\n" + "WWWWWWWW"));
+    Random random = new Random(41);
+    boolean same = true;
+    int moves = 0;
+    // plays many games on every level with both engines
+    for (SokobanLevel level : levels) {
+      for (int game = 0; game < 20; game += 1) {
+        SokobanBoard board = level.toBoard();
+        RuleEngine engine = new RuleEngine(board);
+        while (same && !board.shouldEnd() && moves < 100000) {
+          int direction = random.nextInt(4);
+          board = board.playerMove(SokobanGrid.DIRECTIONS[direction]);
+          engine.move(direction);
+          same = engine.contentsString().equals(new SokobanGrid(board).contentsString())
+              && engine.won() == board.levelWon();
+          moves += 1;
+        }
+      }
+    }
+    return t.checkExpect(same, true) && t.checkExpect(moves > 1000, true);
+  }
+}
@@ -0,0 +1,443 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javalib.worldimages.Posn;
+import tester.Tester;
+
+// represents one game being played on the server, with the same rules as
+// SokobanWorld.onKeyEvent: once the level should end, keys no longer move the player
+class SokobanSession {
+  // represents the id the client uses for this session
+  String id;
+  // represents the level this session plays
+  SokobanLevel level;
+  // represents the current state of the board
+  SokobanBoard board;
+  // represents the number of moves applied so far
+  int moves;
+  // represents the last time (in milliseconds) a client used this session
+  volatile long lastUsed;
+
+  SokobanSession(String id, SokobanLevel level, long now) {
+    this.id = id;
+    this.level = level;
+    this.board = level.toBoard();
+    this.moves = 0;
+    this.lastUsed = now;
+  }
+
+  // produces the state of this session after the given key is pressed
+  // (keys that are not directions leave the board alone)
+  synchronized String step(String key, long now) {
+    this.lastUsed = now;
+    String direction = new Utils().keyDirection(key);
+    if (!this.board.shouldEnd() && !direction.isEmpty()) {
+      this.board = this.board.playerMove(direction);
+      this.moves += 1;
+    }
+    return this.status();
+  }
+
+  // produces "WON" or "LOST" if the level has ended, otherwise "PLAYING"
+  synchronized String status() {
+    if (!this.board.shouldEnd()) {
+      return "PLAYING";
+    }
+    else if (this.board.levelWon()) {
+      return "WON";
+    }
+    else {
+      return "LOST";
+    }
+  }
+
+  // produces the contents of the board as a level string, with rows separated by "/"
+  synchronized String show(long now) {
+    this.lastUsed = now;
+    return new Utils().levelString(this.board.levelContentsCells, this.board.size)
+        .replace("\n", "/");
+  }
+}
+
+// represents a headless server that plays many Sokoban games at once over a
+// line based protocol on a local socket, one thread per connection
+//   NEW <level>      -> OK <id>             starts a session on a named level or roomN
+//   MOVE <id> <key>  -> OK <status> <moves> presses a key (d, >, right, ...)
+//   SHOW <id>        -> OK <rows>           the contents of the board, rows split by /
+//   QUIT <id>        -> OK                  ends the session
+//   LEVELS           -> OK <names>
+//   STATS            -> OK sessions=<n>
+// anything else is answered with ERR <reason>
+class SokobanServer {
+  // represents the most sessions kept at once
+  int maxSessions;
+  // represents the most cells a session's level may have
+  int maxCells;
+  // represents how long (in milliseconds) a session may go unused before it
+  // can be evicted to make room for a new one
+  long idleMillis;
+  // represents the longest request line accepted
+  static final int MAX_LINE = 256;
+  // represents the sessions being played, by id
+  ConcurrentHashMap<String, SokobanSession> sessions =
+      new ConcurrentHashMap<String, SokobanSession>();
+  // represents the id given to the next session
+  AtomicLong nextId = new AtomicLong(1);
+  // represents the socket this server listens on, once started
+  ServerSocket socket;
+  // represents the executor that runs one task per connection
+  ExecutorService connections;
+
+  SokobanServer(int maxSessions, int maxCells, long idleMillis) {
+    if (maxSessions < 1 || maxCells < 1 || idleMillis < 0) {
+      throw new IllegalArgumentException("Server limits must be positive");
+    }
+    this.maxSessions = maxSessions;
+    this.maxCells = maxCells;
+    this.idleMillis = idleMillis;
+  }
+
+  // produces the reply to a single request line
+  String handle(String line, long now) {
+    String[] words = line.trim().split(" +");
+    String command = words[0].toUpperCase();
+    if (command.equals("NEW") && words.length == 2) {
+      return this.newSession(words[1], now);
+    }
+    else if (command.equals("MOVE") && words.length == 3) {
+      SokobanSession session = this.sessions.get(words[1]);
+      if (session == null) {
+        return "ERR no session " + words[1];
+      }
+      String status = session.step(words[2], now);
+      return "OK " + status + " " + session.moves;
+    }
+    else if (command.equals("SHOW") && words.length == 2) {
+      SokobanSession session = this.sessions.get(words[1]);
+      if (session == null) {
+        return "ERR no session " + words[1];
+      }
+      return "OK " + session.show(now);
+    }
+    else if (command.equals("QUIT") && words.length == 2) {
+      if (this.sessions.remove(words[1]) == null) {
+        return "ERR no session " + words[1];
+      }
+      return "OK";
+    }
+    else if (command.equals("LEVELS") && words.length == 1) {
+      StringBuilder names = new StringBuilder("OK");
+      for (SokobanLevel level : new SokobanLevels().examples()) {
+        names.append(" ").append(level.name);
+      }
+      return names.append(" roomN").toString();
+    }
+    else if (command.equals("STATS") && words.length == 1) {
+      return "OK sessions=" + this.sessions.size();
+    }
+    else {
+      return "ERR unknown request";
+    }
+  }
+
+  // produces the reply to starting a session on the level with the given name,
+  // evicting idle sessions first if the server is full
+  // (a room is measured by its name before it is built, and the server is checked
+  // for room and the session added in one step, so no two requests take the same
+  // last place)
+  String newSession(String name, long now) {
+    int side = new SokobanLevels().roomSide(name);
+    if (side != -1 && (long) side * side > this.maxCells) {
+      return "ERR level too large";
+    }
+    SokobanLevel level;
+    try {
+      level = new SokobanLevels().named(name);
+    }
+    catch (IllegalArgumentException e) {
+      return "ERR " + e.getMessage();
+    }
+    Posn size = level.size();
+    if (size.x * size.y > this.maxCells) {
+      return "ERR level too large";
+    }
+    synchronized (this.sessions) {
+      if (this.sessions.size() >= this.maxSessions) {
+        this.evictIdle(now);
+      }
+      if (this.sessions.size() >= this.maxSessions) {
+        return "ERR server full";
+      }
+      String id = Long.toString(this.nextId.getAndIncrement());
+      this.sessions.put(id, new SokobanSession(id, level, now));
+      return "OK " + id;
+    }
+  }
+
+  // EFFECT: removes every session that has not been used for longer than idleMillis
+  void evictIdle(long now) {
+    // for every session, removes it if it has gone idle
+    for (SokobanSession session : this.sessions.values()) {
+      if (now - session.lastUsed > this.idleMillis) {
+        this.sessions.remove(session.id, session);
+      }
+    }
+  }
+
+  // EFFECT: starts listening on the given port of the loopback address
+  // (port 0 picks a free port) and answering connections in the background
+  void start(int port) throws IOException {
+    this.socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+    this.connections = SokobanServer.connectionExecutor();
+    Thread acceptor = new Thread(this::acceptLoop, "sokoban-accept");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  // produces the port this server listens on
+  int port() {
+    return this.socket.getLocalPort();
+  }
+
+  // EFFECT: hands every accepted connection to its own task until the socket closes
+  void acceptLoop() {
+    try {
+      while (!this.socket.isClosed()) {
+        Socket client = this.socket.accept();
+        this.connections.execute(() -> this.serve(client));
+      }
+    }
+    catch (IOException e) {
+      // the socket was closed, so the server has stopped
+    }
+  }
+
+  // EFFECT: answers every request line sent on the given connection until it closes
+  void serve(Socket client) {
+    try (Socket c = client;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(
+            new OutputStreamWriter(c.getOutputStream(), StandardCharsets.UTF_8), false)) {
+      String line = this.readLine(in);
+      while (line != null) {
+        if (line.length() > MAX_LINE) {
+          out.print("ERR line too long\n");
+        }
+        else {
+          out.print(this.handle(line, System.currentTimeMillis()) + "\n");
+        }
+        out.flush();
+        line = this.readLine(in);
+      }
+    }
+    catch (IOException e) {
+      // the client went away, so there is nothing left to answer
+    }
+  }
+
+  // produces the next line from the reader, or null at the end of the stream
+  // (a line longer than MAX_LINE is skipped and reported as one character too long,
+  // so a client cannot make the server buffer an unbounded line)
+  String readLine(BufferedReader in) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int c = in.read();
+    if (c == -1) {
+      return null;
+    }
+    while (c != -1 && c != '\n') {
+      if (c != '\r' && line.length() <= MAX_LINE) {
+        line.append((char) c);
+      }
+      c = in.read();
+    }
+    return line.toString();
+  }
+
+  // EFFECT: stops listening, closes the open connections' tasks and drops every session
+  void stop() throws IOException {
+    if (this.socket != null) {
+      this.socket.close();
+    }
+    if (this.connections != null) {
+      this.connections.shutdownNow();
+    }
+    this.sessions.clear();
+  }
+
+  // produces an executor with one virtual thread per task where the JDK has them,
+  // otherwise a pool of platform threads that grows with the number of connections
+  static ExecutorService connectionExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    }
+    catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  // runs a server on the port given as the first argument (7070 if there is none)
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int port = 7070;
+    if (args.length > 0) {
+      port = Integer.parseInt(args[0]);
+    }
+    SokobanServer server = new SokobanServer(20000, 10000, TimeUnit.MINUTES.toMillis(10));
+    server.start(port);
+    System.out.println("Sokoban server listening on port " + server.port());
+    Thread.currentThread().join();
+  }
+}
+
+// tests and examples for SokobanSession and SokobanServer
+class ExamplesSokobanServer {
+
+  // tests and examples for step, status and show in SokobanSession
+  boolean testStep_SokobanSession(Tester t) {
+    SokobanSession session = new SokobanSession("1", new SokobanLevels().find("holes"), 0);
+    String start = session.show(0);
+    String bump = session.step("up", 5);
+    String walk = session.step("d", 6);
+    String pizza = session.step("pizza", 7);
+    return t.checkExpect(start, "WWWWWWW/W_>___W/W_H_r_W/WH_HB_W/W_H___W/W_____W/WWWWWWW")
+        && t.checkExpect(bump, "PLAYING") && t.checkExpect(walk, "PLAYING")
+        && t.checkExpect(pizza, "PLAYING") && t.checkExpect(session.moves, 2)
+        && t.checkExpect(session.lastUsed, 7L)
+        && t.checkExpect(session.show(8),
+            "WWWWWWW/W__>__W/W_H_r_W/WH_HB_W/W_H___W/W_____W/WWWWWWW");
+  }
+
+  // tests that a session ends the way SokobanWorld does and stops moving afterwards
+  boolean testEnd_SokobanSession(Tester t) {
+    SokobanSession lost = new SokobanSession("1", new SokobanLevels().find("holes"), 0);
+    String fell = lost.step("down", 1);
+    String after = lost.step("down", 2);
+    SokobanSession won = new SokobanSession("2",
+        new SokobanLevel("tiny", "____\n" + "___R", "WWWW\n" + ">_r_"), 0);
+    return t.checkExpect(fell, "LOST") && t.checkExpect(after, "LOST")
+        && t.checkExpect(lost.moves, 1) && t.checkExpect(won.step("right", 1), "PLAYING")
+        && t.checkExpect(won.step("right", 2), "WON") && t.checkExpect(won.step("left", 3), "WON")
+        && t.checkExpect(won.moves, 2) && t.checkExpect(won.show(4), "WWWW/__>r");
+  }
+
+  // tests and examples for the requests answered by handle in SokobanServer
+  boolean testHandle_SokobanServer(Tester t) {
+    SokobanServer server = new SokobanServer(10, 400, 1000);
+    String first = server.handle("NEW holes", 0);
+    String second = server.handle("new room12", 0);
+    return t.checkExpect(first, "OK 1") && t.checkExpect(second, "OK 2")
+        && t.checkExpect(server.handle("MOVE 1 right", 1), "OK PLAYING 1")
+        && t.checkExpect(server.handle("MOVE 1 left", 2), "OK PLAYING 2")
+        && t.checkExpect(server.handle("MOVE 1 down", 2), "OK LOST 3")
+        && t.checkExpect(server.handle("MOVE 1 left", 3), "OK LOST 3")
+        && t.checkExpect(server.handle("SHOW 2", 4).substring(0, 16), "OK WWWWWWWWWWWW/")
+        && t.checkExpect(server.handle("STATS", 5), "OK sessions=2")
+        && t.checkExpect(server.handle("QUIT 2", 6), "OK")
+        && t.checkExpect(server.handle("QUIT 2", 7), "ERR no session 2")
+        && t.checkExpect(server.handle("MOVE 9 up", 8), "ERR no session 9")
+        && t.checkExpect(server.handle("SHOW", 8), "ERR unknown request")
+        && t.checkExpect(server.handle("LEVELS", 9), "OK basic first holes roomN")
+        && t.checkExpect(server.handle("NEW pizza", 10), "ERR No level named pizza")
+        && t.checkExpect(server.handle("NEW room3", 10),
+            "ERR A room must be at least 5 cells wide")
+        && t.checkExpect(server.handle("NEW room21", 10), "ERR level too large")
+        && t.checkExpect(server.handle("NEW room9999", 10), "ERR level too large")
+        && t.checkConstructorException(
+            new IllegalArgumentException("Server limits must be positive"), "SokobanServer", 0,
+            10, 10L);
+  }
+
+  // tests that a full server evicts idle sessions before turning new ones away
+  boolean testEvict_SokobanServer(Tester t) {
+    SokobanServer server = new SokobanServer(2, 100, 1000);
+    server.handle("NEW basic", 0);
+    server.handle("NEW first", 500);
+    String full = server.handle("NEW holes", 900);
+    String evicted = server.handle("NEW holes", 1200);
+    return t.checkExpect(full, "ERR server full") && t.checkExpect(evicted, "OK 3")
+        && t.checkExpect(server.sessions.containsKey("1"), false)
+        && t.checkExpect(server.sessions.containsKey("2"), true);
+  }
+
+  // tests that sessions started at once never pass the most sessions
+  boolean testConcurrentNew_SokobanServer(Tester t) throws InterruptedException {
+    SokobanServer server = new SokobanServer(5, 100, 60000);
+    AtomicLong started = new AtomicLong();
+    Thread[] clients = new Thread[8];
+    for (int i = 0; i < clients.length; i += 1) {
+      clients[i] = new Thread(() -> {
+        for (int j = 0; j < 20; j += 1) {
+          if (server.handle("NEW holes", 0).startsWith("OK")) {
+            started.incrementAndGet();
+          }
+        }
+      });
+      clients[i].start();
+    }
+    for (Thread client : clients) {
+      client.join();
+    }
+    return t.checkExpect(started.get(), 5L) && t.checkExpect(server.sessions.size(), 5);
+  }
+
+  // tests that many clients can play at once over the loopback socket
+  boolean testSocket_SokobanServer(Tester t) throws Exception {
+    SokobanServer server = new SokobanServer(100, 400, 60000);
+    server.start(0);
+    ArrayList<String> replies = new ArrayList<String>();
+    ArrayList<Thread> clients = new ArrayList<Thread>();
+    // starts clients that each play a level from start to finish
+    for (int i = 0; i < 8; i += 1) {
+      Thread client = new Thread(() -> {
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), server.port());
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(
+                new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true)) {
+          out.print("NEW holes\n" + "x".repeat(1000) + "\n");
+          out.flush();
+          String id = in.readLine().substring(3);
+          String tooLong = in.readLine();
+          out.print("MOVE " + id + " pizza\r\nMOVE " + id + " down\n");
+          out.flush();
+          String reply = tooLong + "|" + in.readLine() + "|" + in.readLine();
+          synchronized (replies) {
+            replies.add(reply);
+          }
+        }
+        catch (IOException e) {
+          synchronized (replies) {
+            replies.add(e.toString());
+          }
+        }
+      });
+      clients.add(client);
+      client.start();
+    }
+    for (Thread client : clients) {
+      client.join(10000);
+    }
+    int sessions = server.sessions.size();
+    server.stop();
+    boolean allPlayed = true;
+    for (String reply : replies) {
+      allPlayed = allPlayed && reply.equals("ERR line too long|OK PLAYING 0|OK LOST 1");
+    }
+    return t.checkExpect(replies.size(), 8) && t.checkExpect(allPlayed, true)
+        && t.checkExpect(sessions, 8);
+  }
+}
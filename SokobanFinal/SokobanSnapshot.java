@@ -0,0 +1,349 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import tester.Tester;
+
+// represents a saved game: the level it is played on and the current state of
+// its board
+// a snapshot is stored as the difference from the start of its level:
+//   "SKB1", the level name (a varint length and UTF-8 bytes), the width and
+//   height of the level, the player (0 if the player fell in a hole, otherwise
+//   its location plus 1), the number of changed locations, and then for every
+//   location whose contents differ from the start, in order, the gap from the
+//   last changed location and the code of its contents now
+// (all numbers are varints: 7 bits a byte, low bits first, the top bit set on
+// every byte but the last), so a game a few moves in takes a few dozen bytes
+class SokobanSnapshot {
+  // represents the level the game is played on
+  SokobanLevel level;
+  // represents the current state of the board
+  SokobanGrid grid;
+
+  // the four bytes every snapshot starts with
+  static final int MAGIC = 0x534B4231;
+  // the contents characters, in the order of their codes
+  static final String CODES = "_Brgby HW";
+
+  SokobanSnapshot(SokobanLevel level, SokobanGrid grid) {
+    this.level = level;
+    this.grid = grid;
+  }
+
+  // constructor for a snapshot of the given board played on the given level
+  SokobanSnapshot(SokobanLevel level, SokobanBoard board) {
+    this(level, new SokobanGrid(board));
+  }
+
+  // constructor for a snapshot of the board of the given world played on the given level
+  SokobanSnapshot(SokobanLevel level, SokobanWorld world) {
+    this(level, world.boardState);
+  }
+
+  // produces the board this snapshot saved
+  SokobanBoard toBoard() {
+    return new SokobanBoard(this.grid.groundString(), this.grid.contentsString());
+  }
+
+  // produces a world playing the board this snapshot saved
+  SokobanWorld toWorld() {
+    return new SokobanWorld(this.toBoard());
+  }
+
+  // produces this snapshot in its stored form, ready to be read
+  ByteBuffer encode() {
+    return this.encode(new SokobanGrid(this.level.ground, this.level.contents));
+  }
+
+  // produces this snapshot in its stored form, given the start of its level as a
+  // grid (for callers that encode many snapshots of one level)
+  ByteBuffer encode(SokobanGrid start) {
+    if (start.width != this.grid.width || start.height != this.grid.height) {
+      throw new IllegalArgumentException("Snapshot does not match level " + this.level.name);
+    }
+    byte[] name = this.level.name.getBytes(StandardCharsets.UTF_8);
+    int changes = 0;
+    for (int i = 0; i < start.contents.length; i += 1) {
+      if (start.contents[i] != this.grid.contents[i]) {
+        changes += 1;
+      }
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 5 * 5 + name.length + changes * 6);
+    buffer.putInt(MAGIC);
+    SokobanSnapshot.putVarint(buffer, name.length);
+    buffer.put(name);
+    SokobanSnapshot.putVarint(buffer, this.grid.width);
+    SokobanSnapshot.putVarint(buffer, this.grid.height);
+    SokobanSnapshot.putVarint(buffer, this.grid.player + 1);
+    SokobanSnapshot.putVarint(buffer, changes);
+    int last = 0;
+    // writes every changed location as the gap from the last one and its code
+    for (int i = 0; i < start.contents.length; i += 1) {
+      if (start.contents[i] != this.grid.contents[i]) {
+        SokobanSnapshot.putVarint(buffer, i - last);
+        buffer.put((byte) CODES.indexOf(this.grid.contents[i]));
+        last = i;
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  // produces the snapshot stored in the given buffer, finding its level among
+  // the given levels or, if it is not there, among SokobanLevels.named
+  static SokobanSnapshot decode(ByteBuffer buffer, ArrayList<SokobanLevel> levels) {
+    SokobanLevel level = SokobanSnapshot.findLevel(SokobanSnapshot.name(buffer), levels);
+    return new SokobanSnapshot(level, SokobanSnapshot.changes(buffer, level,
+        new SokobanGrid(level.ground, level.contents)));
+  }
+
+  // produces the name of the level of the snapshot stored in the given buffer,
+  // reading the start of the snapshot
+  static String name(ByteBuffer buffer) {
+    if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+      throw new IllegalArgumentException("Not a Sokoban snapshot");
+    }
+    int length = SokobanSnapshot.getVarint(buffer);
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException("Not a Sokoban snapshot");
+    }
+    byte[] name = new byte[length];
+    buffer.get(name);
+    return new String(name, StandardCharsets.UTF_8);
+  }
+
+  // EFFECT: applies the changed locations of the snapshot stored in the given
+  // buffer, read after its name, to the given grid of the start of the given
+  // level; produces that grid
+  static SokobanGrid changes(ByteBuffer buffer, SokobanLevel level, SokobanGrid grid) {
+    int width = SokobanSnapshot.getVarint(buffer);
+    int height = SokobanSnapshot.getVarint(buffer);
+    if (width != grid.width || height != grid.height) {
+      throw new IllegalArgumentException("Snapshot does not match level " + level.name);
+    }
+    int player = SokobanSnapshot.getVarint(buffer) - 1;
+    if (player < -1 || player >= grid.contents.length) {
+      throw new IllegalArgumentException("Snapshot does not match level " + level.name);
+    }
+    grid.player = player;
+    int changes = SokobanSnapshot.getVarint(buffer);
+    int at = 0;
+    // applies every changed location to the start of the level (a gap is checked
+    // against the locations left before it is added, so it cannot overflow)
+    for (int i = 0; i < changes; i += 1) {
+      int gap = SokobanSnapshot.getVarint(buffer);
+      int code = buffer.get();
+      if (gap < 0 || gap >= grid.contents.length - at || code < 0 || code >= CODES.length()) {
+        throw new IllegalArgumentException("Snapshot does not match level " + level.name);
+      }
+      at += gap;
+      grid.contents[at] = CODES.charAt(code);
+    }
+    return grid;
+  }
+
+  // produces the level with the given name among the given levels, or among
+  // SokobanLevels.named if it is not there
+  static SokobanLevel findLevel(String name, ArrayList<SokobanLevel> levels) {
+    for (SokobanLevel level : levels) {
+      if (level.name.equals(name)) {
+        return level;
+      }
+    }
+    return new SokobanLevels().named(name);
+  }
+
+  // EFFECT: writes this snapshot to the given channel
+  void write(WritableByteChannel channel) throws IOException {
+    ByteBuffer buffer = this.encode();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  // produces the snapshot read from the given channel until it ends
+  static SokobanSnapshot read(ReadableByteChannel channel, ArrayList<SokobanLevel> levels)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    while (channel.read(buffer) != -1) {
+      if (!buffer.hasRemaining()) {
+        ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        buffer = bigger.put(buffer);
+      }
+    }
+    buffer.flip();
+    return SokobanSnapshot.decode(buffer, levels);
+  }
+
+  // EFFECT: saves this snapshot to the given file, replacing what it held
+  void save(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      this.write(channel);
+    }
+  }
+
+  // produces the snapshot saved in the given file
+  static SokobanSnapshot load(Path file, ArrayList<SokobanLevel> levels) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return SokobanSnapshot.read(channel, levels);
+    }
+  }
+
+  // EFFECT: adds the given number, which must not be negative, to the buffer as a varint
+  static void putVarint(ByteBuffer buffer, int n) {
+    int rest = n;
+    while ((rest & ~0x7F) != 0) {
+      buffer.put((byte) ((rest & 0x7F) | 0x80));
+      rest = rest >>> 7;
+    }
+    buffer.put((byte) rest);
+  }
+
+  // produces the next varint of the buffer
+  static int getVarint(ByteBuffer buffer) {
+    int result = 0;
+    int shift = 0;
+    byte b;
+    do {
+      if (shift > 28) {
+        throw new IllegalArgumentException("Varint is too long");
+      }
+      b = buffer.get();
+      result = result | ((b & 0x7F) << shift);
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return result;
+  }
+}
+
+// tests and examples for SokobanSnapshot
+class ExamplesSokobanSnapshot {
+
+  // tests and examples for putVarint and getVarint in SokobanSnapshot
+  boolean testVarint_SokobanSnapshot(Tester t) {
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+    SokobanSnapshot.putVarint(buffer, 5);
+    SokobanSnapshot.putVarint(buffer, 300);
+    SokobanSnapshot.putVarint(buffer, Integer.MAX_VALUE);
+    int written = buffer.position();
+    buffer.flip();
+    ByteBuffer bad = ByteBuffer.wrap(new byte[] { -1, -1, -1, -1, -1, 1 });
+    return t.checkExpect(written, 1 + 2 + 5) && t.checkExpect(SokobanSnapshot.getVarint(buffer), 5)
+        && t.checkExpect(SokobanSnapshot.getVarint(buffer), 300)
+        && t.checkExpect(SokobanSnapshot.getVarint(buffer), Integer.MAX_VALUE)
+        && t.checkException(new IllegalArgumentException("Varint is too long"),
+            new SokobanSnapshot(null, (SokobanGrid) null), "getVarint", bad);
+  }
+
+  // tests that a snapshot of a game in progress comes back as the same game
+  boolean testEncodeDecode_SokobanSnapshot(Tester t) {
+    SokobanLevel holes = new SokobanLevels().find("holes");
+    SokobanBoard board = holes.toBoard();
+    String[] keys = { "right", "right", "down", "left", "up", "right", "right", "down", "down",
+        "left", "left" };
+    for (String key : keys) {
+      board = board.playerMove(key);
+    }
+    SokobanSnapshot saved = new SokobanSnapshot(holes, new SokobanWorld(board));
+    ByteBuffer bytes = saved.encode();
+    int size = bytes.remaining();
+    SokobanSnapshot loaded = SokobanSnapshot.decode(bytes, new ArrayList<SokobanLevel>());
+    SokobanSnapshot fresh = SokobanSnapshot.decode(
+        new SokobanSnapshot(holes, holes.toBoard()).encode(), new SokobanLevels().examples());
+    return t.checkExpect(loaded.grid.key(), new SokobanGrid(board).key())
+        && t.checkExpect(new SokobanGrid(loaded.toBoard()).key(), new SokobanGrid(board).key())
+        && t.checkExpect(loaded.toWorld().boardState.shouldEnd(), board.shouldEnd())
+        && t.checkExpect(size < 30, true) && t.checkExpect(fresh.toBoard(), holes.toBoard())
+        && t.checkExpect(loaded.level, holes);
+  }
+
+  // tests that a lost game and a generated level are saved, and that bad snapshots fail
+  boolean testLostAndErrors_SokobanSnapshot(Tester t) {
+    SokobanLevel holes = new SokobanLevels().find("holes");
+    SokobanLevel custom = new SokobanLevel("custom", "____\n" + "___R", "WWWW\n" + ">_r_");
+    ArrayList<SokobanLevel> levels = new ArrayList<SokobanLevel>();
+    levels.add(custom);
+    SokobanSnapshot lost = SokobanSnapshot.decode(
+        new SokobanSnapshot(holes, holes.toBoard().playerMove("down")).encode(), levels);
+    SokobanSnapshot won = SokobanSnapshot.decode(
+        new SokobanSnapshot(custom, custom.toBoard().playerMove("right").playerMove("right"))
+            .encode(), levels);
+    ByteBuffer wrongLevel = new SokobanSnapshot(holes, holes.toBoard()).encode();
+    wrongLevel.put(5, (byte) 'X');
+    return t.checkExpect(lost.grid.player, -1) && t.checkExpect(lost.toBoard().shouldEnd(), true)
+        && t.checkExpect(won.toBoard().levelWon(), true)
+        && t.checkException(new IllegalArgumentException("Not a Sokoban snapshot"),
+            new SokobanSnapshot(null, (SokobanGrid) null), "decode",
+            ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }), levels)
+        && t.checkException(new IllegalArgumentException("No level named Xoles"),
+            new SokobanSnapshot(null, (SokobanGrid) null), "decode", wrongLevel, levels)
+        && t.checkException(new IllegalArgumentException("Snapshot does not match level holes"),
+            new SokobanSnapshot(holes, new SokobanGrid(custom.ground, custom.contents)),
+            "encode");
+  }
+
+  // produces a snapshot of the holes level with the given player, stored as the
+  // player plus one, and one change at the given gap (both written as varints)
+  ByteBuffer crafted(int player, int gap) {
+    SokobanLevel holes = new SokobanLevels().find("holes");
+    SokobanGrid grid = new SokobanGrid(holes.ground, holes.contents);
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    buffer.putInt(SokobanSnapshot.MAGIC);
+    SokobanSnapshot.putVarint(buffer, 5);
+    buffer.put("holes".getBytes(StandardCharsets.UTF_8));
+    SokobanSnapshot.putVarint(buffer, grid.width);
+    SokobanSnapshot.putVarint(buffer, grid.height);
+    SokobanSnapshot.putVarint(buffer, player);
+    SokobanSnapshot.putVarint(buffer, 2);
+    SokobanSnapshot.putVarint(buffer, 1);
+    buffer.put((byte) 0);
+    SokobanSnapshot.putVarint(buffer, gap);
+    buffer.put((byte) 0);
+    buffer.flip();
+    return buffer;
+  }
+
+  // tests that snapshots with locations or names out of range are refused
+  boolean testBounds_SokobanSnapshot(Tester t) {
+    ArrayList<SokobanLevel> levels = new ArrayList<SokobanLevel>();
+    SokobanSnapshot decoder = new SokobanSnapshot(null, (SokobanGrid) null);
+    IllegalArgumentException mismatch =
+        new IllegalArgumentException("Snapshot does not match level holes");
+    ByteBuffer longName = ByteBuffer.allocate(16);
+    longName.putInt(SokobanSnapshot.MAGIC);
+    SokobanSnapshot.putVarint(longName, Integer.MAX_VALUE);
+    longName.flip();
+    return t.checkExpect(SokobanSnapshot.decode(this.crafted(1, 2), levels).grid.player, 0)
+        && t.checkException(mismatch, decoder, "decode", this.crafted(1, Integer.MAX_VALUE),
+            levels)
+        && t.checkException(mismatch, decoder, "decode", this.crafted(1, -5), levels)
+        && t.checkException(mismatch, decoder, "decode", this.crafted(10000, 2), levels)
+        && t.checkException(mismatch, decoder, "decode", this.crafted(-1, 2), levels)
+        && t.checkException(new IllegalArgumentException("Not a Sokoban snapshot"), decoder,
+            "decode", longName, levels);
+  }
+
+  // tests that save and load go through a file
+  // (SokobanBench times them, as its saveLoad operation)
+  boolean testSaveLoad_SokobanSnapshot(Tester t) throws IOException {
+    Path file = Files.createTempFile("sokoban", ".skb");
+    SokobanLevel first = new SokobanLevels().find("first");
+    SokobanBoard board = first.toBoard().playerMove("right").playerMove("down");
+    SokobanSnapshot saved = new SokobanSnapshot(first, board);
+    saved.save(file);
+    SokobanSnapshot loaded = SokobanSnapshot.load(file, new ArrayList<SokobanLevel>());
+    long size = Files.size(file);
+    Files.delete(file);
+    return t.checkExpect(loaded.grid.key(), new SokobanGrid(board).key())
+        && t.checkExpect(size, (long) saved.encode().remaining());
+  }
+}
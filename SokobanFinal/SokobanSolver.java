@@ -0,0 +1,394 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import tester.Tester;
+
+// represents what a search for the solution of a level found
+class SolverResult {
+  // represents whether a solution was found within the budget
+  boolean solved;
+  // represents the directions of every move of the solution, walks included
+  ArrayList<String> moves;
+  // represents the number of pushes in the solution
+  int pushes;
+  // represents the number of states the search expanded
+  int expanded;
+  // represents the number of new states the expansions produced
+  int generated;
+
+  SolverResult(boolean solved, ArrayList<String> moves, int pushes, int expanded,
+      int generated) {
+    this.solved = solved;
+    this.moves = moves;
+    this.pushes = pushes;
+    this.expanded = expanded;
+    this.generated = generated;
+  }
+
+  // produces the average number of new states each expanded state led to
+  double branching() {
+    if (this.expanded == 0) {
+      return 0;
+    }
+    return (double) this.generated / this.expanded;
+  }
+}
+
+// represents a state the solver has seen: the contents of the grid, the smallest
+// location the player can walk to, and the push that led to it from its parent
+class SolverNode {
+  // represents the key of the state this one was pushed from, or null at the start
+  String parent;
+  // represents the contents of the grid in this state
+  char[] contents;
+  // represents the smallest location the player can walk to
+  int player;
+  // represents the location the player pushed from to get here (-1 at the start)
+  int pushFrom;
+  // represents the direction of that push (-1 at the start)
+  int direction;
+  // represents the number of pushes from the start
+  int pushes;
+
+  SolverNode(String parent, char[] contents, int player, int pushFrom, int direction,
+      int pushes) {
+    this.parent = parent;
+    this.contents = contents;
+    this.player = player;
+    this.pushFrom = pushFrom;
+    this.direction = direction;
+    this.pushes = pushes;
+  }
+}
+
+// finds a solution with the fewest pushes by a breadth first search over pushes,
+// where a state is the contents of the grid and the area the player can walk in,
+// never pushing a trophy onto a location from which it can reach no target of its color
+class SokobanSolver {
+  // represents the most states one search may expand
+  int budget;
+
+  SokobanSolver(int budget) {
+    if (budget < 1) {
+      throw new IllegalArgumentException("The solver needs a positive budget");
+    }
+    this.budget = budget;
+  }
+
+  // produces a solution for the given grid, or an unsolved result if there is
+  // none within the budget
+  SolverResult solve(SokobanGrid start) {
+    if (start.player == -1) {
+      return new SolverResult(false, new ArrayList<String>(), 0, 0, 0);
+    }
+    boolean[][] dead = this.deadSquares(start);
+    HashMap<String, SolverNode> seen = new HashMap<String, SolverNode>();
+    ArrayDeque<String> frontier = new ArrayDeque<String>();
+    SolverNode first = new SolverNode(null, start.contents, start.area(start.contents,
+        start.player), -1, -1, 0);
+    String firstKey = this.key(first.contents, first.player);
+    seen.put(firstKey, first);
+    frontier.add(firstKey);
+    int expanded = 0;
+    int generated = 0;
+    int batch = 0;
+    while (!frontier.isEmpty() && expanded < this.budget) {
+      String key = frontier.poll();
+      SolverNode node = seen.get(key);
+      if (this.isWon(start, node.contents)) {
+        this.recordBatch(batch, frontier.size(), seen.size());
+        return new SolverResult(true, this.moves(start, seen, key), node.pushes, expanded,
+            generated);
+      }
+      expanded += 1;
+      batch += 1;
+      boolean[] reach = start.reachable(node.contents, node.player);
+      // for every location the player can walk to, tries pushing in every direction
+      for (int at = 0; at < reach.length; at += 1) {
+        if (reach[at]) {
+          for (int direction = 0; direction < 4; direction += 1) {
+            SolverNode next = this.push(start, dead, key, node, at, direction);
+            if (next != null) {
+              String nextKey = this.key(next.contents, next.player);
+              if (!seen.containsKey(nextKey)) {
+                seen.put(nextKey, next);
+                frontier.add(nextKey);
+                generated += 1;
+              }
+            }
+          }
+        }
+      }
+      if (batch == 1024) {
+        this.recordBatch(batch, frontier.size(), seen.size());
+        batch = 0;
+      }
+    }
+    this.recordBatch(batch, frontier.size(), seen.size());
+    return new SolverResult(false, new ArrayList<String>(), 0, expanded, generated);
+  }
+
+  // produces the state after the player standing at the given location pushes
+  // in the given direction, or null if there is no piece there that can move
+  // (or the piece is a trophy that would land on a dead square)
+  SolverNode push(SokobanGrid grid, boolean[][] dead, String key, SolverNode node, int at,
+      int direction) {
+    int piece = grid.next(at, direction);
+    if (piece == -1 || !SokobanGrid.isPiece(node.contents[piece])) {
+      return null;
+    }
+    int beyond = grid.next(piece, direction);
+    if (beyond == -1 || (node.contents[beyond] != '_' && node.contents[beyond] != 'H')) {
+      return null;
+    }
+    char kind = node.contents[piece];
+    int color = "rgby".indexOf(kind);
+    if (node.contents[beyond] == '_' && color != -1 && dead[color][beyond]) {
+      return null;
+    }
+    char[] contents = node.contents.clone();
+    if (contents[beyond] == 'H') {
+      contents[beyond] = '_';
+    }
+    else {
+      contents[beyond] = kind;
+    }
+    contents[piece] = '_';
+    return new SolverNode(key, contents, grid.area(contents, piece), at, direction,
+        node.pushes + 1);
+  }
+
+  // produces a string that is the same for two states exactly when their
+  // pieces, holes and player area are the same
+  String key(char[] contents, int player) {
+    StringBuilder key = new StringBuilder();
+    for (int i = 0; i < contents.length; i += 1) {
+      if (contents[i] == 'H' || SokobanGrid.isPiece(contents[i])) {
+        SokobanGrid.appendIndex(key, i).append(contents[i]);
+      }
+    }
+    return SokobanGrid.appendIndex(key, player).toString();
+  }
+
+  // determines if every target of the given grid has its trophy in the given contents
+  boolean isWon(SokobanGrid grid, char[] contents) {
+    for (int i = 0; i < contents.length; i += 1) {
+      char g = grid.ground[i];
+      if (g != '_' && contents[i] != Character.toLowerCase(g)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // produces, for each color (red, green, blue, yellow), the locations a trophy of
+  // that color could never be pushed from onto a target of its color, even with
+  // every other piece gone (found by pulling backwards from each target)
+  // a color with no targets, or more trophies than targets, has no dead squares,
+  // since the trophies that are not needed may be pushed anywhere
+  boolean[][] deadSquares(SokobanGrid grid) {
+    boolean[][] dead = new boolean[4][grid.contents.length];
+    for (int color = 0; color < 4; color += 1) {
+      boolean[] live = new boolean[grid.contents.length];
+      ArrayDeque<Integer> pulled = new ArrayDeque<Integer>();
+      int trophies = 0;
+      for (int i = 0; i < grid.ground.length; i += 1) {
+        if (grid.ground[i] == "RGBY".charAt(color)) {
+          live[i] = true;
+          pulled.add(i);
+        }
+        if (grid.contents[i] == "rgby".charAt(color)) {
+          trophies += 1;
+        }
+      }
+      if (pulled.isEmpty() || trophies > pulled.size()) {
+        continue;
+      }
+      // pulls a trophy from every live location in every direction the player has room for
+      while (!pulled.isEmpty()) {
+        int at = pulled.poll();
+        for (int direction = 0; direction < 4; direction += 1) {
+          int to = grid.next(at, direction);
+          int player = -1;
+          if (to != -1) {
+            player = grid.next(to, direction);
+          }
+          if (player != -1 && !live[to] && grid.contents[to] != 'W'
+              && grid.contents[player] != 'W') {
+            live[to] = true;
+            pulled.add(to);
+          }
+        }
+      }
+      for (int i = 0; i < live.length; i += 1) {
+        dead[color][i] = !live[i] && grid.contents[i] != 'W';
+      }
+    }
+    return dead;
+  }
+
+  // produces the directions of every move from the start to the state with the
+  // given key: for every push, the walk to the pushing location and the push
+  ArrayList<String> moves(SokobanGrid start, HashMap<String, SolverNode> seen, String key) {
+    ArrayList<SolverNode> pushes = new ArrayList<SolverNode>();
+    String at = key;
+    while (seen.get(at).parent != null) {
+      pushes.add(seen.get(at));
+      at = seen.get(at).parent;
+    }
+    Collections.reverse(pushes);
+    ArrayList<String> result = new ArrayList<String>();
+    SokobanGrid grid = start.copy();
+    for (SolverNode node : pushes) {
+      for (int direction : this.walk(grid, node.pushFrom)) {
+        grid.move(direction);
+        result.add(SokobanGrid.DIRECTIONS[direction]);
+      }
+      grid.move(node.direction);
+      result.add(SokobanGrid.DIRECTIONS[node.direction]);
+    }
+    return result;
+  }
+
+  // produces the directions of a shortest walk over blanks from the player of the
+  // given grid to the given location (empty if the player is already there)
+  ArrayList<Integer> walk(SokobanGrid grid, int to) {
+    int[] from = new int[grid.contents.length];
+    Arrays.fill(from, -1);
+    ArrayDeque<Integer> frontier = new ArrayDeque<Integer>();
+    from[grid.player] = grid.player;
+    frontier.add(grid.player);
+    while (!frontier.isEmpty() && from[to] == -1) {
+      int at = frontier.poll();
+      for (int direction = 0; direction < 4; direction += 1) {
+        int next = grid.next(at, direction);
+        if (next != -1 && from[next] == -1 && grid.contents[next] == '_') {
+          from[next] = at;
+          frontier.add(next);
+        }
+      }
+    }
+    ArrayList<Integer> result = new ArrayList<Integer>();
+    int at = to;
+    while (at != grid.player) {
+      int previous = from[at];
+      for (int direction = 0; direction < 4; direction += 1) {
+        if (grid.next(previous, direction) == at) {
+          result.add(direction);
+        }
+      }
+      at = previous;
+    }
+    Collections.reverse(result);
+    return result;
+  }
+
+  // records a batch of expanded states as a flight recorder event
+  void recordBatch(int expanded, int frontier, int seen) {
+    SolverExpansionEvent event = new SolverExpansionEvent();
+    if (event.shouldCommit()) {
+      event.search = "solver";
+      event.expanded = expanded;
+      event.frontier = frontier;
+      event.seen = seen;
+      event.commit();
+    }
+  }
+}
+
+// tests and examples for SokobanSolver
+class ExamplesSokobanSolver {
+
+  // produces whether playing the given moves on a board of the given level wins it
+  boolean wins(SokobanLevel level, ArrayList<String> moves) {
+    SokobanBoard board = level.toBoard();
+    for (String move : moves) {
+      if (board.shouldEnd()) {
+        return false;
+      }
+      board = board.playerMove(move);
+    }
+    return board.levelWon();
+  }
+
+  // tests that solutions found by solve win the level on a real board
+  boolean testSolve_SokobanSolver(Tester t) {
+    SokobanLevel tiny = new SokobanLevel("tiny", "______\n" + "______\n" + "____R_",
+        "WWWWWW\n" + "W>___W\n" + "W_r__W");
+    SokobanLevel corner = new SokobanLevel("corner", "_____\n" + "_____\n" + "__R__",
+        "WWWWW\n" + "W>_rW\n" + "WWWWW");
+    SokobanLevel filled = new SokobanLevel("filled", "_______\n" + "____R__\n" + "_______",
+        "WWWWWWW\n" + "W>BH_rW\n" + "WWWWWWW");
+    SolverResult tinyResult = new SokobanSolver(1000).solve(
+        new SokobanGrid(tiny.ground, tiny.contents));
+    SolverResult cornerResult = new SokobanSolver(1000).solve(
+        new SokobanGrid(corner.ground, corner.contents));
+    SolverResult filledResult = new SokobanSolver(1000).solve(
+        new SokobanGrid(filled.ground, filled.contents));
+    return t.checkExpect(tinyResult.solved, true) && t.checkExpect(tinyResult.pushes, 2)
+        && t.checkExpect(this.wins(tiny, tinyResult.moves), true)
+        && t.checkExpect(cornerResult.solved, false) && t.checkExpect(cornerResult.expanded, 1)
+        && t.checkExpect(filledResult.solved, false)
+        && t.checkExpect(filledResult.generated, 1);
+  }
+
+  // tests that generated levels are solved in at most the pushes the generator reports
+  boolean testSolveGenerated_SokobanSolver(Tester t) {
+    SokobanGenerator generator = new SokobanGenerator(SokobanGenerator.layout(7, 7, 2), 2, 1,
+        2000);
+    boolean solved = true;
+    // solves the level made from each of a few seeds and plays the solution
+    for (long seed = 0; seed < 5; seed += 1) {
+      GeneratedLevel made = generator.generate(seed);
+      SolverResult result = new SokobanSolver(100000).solve(
+          new SokobanGrid(made.level.ground, made.level.contents));
+      solved = solved && result.solved && result.pushes <= made.pushes
+          && this.wins(made.level, result.moves);
+    }
+    return t.checkExpect(solved, true);
+  }
+
+  // tests and examples for deadSquares in SokobanSolver
+  boolean testDeadSquares_SokobanSolver(Tester t) {
+    SokobanGrid grid = new SokobanGrid("_____\n" + "_____\n" + "__R__\n" + "_____",
+        "WWWWW\n" + "W>__W\n" + "W___W\n" + "WWWWW");
+    boolean[][] dead = new SokobanSolver(1).deadSquares(grid);
+    return t.checkExpect(dead[0][6], true) && t.checkExpect(dead[0][7], true)
+        && t.checkExpect(dead[0][12], false) && t.checkExpect(dead[0][11], true)
+        && t.checkExpect(dead[0][0], false) && t.checkExpect(dead[1][7], false)
+        && t.checkConstructorException(
+            new IllegalArgumentException("The solver needs a positive budget"), "SokobanSolver",
+            0);
+  }
+
+  // tests that the keys of states on boards of more than 65535 locations tell
+  // pieces and players 65536 locations apart
+  boolean testKey_SokobanSolver(Tester t) {
+    char[] near = new char[70000];
+    char[] far = new char[70000];
+    Arrays.fill(near, '_');
+    Arrays.fill(far, '_');
+    near[1] = 'H';
+    far[65537] = 'H';
+    SokobanSolver solver = new SokobanSolver(1);
+    return t.checkExpect(solver.key(near, 2).equals(solver.key(far, 2)), false)
+        && t.checkExpect(solver.key(near, 2).equals(solver.key(near, 65538)), false)
+        && t.checkExpect(solver.key(near, 2), solver.key(near.clone(), 2));
+  }
+
+  // tests and examples for walk and branching
+  boolean testWalk_SokobanSolver(Tester t) {
+    SokobanGrid grid = new SokobanGrid("____\n" + "____\n" + "____",
+        "WWWW\n" + "W>_W\n" + "W__W");
+    ArrayList<Integer> path = new SokobanSolver(1).walk(grid, 10);
+    ArrayList<Integer> none = new SokobanSolver(1).walk(grid, 5);
+    return t.checkExpect(path.size(), 2) && t.checkExpect(none.size(), 0)
+        && t.checkExpect(new SolverResult(true, new ArrayList<String>(), 0, 4, 6).branching(),
+            1.5)
+        && t.checkExpect(new SolverResult(false, new ArrayList<String>(), 0, 0, 0).branching(),
+            0.0);
+  }
+}
@@ -0,0 +1,292 @@
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javalib.funworld.World;
+import javalib.funworld.WorldScene;
+import javalib.worldimages.FontStyle;
+import javalib.worldimages.Posn;
+import javalib.worldimages.TextImage;
+import tester.Tester;
+
+// represents a recorded game that can be looked at after any of its moves: a
+// snapshot of the board every interval moves (stored as SokobanSnapshot stores
+// it, as the difference from the start of the level) and every move as one byte,
+// its direction number, as MoveJournal writes it
+// (the board after any move is the snapshot before it with at most interval - 1
+// moves replayed, so seeking costs the same anywhere in a long game)
+class ReplayTimeline {
+  // represents the level the game is played on
+  SokobanLevel level;
+  // represents the number of moves between two snapshots
+  int interval;
+  // represents the start of the level
+  SokobanGrid start;
+  // represents the board after the last move
+  SokobanGrid head;
+  // represents the direction number of every move, in order
+  byte[] moves = new byte[64];
+  // represents the number of moves
+  int length;
+  // represents the snapshot after every interval moves, the first being the start
+  ArrayList<ByteBuffer> keyframes = new ArrayList<ByteBuffer>();
+
+  ReplayTimeline(SokobanLevel level, int interval) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("The keyframe interval must be positive");
+    }
+    this.level = level;
+    this.interval = interval;
+    this.start = new SokobanGrid(level.ground, level.contents);
+    this.head = this.start.copy();
+    this.keyframes.add(new SokobanSnapshot(level, this.head).encode(this.start));
+  }
+
+  // EFFECT: adds a move in the given direction number to the end of this timeline
+  void add(int direction) {
+    if (direction < 0 || direction >= SokobanGrid.DIRECTIONS.length) {
+      throw new IllegalArgumentException("There is no direction " + direction);
+    }
+    if (this.length == this.moves.length) {
+      this.moves = Arrays.copyOf(this.moves, this.length * 2);
+    }
+    this.moves[this.length] = (byte) direction;
+    this.length += 1;
+    this.head.move(direction);
+    if (this.length % this.interval == 0) {
+      this.keyframes.add(new SokobanSnapshot(this.level, this.head).encode(this.start));
+    }
+  }
+
+  // EFFECT: adds a move in the given direction to the end of this timeline
+  void add(String direction) {
+    this.add(SokobanGrid.direction(direction));
+  }
+
+  // produces the board after the given number of moves, as a grid of its own
+  SokobanGrid seek(int move) {
+    if (move < 0 || move > this.length) {
+      throw new IllegalArgumentException("Move " + move + " is not in the timeline");
+    }
+    ByteBuffer keyframe = this.keyframes.get(move / this.interval).duplicate();
+    SokobanSnapshot.name(keyframe);
+    SokobanGrid result = SokobanSnapshot.changes(keyframe, this.level, this.start.copy());
+    // replays the moves since the snapshot
+    for (int i = move - move % this.interval; i < move; i += 1) {
+      result.move(this.moves[i]);
+    }
+    return result;
+  }
+
+  // produces the board after the given number of moves, ready to be drawn or played
+  SokobanBoard board(int move) {
+    SokobanGrid grid = this.seek(move);
+    return new SokobanBoard(grid.groundString(), grid.contentsString());
+  }
+
+  // produces the timeline of the game journalled in the given file (see
+  // MoveJournal), its level found among the given levels or SokobanLevels.named
+  // (a last move torn by a crash is ignored)
+  static ReplayTimeline read(Path file, ArrayList<SokobanLevel> levels, int interval)
+      throws IOException {
+    ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(file));
+    ReplayTimeline result = new ReplayTimeline(MoveJournal.level(journal, levels), interval);
+    for (int direction = MoveJournal.nextMove(journal); direction != -1;
+        direction = MoveJournal.nextMove(journal)) {
+      result.add(direction);
+    }
+    return result;
+  }
+
+  // writes the frame of a journalled game after one move to a PNG file
+  // java ReplayTimeline <journal> <move> [-o frame.png] [-tile 120]
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("java ReplayTimeline <journal> <move> [-o frame.png] [-tile 120]");
+      return;
+    }
+    String out = "frame.png";
+    int tile = SpriteAtlas.NATIVE_TILE;
+    // reads every flag after the journal and the move along with its value
+    for (int i = 2; i + 1 < args.length; i += 2) {
+      if (args[i].equals("-o")) {
+        out = args[i + 1];
+      }
+      else if (args[i].equals("-tile")) {
+        tile = Integer.parseInt(args[i + 1]);
+      }
+      else {
+        throw new IllegalArgumentException("Unknown replay option " + args[i]);
+      }
+    }
+    ReplayTimeline timeline = ReplayTimeline.read(Paths.get(args[0]),
+        new ArrayList<SokobanLevel>(), 64);
+    BoardRenderer renderer = new BoardRenderer(SpriteAtlas.sized(tile));
+    renderer.writePng(renderer.render(timeline.seek(Integer.parseInt(args[1]))), Paths.get(out));
+  }
+}
+
+// represents a world for scrubbing through a recorded game: the board after the
+// move at its cursor, drawn as a SokobanWorld draws it, with the right and left
+// keys going one move forward and back, the up and down keys one interval
+// forward and back, and a click going to the same fraction of the game as the
+// fraction of the width clicked
+class ReplayWorld extends World {
+  // represents the game being scrubbed through
+  ReplayTimeline timeline;
+  // represents the number of moves shown
+  int cursor;
+  // represents the world drawing the board after those moves
+  SokobanWorld shown;
+
+  ReplayWorld(ReplayTimeline timeline, int cursor, int tile) {
+    this.timeline = timeline;
+    this.cursor = Math.max(0, Math.min(cursor, timeline.length));
+    this.shown = new SokobanWorld(timeline.board(this.cursor)).withTile(tile);
+  }
+
+  // draws the board after the moves at the cursor, and the cursor
+  public WorldScene makeScene() {
+    WorldScene scene = this.shown.makeScene();
+    return scene.placeImageXY(new TextImage(this.cursor + " / " + this.timeline.length, 16,
+        FontStyle.BOLD, Color.BLACK), scene.width / 2, 12);
+  }
+
+  // moves the cursor by the given key
+  public World onKeyEvent(String key) {
+    if (key.equals("right")) {
+      return this.moveTo(this.cursor + 1);
+    }
+    else if (key.equals("left")) {
+      return this.moveTo(this.cursor - 1);
+    }
+    else if (key.equals("up")) {
+      return this.moveTo(this.cursor + this.timeline.interval);
+    }
+    else if (key.equals("down")) {
+      return this.moveTo(this.cursor - this.timeline.interval);
+    }
+    else {
+      return this;
+    }
+  }
+
+  // moves the cursor to the fraction of the game clicked
+  public World onMouseClicked(Posn pos) {
+    int width = this.shown.boardState.size.x * this.shown.tile;
+    return this.moveTo((int) ((long) pos.x * this.timeline.length / Math.max(1, width - 1)));
+  }
+
+  // produces this world with its cursor at the given move, kept in the game
+  ReplayWorld moveTo(int move) {
+    int cursor = Math.max(0, Math.min(move, this.timeline.length));
+    if (cursor == this.cursor) {
+      return this;
+    }
+    return new ReplayWorld(this.timeline, cursor, this.shown.tile);
+  }
+}
+
+// tests and examples for ReplayTimeline and ReplayWorld
+class ExamplesReplayTimeline {
+  String moves = "rrdlurrddlluurrddrllur";
+
+  // produces a timeline of the moves on the holes level, with the given interval
+  ReplayTimeline timeline(int interval) {
+    ReplayTimeline result = new ReplayTimeline(new SokobanLevels().find("holes"), interval);
+    for (char move : this.moves.toCharArray()) {
+      result.add("rlud".indexOf(move));
+    }
+    return result;
+  }
+
+  // produces the key of the grid after the given number of the moves, by playing
+  // them from the start
+  String played(int count) {
+    SokobanGrid grid = new SokobanGrid(new SokobanLevels().find("holes").ground,
+        new SokobanLevels().find("holes").contents);
+    for (int i = 0; i < count; i += 1) {
+      grid.move("rlud".indexOf(this.moves.charAt(i)));
+    }
+    return grid.key();
+  }
+
+  // tests that seeking anywhere gives the board of replaying from the start
+  boolean testSeek_ReplayTimeline(Tester t) {
+    ReplayTimeline every = this.timeline(1);
+    ReplayTimeline five = this.timeline(5);
+    ReplayTimeline whole = this.timeline(100);
+    boolean same = true;
+    for (int move = 0; move <= this.moves.length(); move += 1) {
+      same = same && every.seek(move).key().equals(this.played(move))
+          && five.seek(move).key().equals(this.played(move))
+          && whole.seek(move).key().equals(this.played(move));
+    }
+    return t.checkExpect(same, true) && t.checkExpect(five.keyframes.size(), 5)
+        && t.checkExpect(every.keyframes.size(), this.moves.length() + 1)
+        && t.checkExpect(five.head.key(), this.played(this.moves.length()))
+        && t.checkExpect(new SokobanGrid(five.board(7)).key(), this.played(7))
+        && t.checkException(new IllegalArgumentException("Move 23 is not in the timeline"),
+            five, "seek", 23)
+        && t.checkException(new IllegalArgumentException("There is no direction 4"), five,
+            "add", 4)
+        && t.checkConstructorException(
+            new IllegalArgumentException("The keyframe interval must be positive"),
+            "ReplayTimeline", new SokobanLevels().find("holes"), 0);
+  }
+
+  // tests that a journalled game is read into a timeline
+  boolean testRead_ReplayTimeline(Tester t) throws IOException {
+    Path file = Files.createTempFile("sokoban", ".skj");
+    Files.delete(file);
+    MoveJournal journal = new MoveJournal(file, new SokobanLevels().find("holes"), 60000);
+    for (char move : this.moves.toCharArray()) {
+      journal.append(SokobanGrid.DIRECTIONS["rlud".indexOf(move)]);
+    }
+    journal.close();
+    ReplayTimeline read = ReplayTimeline.read(file, new ArrayList<SokobanLevel>(), 4);
+    Files.write(file, new byte[] { 0x53, 0x4B, 0x4A, 0x31, 0x7F, 'h' });
+    boolean shortName = t.checkException(
+        new IllegalArgumentException("Not a Sokoban move journal"), read, "read", file,
+        new ArrayList<SokobanLevel>(), 4);
+    Files.delete(file);
+    return t.checkExpect(read.length, this.moves.length())
+        && t.checkExpect(read.seek(9).key(), this.played(9)) && shortName;
+  }
+
+  // tests that a replay world moves its cursor and draws as SokobanWorld does
+  boolean testWorld_ReplayWorld(Tester t) {
+    ReplayWorld world = new ReplayWorld(this.timeline(5), 0, 40);
+    ReplayWorld forward = (ReplayWorld) world.onKeyEvent("right");
+    ReplayWorld jump = (ReplayWorld) forward.onKeyEvent("up");
+    ReplayWorld back = (ReplayWorld) jump.onKeyEvent("left");
+    ReplayWorld end = (ReplayWorld) world.onMouseClicked(new Posn(7 * 40 - 1, 10));
+    return t.checkExpect(forward.cursor, 1) && t.checkExpect(jump.cursor, 6)
+        && t.checkExpect(back.cursor, 5) && t.checkExpect(end.cursor, this.moves.length())
+        && t.checkExpect(world.onKeyEvent("left"), world)
+        && t.checkExpect(world.onKeyEvent("x"), world)
+        && t.checkExpect(new SokobanGrid(jump.shown.boardState).key(), this.played(6))
+        && t.checkExpect(jump.makeScene(),
+            new SokobanWorld(this.timeline(5).board(6)).withTile(40).makeScene().placeImageXY(
+                new TextImage("6 / 22", 16, FontStyle.BOLD, Color.BLACK), 7 * 40 / 2, 12));
+  }
+}
+
+// scrubs through a game of the holes level, starting at its end
+class ExamplesSokobanWorldReplay {
+  boolean testsWorld(Tester t) {
+    ReplayTimeline timeline = new ReplayTimeline(new SokobanLevels().find("holes"), 4);
+    for (char move : "rrdlurrddlluurrddrllur".toCharArray()) {
+      timeline.add("rlud".indexOf(move));
+    }
+    SokobanBoard board = timeline.board(0);
+    ReplayWorld world = new ReplayWorld(timeline, timeline.length, 80);
+
+    return world.bigBang(board.size.x * 80, board.size.y * 80, 0.1);
+  }
+}
@@ -0,0 +1,230 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import tester.Tester;
+
+// checks levels for the mistakes that otherwise only show up as exceptions deep in
+// Utils once the level is played: rows of the wrong size, characters Utils.makeCell
+// does not know, a missing or second player, targets without enough trophies of
+// their color, trophies of a color without targets, and places where the player
+// can walk off the board through a gap in the outer wall
+// (one pass over every location, and one walk over the locations the player can
+// reach, so checking a whole pack at startup costs about as much as reading it)
+class LevelValidator {
+  // the names of the colors of "rgby"
+  static final String[] COLORS = { "red", "green", "blue", "yellow" };
+
+  // produces every error of the given level, each as "(x, y): message" with the
+  // coordinates of the location counting from 1, as Posn does
+  ArrayList<String> check(SokobanLevel level) {
+    ArrayList<String> errors = new ArrayList<String>();
+    String[] ground = level.ground.split("\n", -1);
+    String[] contents = level.contents.split("\n", -1);
+    if (ground.length != contents.length) {
+      errors.add("(1, 1): the ground has " + ground.length + " rows but the contents has "
+          + contents.length);
+    }
+    int height = Math.min(ground.length, contents.length);
+    int width = contents[0].length();
+    boolean[] open = new boolean[width * height];
+    int player = -1;
+    int[] targets = new int[4];
+    int[] trophies = new int[4];
+    ArrayList<ArrayList<String>> targetsAt = new ArrayList<ArrayList<String>>();
+    ArrayList<ArrayList<String>> trophiesAt = new ArrayList<ArrayList<String>>();
+    for (int color = 0; color < 4; color += 1) {
+      targetsAt.add(new ArrayList<String>());
+      trophiesAt.add(new ArrayList<String>());
+    }
+    // looks at every location once
+    for (int y = 0; y < height; y += 1) {
+      this.checkWidth(errors, "ground", ground[y], y, width);
+      this.checkWidth(errors, "contents", contents[y], y, width);
+      for (int x = 0; x < width; x += 1) {
+        String at = LevelValidator.at(x, y);
+        char g = '_';
+        char c = '_';
+        if (x < ground[y].length()) {
+          g = ground[y].charAt(x);
+        }
+        if (x < contents[y].length()) {
+          c = contents[y].charAt(x);
+        }
+        if ("_RGBY".indexOf(g) == -1) {
+          errors.add(at + ": the ground holds '" + g + "', which is not a cell");
+        }
+        if ("_WBHrgby><^vRGY".indexOf(c) == -1) {
+          errors.add(at + ": the contents holds '" + c + "', which is not a cell");
+        }
+        if ("RGBY".indexOf(g) != -1) {
+          targets["RGBY".indexOf(g)] += 1;
+          targetsAt.get("RGBY".indexOf(g)).add(at);
+        }
+        if ("rgby".indexOf(c) != -1) {
+          trophies["rgby".indexOf(c)] += 1;
+          trophiesAt.get("rgby".indexOf(c)).add(at);
+        }
+        if ("><^v".indexOf(c) != -1) {
+          if (player == -1) {
+            player = y * width + x;
+          }
+          else {
+            errors.add(at + ": a second player");
+          }
+        }
+        open[y * width + x] = c != 'W';
+      }
+    }
+    if (player == -1) {
+      errors.add("(1, 1): there is no player");
+    }
+    // compares the targets and trophies of every color
+    for (int color = 0; color < 4; color += 1) {
+      if (targets[color] > trophies[color]) {
+        errors.add(targetsAt.get(color).get(0) + ": " + targets[color] + " " + COLORS[color]
+            + " targets (at " + String.join(", ", targetsAt.get(color)) + ") but "
+            + trophies[color] + " " + COLORS[color] + " trophies");
+      }
+      else if (targets[color] == 0) {
+        for (String at : trophiesAt.get(color)) {
+          errors.add(at + ": a " + COLORS[color] + " trophy but no " + COLORS[color]
+              + " target");
+        }
+      }
+    }
+    if (player != -1) {
+      this.checkWalls(errors, open, width, height, player);
+    }
+    return errors;
+  }
+
+  // EFFECT: adds an error to the given errors if the given row of the given layer
+  // is not the given width
+  void checkWidth(ArrayList<String> errors, String layer, String row, int y, int width) {
+    if (row.length() != width) {
+      errors.add(LevelValidator.at(0, y) + ": row " + (y + 1) + " of the " + layer + " is "
+          + row.length() + " wide, not " + width);
+    }
+  }
+
+  // EFFECT: adds an error to the given errors for every location on the edge of
+  // the board that the player can walk to from the given location over the given
+  // open locations (pushing nothing, since pieces may move out of the way)
+  void checkWalls(ArrayList<String> errors, boolean[] open, int width, int height, int player) {
+    int[][] neighbours = SokobanGrid.neighbours(width, height, new boolean[open.length]);
+    boolean[] reach = new boolean[open.length];
+    int[] stack = new int[open.length];
+    int size = 0;
+    reach[player] = true;
+    stack[size] = player;
+    size += 1;
+    while (size > 0) {
+      size -= 1;
+      int at = stack[size];
+      int x = at % width;
+      int y = at / width;
+      if (x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+        errors.add(LevelValidator.at(x, y) + ": the player can walk off the board here, through"
+            + " a gap in the outer wall");
+      }
+      for (int direction = 0; direction < 4; direction += 1) {
+        int next = neighbours[direction][at];
+        if (next != -1 && open[next] && !reach[next]) {
+          reach[next] = true;
+          stack[size] = next;
+          size += 1;
+        }
+      }
+    }
+  }
+
+  // produces the coordinates of the given location, counting from 1
+  static String at(int x, int y) {
+    return "(" + (x + 1) + ", " + (y + 1) + ")";
+  }
+
+  // EFFECT: throws an exception listing every error of every given level, by the
+  // name of the level, if there are any
+  void checkAll(ArrayList<SokobanLevel> levels) {
+    StringBuilder report = new StringBuilder();
+    for (SokobanLevel level : levels) {
+      for (String error : this.check(level)) {
+        report.append("\n").append(level.name).append(" ").append(error);
+      }
+    }
+    if (report.length() > 0) {
+      throw new IllegalArgumentException("Invalid levels:" + report);
+    }
+  }
+
+  // produces the levels in the given level file, once every one of them is checked
+  ArrayList<SokobanLevel> read(Path file) throws IOException {
+    ArrayList<SokobanLevel> result = new SokobanLevels().read(file);
+    this.checkAll(result);
+    return result;
+  }
+}
+
+// tests and examples for LevelValidator
+class ExamplesLevelValidator {
+
+  // tests that the levels that ship with the game and rooms have no errors
+  boolean testValid_LevelValidator(Tester t) {
+    ArrayList<SokobanLevel> levels = new SokobanLevels().examples();
+    levels.add(new SokobanLevels().room(5));
+    levels.add(new SokobanLevels().room(30));
+    boolean valid = true;
+    for (SokobanLevel level : levels) {
+      valid = valid && new LevelValidator().check(level).isEmpty();
+    }
+    return t.checkExpect(valid, true);
+  }
+
+  // tests and examples for the errors of check in LevelValidator
+  boolean testCheck_LevelValidator(Tester t) {
+    ArrayList<String> noPlayer = new LevelValidator().check(new SokobanLevel("a",
+        "___\n" + "_R_\n" + "___", "WWW\n" + "WrW\n" + "WWW"));
+    ArrayList<String> colors = new LevelValidator().check(new SokobanLevel("b",
+        "_____\n" + "_RR__\n" + "_____", "WWWWW\n" + "W>rgW\n" + "WWWWW"));
+    ArrayList<String> gap = new LevelValidator().check(new SokobanLevel("c",
+        "____\n" + "____\n" + "____", "WWWW\n" + ">__W\n" + "WW_W"));
+    ArrayList<String> sizes = new LevelValidator().check(new SokobanLevel("d",
+        "___\n" + "__\n" + "___", "WWW\n" + "W>W\n" + "WWW\n" + "WWW"));
+    ArrayList<String> cells = new LevelValidator().check(new SokobanLevel("e",
+        "___\n" + "_X_\n" + "___", "WWW\n" + "W>?\n" + "W>W"));
+    return t.checkExpect(noPlayer.size(), 1)
+        && t.checkExpect(noPlayer.get(0), "(1, 1): there is no player")
+        && t.checkExpect(colors.size(), 2)
+        && t.checkExpect(colors.get(0),
+            "(2, 2): 2 red targets (at (2, 2), (3, 2)) but 1 red trophies")
+        && t.checkExpect(colors.get(1), "(4, 2): a green trophy but no green target")
+        && t.checkExpect(gap.size(), 2)
+        && t.checkExpect(gap.get(0),
+            "(1, 2): the player can walk off the board here, through a gap in the outer wall")
+        && t.checkExpect(gap.get(1).startsWith("(3, 3): "), true)
+        && t.checkExpect(sizes.get(0), "(1, 1): the ground has 3 rows but the contents has 4")
+        && t.checkExpect(sizes.get(1), "(1, 2): row 2 of the ground is 2 wide, not 3")
+        && t.checkExpect(cells.contains("(2, 2): the ground holds 'X', which is not a cell"), true)
+        && t.checkExpect(cells.contains("(3, 2): the contents holds '?', which is not a cell"),
+            true)
+        && t.checkExpect(cells.contains("(2, 3): a second player"), true);
+  }
+
+  // tests and examples for checkAll and read in LevelValidator
+  boolean testRead_LevelValidator(Tester t) throws IOException {
+    Path file = Files.createTempFile("levels", ".txt");
+    ArrayList<SokobanLevel> levels = new SokobanLevels().examples();
+    new SokobanLevels().write(levels, file);
+    ArrayList<SokobanLevel> read = new LevelValidator().read(file);
+    levels.add(new SokobanLevel("broken", "___\n" + "___", "W_W\n" + "WWW"));
+    new SokobanLevels().write(levels, file);
+    boolean result = t.checkExpect(read, new SokobanLevels().examples())
+        && t.checkException(
+            new IllegalArgumentException("Invalid levels:\n" + "broken (1, 1): there is no player"),
+            new LevelValidator(), "read", file);
+    Files.delete(file);
+    return result;
+  }
+}
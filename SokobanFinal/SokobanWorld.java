@@ -1,4 +1,8 @@
 import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 
 import javalib.funworld.World;
@@ -10,42 +14,295 @@ import javalib.worldimages.*;
 class SokobanWorld extends World {
   // represents the state of the Sokoban board
   SokobanBoard boardState;
+  // represents the keys pressed since the last tick when this world applies
+  // moves in batches, or null when every key is applied as soon as it is pressed
+  MoveQueue pending;
+  // represents the scene drawn for boardState, once it has been drawn
+  // (only kept in batches, where many events arrive between two boards)
+  WorldScene scene;
+  // represents the location of the box or trophy the player clicked to move
+  // with the next click, or null if none is picked
+  Posn selected;
+  // represents the macro move planner for boardState, once it has been asked for
+  MacroPlanner planner;
+  // represents the journal every move applied to this world is written to, or
+  // null if the moves are not journalled
+  MoveJournal journal;
+  // represents the width and height of every tile this world is drawn with
+  int tile = SpriteAtlas.NATIVE_TILE;
+  // represents the camera that shows a window of the board, or null if the whole
+  // board is shown
+  Camera camera;
+  // represents the spatial index of boardState, once it has been asked for
+  BoardIndex index;
+  // represents the campaign this world plays the levels of, or null if it only
+  // plays its board
+  Campaign campaign;
 
   SokobanWorld(SokobanBoard boardState) {
     this.boardState = boardState;
   }
 
+  // constructor for a world that plays the given campaign from its first level,
+  // moving on to the next level in the same world once a level is won
+  SokobanWorld(Campaign campaign) {
+    this.boardState = campaign.start(0);
+    this.campaign = campaign;
+  }
+
+  // constructor for a world that queues keys in the given queue and applies
+  // them to its board once a tick
+  SokobanWorld(SokobanBoard boardState, MoveQueue pending) {
+    this.boardState = boardState;
+    this.pending = pending;
+  }
+
+  // produces a world of this board that applies the keys pressed between two
+  // ticks as one batch, drawing the board once at the end of the batch
+  SokobanWorld batched() {
+    return new SokobanWorld(this.boardState, new MoveQueue());
+  }
+
+  // produces this world writing every move applied to it, and to the worlds it
+  // leads to, to the given journal
+  SokobanWorld journaled(MoveJournal journal) {
+    SokobanWorld result = new SokobanWorld(this.boardState, this.pending);
+    result.journal = journal;
+    return result;
+  }
+
+  // produces this world drawn with tiles of the given size, from sprites scaled to
+  // that size once (see SpriteAtlas.fit for a size that fits a screen)
+  SokobanWorld withTile(int tile) {
+    if (tile <= 0) {
+      throw new IllegalArgumentException("The tile size must be positive");
+    }
+    SokobanWorld result = this.next(this.boardState);
+    result.tile = tile;
+    return result;
+  }
+
+  // produces this world shown through the given camera, which draws only the
+  // cells around the player (null to show the whole board)
+  SokobanWorld withCamera(Camera camera) {
+    SokobanWorld result = this.next(this.boardState);
+    result.camera = camera;
+    return result;
+  }
+
+  // produces the world after this one with the given board, queueing,
+  // journalling and drawing its moves like this one
+  SokobanWorld next(SokobanBoard board) {
+    SokobanWorld result = new SokobanWorld(board, this.pending);
+    result.journal = this.journal;
+    result.tile = this.tile;
+    result.camera = this.camera;
+    result.campaign = this.campaign;
+    return result;
+  }
+
+  // produces the spatial index of this world's board, making it the first time
+  // it is asked for
+  BoardIndex index() {
+    if (this.index == null) {
+      this.index = new BoardIndex(this.boardState);
+    }
+    return this.index;
+  }
+
   // renders this world's board into a scene
   public WorldScene makeScene() {
-    return this.boardState.render();
+    if (this.pending == null) {
+      return this.draw();
+    }
+    else {
+      if (this.scene == null) {
+        this.scene = this.draw();
+      }
+      return this.scene;
+    }
+  }
+
+  // renders this world's board: all of it, or only the window its camera shows
+  WorldScene draw() {
+    if (this.camera == null) {
+      return this.boardState.render(this.tile);
+    }
+    else {
+      return this.camera.render(this.index(), this.tile);
+    }
   }
 
   // allows the player to move around based on a key input
   // by producing a new world based on their input
   // stops when player is not found (fell into black hole) OR when level is won
+  // (a batched world only queues the key until the next tick)
   public World onKeyEvent(String key) {
-    if (this.boardState.shouldEnd()) {
-      if (this.boardState.levelWon()) {
-        return this.endOfWorld("Level Won");
+    long start = SokobanMetrics.REGISTRY.start();
+    World result;
+    if (this.pending == null) {
+      result = this.handleKey(key);
+    }
+    else {
+      this.pending.add(key);
+      result = this;
+    }
+    SokobanMetrics.REGISTRY.stop(SokobanMetrics.REGISTRY.keyEvent, start);
+    return result;
+  }
+
+  // applies every key queued since the last tick, in order, with the same rules
+  // as handleKey: a key pressed once the level should end ends the world,
+  // and the board is only drawn again once the whole batch is applied
+  public World onTick() {
+    if (this.pending == null) {
+      return this;
+    }
+    ArrayList<String> keys = this.pending.drain();
+    if (keys.isEmpty()) {
+      return this;
+    }
+    return this.play(keys);
+  }
+
+  // moves the player along a shortest route to the clicked location:
+  // clicking a blank walks there, clicking a box or trophy picks it, and the
+  // next click pushes the picked piece to the clicked location with the fewest
+  // pushes (a location the player or piece cannot get to only drops the pick)
+  public World onMouseClicked(Posn pos) {
+    Posn origin = new Posn(0, 0);
+    if (this.camera != null) {
+      origin = this.camera.origin(this.index());
+    }
+    Posn clicked = new Posn(pos.x / this.tile + 1 + origin.x, pos.y / this.tile + 1 + origin.y);
+    if (this.boardState.shouldEnd() || clicked.x < 1 || clicked.y < 1
+        || clicked.x > this.boardState.size.x || clicked.y > this.boardState.size.y) {
+      return this;
+    }
+    int index = (clicked.y - 1) * this.boardState.size.x + (clicked.x - 1);
+    ArrayList<String> route;
+    if (this.selected != null) {
+      route = this.planner().pushRoute(
+          (this.selected.y - 1) * this.boardState.size.x + (this.selected.x - 1), index);
+    }
+    else if (SokobanGrid.isPiece(this.planner().grid.contents[index])) {
+      return this.pick(clicked);
+    }
+    else {
+      route = this.planner().walkRoute(index);
+    }
+    if (route == null || route.isEmpty()) {
+      return this.pick(null);
+    }
+    else if (this.pending != null) {
+      for (String direction : route) {
+        this.pending.add(direction);
       }
-      else {
-        return this.endOfWorld("Level Lost");
+      return this.pick(null);
+    }
+    else {
+      return this.play(route);
+    }
+  }
+
+  // produces this world with the given piece picked (null for none), keeping what
+  // has already been drawn and planned for its board
+  SokobanWorld pick(Posn selected) {
+    SokobanWorld result = this.next(this.boardState);
+    result.selected = selected;
+    result.scene = this.scene;
+    result.planner = this.planner;
+    result.index = this.index;
+    return result;
+  }
+
+  // produces the macro move planner for this world's board, making it the first
+  // time it is asked for
+  MacroPlanner planner() {
+    if (this.planner == null) {
+      this.planner = new MacroPlanner(new SokobanGrid(this.boardState));
+    }
+    return this.planner;
+  }
+
+  // produces the world after pressing the given keys in order, checking before
+  // every key whether the level has ended, as handleKey does
+  World play(ArrayList<String> keys) {
+    SokobanBoard board = this.boardState;
+    // for every queued key, checks whether the level has ended and otherwise moves
+    for (String key : keys) {
+      String direction = new Utils().keyDirection(key);
+      if (board.shouldEnd()) {
+        return this.next(board).endBoard();
+      }
+      else if (!direction.isEmpty()) {
+        board = board.playerMove(direction);
+        this.record(direction);
       }
     }
-    else if (key.equals(">") || key.equals("d") || key.equals("right")) {
-      return new SokobanWorld(this.boardState.playerMove("right"));
+    return this.next(board);
+  }
+
+  // produces the world after handling the given key
+  World handleKey(String key) {
+    if (this.boardState.shouldEnd()) {
+      return this.endBoard();
+    }
+    else if (new Utils().keyDirection(key).isEmpty()) {
+      return this;
     }
-    else if ((key.equals("<") || key.equals("a")) || key.equals("left")) {
-      return new SokobanWorld(this.boardState.playerMove("left"));
+    else {
+      String direction = new Utils().keyDirection(key);
+      this.record(direction);
+      return this.next(this.boardState.playerMove(direction));
     }
-    else if ((key.equals("^") || key.equals("w")) || key.equals("up")) {
-      return new SokobanWorld(this.boardState.playerMove("up"));
+  }
+
+  // EFFECT: writes the given direction to this world's journal, if it has one
+  // (the journal only buffers it, writing to disk on its own thread), and counts
+  // it in this world's campaign, if it has one
+  void record(String direction) {
+    if (this.journal != null) {
+      this.journal.append(direction);
     }
-    else if ((key.equals("v") || key.equals("s")) || key.equals("down")) {
-      return new SokobanWorld(this.boardState.playerMove("down"));
+    if (this.campaign != null) {
+      this.campaign.record(direction);
+    }
+  }
+
+  // ends this world as won or lost, depending on how its board ended, recording
+  // that the level ended
+  // (a campaign world goes on with the board its campaign gives it instead, and
+  // only ends once the last level is won)
+  World endBoard() {
+    String outcome = "Level Lost";
+    if (this.boardState.levelWon()) {
+      outcome = "Level Won";
+    }
+    this.recordEnd(outcome);
+    if (this.campaign != null) {
+      SokobanBoard board = this.campaign.finish(this.boardState.levelWon());
+      if (board != null) {
+        return this.next(board);
+      }
+      else {
+        return this.endOfWorld("Campaign Won");
+      }
     }
     else {
-      return this;
+      return this.endOfWorld(outcome);
+    }
+  }
+
+  // EFFECT: records that the level of this world's board ended with the given
+  // outcome, if a recording is listening for it
+  void recordEnd(String outcome) {
+    LevelEndEvent event = new LevelEndEvent();
+    if (event.shouldCommit()) {
+      event.outcome = outcome;
+      event.width = this.boardState.size.x;
+      event.height = this.boardState.size.y;
+      event.commit();
     }
   }
 
@@ -54,7 +311,31 @@ class SokobanWorld extends World {
   // appropriate size
   // to ensure no field of field access
   public WorldScene lastScene(String msg) {
-    return this.boardState.lastScene(msg);
+    if (this.camera == null) {
+      return this.boardState.lastScene(msg, this.tile);
+    }
+    else {
+      return this.camera.lastScene(msg, this.tile);
+    }
+  }
+}
+
+// represents the keys pressed on a batched SokobanWorld that have not been applied yet
+// (key events and ticks may arrive on different threads, so every access is synchronized)
+class MoveQueue {
+  // represents the keys in the order they were pressed
+  ArrayList<String> keys = new ArrayList<String>();
+
+  // EFFECT: adds the given key to the end of this queue
+  synchronized void add(String key) {
+    this.keys.add(key);
+  }
+
+  // produces every key in this queue, in order, leaving it empty
+  synchronized ArrayList<String> drain() {
+    ArrayList<String> result = this.keys;
+    this.keys = new ArrayList<String>();
+    return result;
   }
 }
 
@@ -196,6 +477,97 @@ class ExamplesSokobanWorld {
         && t.checkExpect(shortExW0.onKeyEvent("pizza"), shortExW0);
   }
 
+  // tests and examples for batched, onKeyEvent and onTick on a batched SokobanWorld
+  boolean testBatched_SokobanWorld(Tester t) {
+    SokobanLevel holes = new SokobanLevels().find("holes");
+    SokobanWorld immediate = new SokobanWorld(holes.toBoard());
+    SokobanWorld batched = new SokobanWorld(holes.toBoard()).batched();
+    String[] keys = { "right", "d", "pizza", "down", "left", "up", "up" };
+    boolean queued = true;
+    // presses every key on both worlds
+    for (String key : keys) {
+      immediate = (SokobanWorld) immediate.onKeyEvent(key);
+      queued = queued && batched.onKeyEvent(key) == batched;
+    }
+    String before = new Utils().levelString(batched.boardState.levelContentsCells, new Posn(7, 7));
+    SokobanWorld ticked = (SokobanWorld) batched.onTick();
+    return t.checkExpect(queued, true) && t.checkExpect(before, holes.contents)
+        && t.checkExpect(ticked.boardState, immediate.boardState)
+        && t.checkExpect(ticked.pending.keys.size(), 0)
+        && t.checkExpect(ticked.onTick() == ticked, true)
+        && t.checkExpect(ticked.makeScene() == ticked.makeScene(), true)
+        && t.checkExpect(immediate.onTick() == immediate, true)
+        && t.checkExpect(immediate.pending, null);
+  }
+
+  // tests that a batch stops at the key pressed after the level ends, as onKeyEvent would
+  boolean testBatchedEnd_SokobanWorld(Tester t) {
+    SokobanLevel holes = new SokobanLevels().find("holes");
+    SokobanWorld batched = new SokobanWorld(holes.toBoard()).batched();
+    SokobanWorld fell = (SokobanWorld) new SokobanWorld(holes.toBoard()).onKeyEvent("down");
+    batched.onKeyEvent("down");
+    batched.onKeyEvent("right");
+    batched.onKeyEvent("right");
+    SokobanWorld lost = (SokobanWorld) batched.onTick();
+    return t.checkExpect(lost.boardState, fell.boardState)
+        && t.checkExpect(lost.boardState.shouldEnd(), true)
+        && t.checkExpect(lost.pending.keys.size(), 0);
+  }
+
+  // tests and examples for onMouseClicked in SokobanWorld
+  boolean testOnMouseClicked_SokobanWorld(Tester t) {
+    SokobanLevel room = new SokobanLevel("room", "______\n" + "______\n" + "______\n"
+        + "____R_\n" + "______", "WWWWWW\n" + "W>___W\n" + "W_r__W\n" + "W____W\n" + "WWWWWW");
+    SokobanWorld world = new SokobanWorld(room.toBoard());
+    SokobanWorld walked = (SokobanWorld) world.onMouseClicked(new Posn(4 * 120 + 5, 120 + 90));
+    // every world gets its own board, since playerMove changes the contents it moves
+    SokobanWorld picked = (SokobanWorld) new SokobanWorld(room.toBoard())
+        .onMouseClicked(new Posn(2 * 120 + 60, 2 * 120));
+    String beforePush = new SokobanGrid(picked.boardState).contentsString();
+    SokobanWorld dropped = (SokobanWorld) picked.onMouseClicked(new Posn(0, 0));
+    SokobanWorld pushed = (SokobanWorld) picked.onMouseClicked(new Posn(4 * 120 + 60, 3 * 120));
+    SokobanWorld batched = new SokobanWorld(room.toBoard()).batched();
+    SokobanWorld queued = (SokobanWorld) batched.onMouseClicked(new Posn(4 * 120 + 5, 120 + 90));
+    return t.checkExpect(new SokobanGrid(walked.boardState).player, 10)
+        && t.checkExpect(picked.selected, new Posn(3, 3))
+        && t.checkExpect(beforePush, room.contents)
+        && t.checkExpect(new SokobanGrid(pushed.boardState).contents[3 * 6 + 4], 'r')
+        && t.checkExpect(pushed.boardState.levelWon(), true)
+        && t.checkExpect(dropped.selected, null)
+        && t.checkExpect(queued.pending.keys.size(), 3)
+        && t.checkExpect(world.onMouseClicked(new Posn(9000, 60)), world);
+  }
+
+  // tests that a world drawn with smaller tiles keeps them as it is played and
+  // reads clicks at that size
+  boolean testWithTile_SokobanWorld(Tester t) {
+    SokobanLevel room = new SokobanLevel("room", "______\n" + "______\n" + "______\n"
+        + "____R_\n" + "______", "WWWWWW\n" + "W>___W\n" + "W_r__W\n" + "W____W\n" + "WWWWWW");
+    SokobanWorld small = new SokobanWorld(room.toBoard()).withTile(40);
+    SokobanWorld walked = (SokobanWorld) small.onMouseClicked(new Posn(4 * 40 + 5, 40 + 30));
+    int player = new SokobanGrid(walked.boardState).player;
+    SokobanWorld moved = (SokobanWorld) walked.onKeyEvent("down");
+    return t.checkExpect(player, 10)
+        && t.checkExpect(moved.tile, 40)
+        && t.checkExpect(moved.makeScene(), moved.boardState.render(40))
+        && t.checkExpect(moved.lastScene("Level Lost"),
+            moved.boardState.lastScene("Level Lost", 40))
+        && t.checkException(new IllegalArgumentException("The tile size must be positive"),
+            small, "withTile", 0);
+  }
+
+  // tests and examples for add and drain in MoveQueue
+  boolean testDrain_MoveQueue(Tester t) {
+    MoveQueue queue = new MoveQueue();
+    queue.add("up");
+    queue.add("pizza");
+    ArrayList<String> expected = new ArrayList<String>();
+    expected.add("up");
+    expected.add("pizza");
+    return t.checkExpect(queue.drain(), expected)
+        && t.checkExpect(queue.drain(), new ArrayList<String>());
+  }
+
   boolean testLastScene(Tester t) {
     WorldImage BLANK = new ComputedPixelImage(120, 120);
     WorldImage RTARGET = new FromFileImage("SokobanImages/RedTarget.png");
@@ -289,9 +661,11 @@ class ExamplesSokobanWorldBasic {
         + "WWHgWWWW\n" + "_WW_W___\n" + "__WWW___";
 
     SokobanBoard shortExB = new SokobanBoard(givenExLevelGround, givenExLevelContents);
-    SokobanWorld shortExW = new SokobanWorld(shortExB);
+    SokobanWorld shortExW = new SokobanWorld(shortExB)
+        .withTile(SpriteAtlas.fit(shortExB.size, 1280, 960));
 
-    return shortExW.bigBang(shortExB.size.x * 120, shortExB.size.y * 120, 0.1);
+    return shortExW.bigBang(shortExB.size.x * shortExW.tile, shortExB.size.y * shortExW.tile,
+        0.1);
   }
 }
 
@@ -305,9 +679,11 @@ class ExamplesSokobanWorldLevelWon {
         + "W_WWy_W_\n" + "W_W___WW\n" + "Wr_bgr_W\n" + "W______W\n" + "WWWWWWWW";
 
     SokobanBoard shortExB = new SokobanBoard(givenExLevelGround, givenExLevelContents);
-    SokobanWorld shortExW = new SokobanWorld(shortExB);
+    SokobanWorld shortExW = new SokobanWorld(shortExB)
+        .withTile(SpriteAtlas.fit(shortExB.size, 1280, 960));
 
-    return shortExW.bigBang(shortExB.size.x * 120, shortExB.size.y * 120, 0.1);
+    return shortExW.bigBang(shortExB.size.x * shortExW.tile, shortExB.size.y * shortExW.tile,
+        0.1);
   }
 }
 
@@ -321,8 +697,37 @@ class ExamplesSokobanWorldHoles {
         + "W_H___W\n" + "W_____W\n" + "WWWWWWW";
 
     SokobanBoard shortExB = new SokobanBoard(givenExLevelGround, givenExLevelContents);
-    SokobanWorld shortExW = new SokobanWorld(shortExB);
+    SokobanWorld shortExW = new SokobanWorld(shortExB)
+        .withTile(SpriteAtlas.fit(shortExB.size, 1280, 960));
+
+    return shortExW.bigBang(shortExB.size.x * shortExW.tile, shortExB.size.y * shortExW.tile,
+        0.1);
+  }
+}
+
+// plays every example level in one world, one after another
+class ExamplesSokobanWorldCampaign {
+  // produces the file the campaign statistics are written to: the one named by
+  // the sokoban.stats property, or a new temporary file
+  static Path statsFile() throws IOException {
+    String named = System.getProperty("sokoban.stats");
+    if (named != null) {
+      return Paths.get(named);
+    }
+    else {
+      return Files.createTempFile("campaign", ".csv");
+    }
+  }
+
+  boolean testsWorld(Tester t) throws IOException {
+    ArrayList<SokobanLevel> pack = new SokobanLevels().examples();
+    Campaign campaign = new Campaign(new LevelCache(pack, 1, 64L << 20),
+        new CampaignStats(pack, ExamplesSokobanWorldCampaign.statsFile()));
+    // a camera as large as the largest level keeps every level in the same window
+    Posn size = new Posn(8, 9);
+    SokobanWorld world = new SokobanWorld(campaign)
+        .withTile(SpriteAtlas.fit(size, 1280, 960)).withCamera(new Camera(size.x, size.y, 0));
 
-    return shortExW.bigBang(shortExB.size.x * 120, shortExB.size.y * 120, 0.1);
+    return world.bigBang(size.x * world.tile, size.y * world.tile, 0.1);
   }
 }
\ No newline at end of file
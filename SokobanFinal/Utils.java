@@ -4,6 +4,36 @@ import java.util.ArrayList;
 import javalib.worldimages.Posn;
 import tester.Tester;
 
+// represents the contents cells of a board as the moves of MovePlayerVisitor
+// read and write them: found by their coordinates, and replaced one at a time
+interface ICellGrid {
+  // produces the cell at the given coordinates, or throws "Cell not found"
+  ICell cellAt(int x, int y);
+
+  // EFFECT: puts the given new cell in the place of the given old cell
+  void replace(ICell old, ICell cell);
+}
+
+// represents the contents cells of a board kept as a list, searched by Utils.findCell
+class ListCellGrid implements ICellGrid {
+  // represents the cells of the board, in any order
+  ArrayList<ICell> list;
+
+  ListCellGrid(ArrayList<ICell> list) {
+    this.list = list;
+  }
+
+  // produces the cell at the given coordinates
+  public ICell cellAt(int x, int y) {
+    return new Utils().findCell(this.list, x, y);
+  }
+
+  // EFFECT: puts the given new cell in the place of the given old cell in the list
+  public void replace(ICell old, ICell cell) {
+    this.list.set(this.list.indexOf(old), cell);
+  }
+}
+
 // contains miscellaneous useful functions
 class Utils {
   // produces a list of strings where each item in the list
@@ -144,6 +174,57 @@ class Utils {
     return -1;
   }
 
+  // produces the direction the player moves in for the given key
+  // ("right", "left", "up" or "down"), or an empty string for any other key
+  String keyDirection(String key) {
+    if (key.equals(">") || key.equals("d") || key.equals("right")) {
+      return "right";
+    }
+    else if ((key.equals("<") || key.equals("a")) || key.equals("left")) {
+      return "left";
+    }
+    else if ((key.equals("^") || key.equals("w")) || key.equals("up")) {
+      return "up";
+    }
+    else if ((key.equals("v") || key.equals("s")) || key.equals("down")) {
+      return "down";
+    }
+    else {
+      return "";
+    }
+  }
+
+  // produces the level string of the given list of cells on a board of the
+  // given size (the reverse of toLevelCells), where each location shows the
+  // first cell in the list at that location that is not a blank, or a blank if
+  // there is none (moving leaves blanks behind in the list at taken locations)
+  String levelString(ArrayList<ICell> list, Posn size) {
+    String[] grid = new String[size.x * size.y];
+    // for every cell in the list, fills in its location unless an earlier cell
+    // that is not a blank already has
+    for (ICell cell : list) {
+      Posn p = cell.accept(new CellPosnVisitor());
+      int index = (p.y - 1) * size.x + (p.x - 1);
+      if (p.x >= 1 && p.y >= 1 && p.x <= size.x && p.y <= size.y
+          && (grid[index] == null || grid[index].equals("_"))) {
+        grid[index] = cell.accept(new CellCharVisitor());
+      }
+    }
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < grid.length; i += 1) {
+      if (i > 0 && i % size.x == 0) {
+        result.append("\n");
+      }
+      if (grid[i] == null) {
+        result.append("_");
+      }
+      else {
+        result.append(grid[i]);
+      }
+    }
+    return result.toString();
+  }
+
   // produces the ICell at the given location (x, y) from the list
   ICell findCell(ArrayList<ICell> list, int x, int y) {
     for (int i = 0; i < list.size(); i += 1) {
@@ -160,18 +241,25 @@ class Utils {
   // on the given list
   // and takes into account the size of the board
   ICell findNext(ArrayList<ICell> list, String direction, Posn start, Posn size) {
+    return this.findNext(new ListCellGrid(list), direction, start, size);
+  }
+
+  // produces the next ICell from the given location in the given direction based
+  // on the given grid
+  // and takes into account the size of the board
+  ICell findNext(ICellGrid grid, String direction, Posn start, Posn size) {
     if ((direction.equals("right")) && ((start.x + 1) <= size.x)) {
-      return this.findCell(list, start.x + 1, start.y);
+      return grid.cellAt(start.x + 1, start.y);
     }
     else if ((direction.equals("left")) && ((start.x - 1) > 0)) {
-      return this.findCell(list, start.x - 1, start.y);
+      return grid.cellAt(start.x - 1, start.y);
     }
     else if ((direction.equals("up")) && ((start.y - 1) > 0)) {
-      return this.findCell(list, start.x, start.y - 1);
+      return grid.cellAt(start.x, start.y - 1);
 
     }
     else if ((direction.equals("down")) && ((start.y + 1) <= size.y)) {
-      return this.findCell(list, start.x, start.y + 1);
+      return grid.cellAt(start.x, start.y + 1);
     }
     else {
       throw new RuntimeException("Out of board");
@@ -518,6 +606,37 @@ class ExamplesUtils {
         && t.checkExpect(new Utils().findPlayerIndex(emptyList), -1);
   }
 
+  // tests and examples for keyDirection in Utils
+  boolean testKeyDirection_Utils(Tester t) {
+    return t.checkExpect(new Utils().keyDirection("d"), "right")
+        && t.checkExpect(new Utils().keyDirection(">"), "right")
+        && t.checkExpect(new Utils().keyDirection("left"), "left")
+        && t.checkExpect(new Utils().keyDirection("a"), "left")
+        && t.checkExpect(new Utils().keyDirection("^"), "up")
+        && t.checkExpect(new Utils().keyDirection("w"), "up")
+        && t.checkExpect(new Utils().keyDirection("s"), "down")
+        && t.checkExpect(new Utils().keyDirection("v"), "down")
+        && t.checkExpect(new Utils().keyDirection("pizza"), "");
+  }
+
+  // tests and examples for levelString in Utils
+  boolean testLevelString_Utils(Tester t) {
+    String ground = "_R__\n" + "G_BY";
+    String contents = "WrB>\n" + "Hgby";
+    ArrayList<ICell> moved = new Utils().toLevelCells("__>\n" + "___", false);
+    moved.add(new Player(new Posn(1, 2)));
+    moved.add(new Blank(new Posn(1, 1)));
+    moved.remove(2);
+    ArrayList<ICell> missing = new ArrayList<ICell>();
+    missing.add(new Wall(new Posn(2, 1)));
+    return t.checkExpect(new Utils().levelString(new Utils().toLevelCells(ground, true),
+        new Posn(4, 2)), ground)
+        && t.checkExpect(new Utils().levelString(new Utils().toLevelCells(contents, false),
+            new Posn(4, 2)), contents)
+        && t.checkExpect(new Utils().levelString(moved, new Posn(3, 2)), "___\n" + ">__")
+        && t.checkExpect(new Utils().levelString(missing, new Posn(2, 1)), "_W");
+  }
+
   // tests and examples for findNext in Utils
   boolean testFindNext_Utils(Tester t) {
     ArrayList<ICell> givenExLevelContentsList = new ArrayList<ICell>();